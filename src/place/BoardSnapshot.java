@@ -0,0 +1,358 @@
+package place;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An immutable, point in time view of a {@link PlaceBoard}, tagged with the
+ * board version it was taken at.  Snapshots are made of chunks that read
+ * the board's store until the board changes them, and a chunk that did not
+ * change between two snapshots is shared by both, so taking a snapshot
+ * copies nothing; a chunk is only copied when it is first changed after a
+ * snapshot that holds it.  Readers can use a snapshot for as long as they
+ * like while the board keeps changing.
+ *
+ * @author Benjamin Gloger
+ */
+public class BoardSnapshot implements Serializable {
+    /** The square dimension of the board */
+    public final int DIM;
+    /** The board version the snapshot was taken at */
+    private final long version;
+    /** The number of chunks along one side of the board */
+    private final int chunksPerSide;
+    /** The chunks, row major */
+    private final Chunk[] chunks;
+    /** The usernames the owner ids refer to */
+    private final UserDictionary dictionary;
+    /** The number of usernames the dictionary held when the snapshot was taken */
+    private final int userCount;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param DIM the square dimension of the board
+     * @param version the board version
+     * @param chunksPerSide the number of chunks along one side
+     * @param chunks the chunks, row major
+     * @param dictionary the usernames the owner ids refer to
+     * @param userCount the number of usernames in use
+     */
+    public BoardSnapshot(int DIM, long version, int chunksPerSide, Chunk[] chunks,
+                  UserDictionary dictionary, int userCount) {
+        this.DIM = DIM;
+        this.version = version;
+        this.chunksPerSide = chunksPerSide;
+        this.chunks = chunks;
+        this.dictionary = dictionary;
+        this.userCount = userCount;
+    }
+
+    /**
+     * Get the board version the snapshot was taken at.
+     *
+     * @return the version
+     */
+    public long getVersion() { return this.version; }
+
+    /**
+     * Get the number of chunks along one side of the board.
+     *
+     * @return chunks per side
+     */
+    public int getChunksPerSide() { return this.chunksPerSide; }
+
+    /**
+     * Get a chunk of the snapshot.
+     *
+     * @param chunk the chunk number, row major
+     * @return the chunk
+     */
+    public Chunk getChunk(int chunk) { return this.chunks[chunk]; }
+
+    /**
+     * Get the usernames the owner ids refer to.  The dictionary may have
+     * grown since, but ids below {@link #getUserCount()} never change.
+     *
+     * @return the dictionary
+     */
+    public UserDictionary getDictionary() { return this.dictionary; }
+
+    /**
+     * Get the number of usernames in use when the snapshot was taken.
+     *
+     * @return the user count
+     */
+    public int getUserCount() { return this.userCount; }
+
+    /**
+     * Get the chunk holding a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the chunk
+     */
+    private Chunk chunkAt(int row, int col) {
+        return chunks[(row / PlaceBoard.CHUNK_SIZE) * chunksPerSide + col / PlaceBoard.CHUNK_SIZE];
+    }
+
+    /**
+     * Get the color number of a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the color number, 0-15
+     */
+    public int getColor(int row, int col) {
+        return chunkAt(row, col).getColor(row % PlaceBoard.CHUNK_SIZE, col % PlaceBoard.CHUNK_SIZE);
+    }
+
+    /**
+     * Get the owner id of a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the owner id
+     */
+    public int getOwner(int row, int col) {
+        return chunkAt(row, col).getOwner(row % PlaceBoard.CHUNK_SIZE, col % PlaceBoard.CHUNK_SIZE);
+    }
+
+    /**
+     * Get the time a tile was changed.
+     *
+     * @param row row
+     * @param col column
+     * @return the time in milliseconds
+     */
+    public long getTime(int row, int col) {
+        return chunkAt(row, col).getTime(row % PlaceBoard.CHUNK_SIZE, col % PlaceBoard.CHUNK_SIZE);
+    }
+
+    /**
+     * One chunk of a snapshot.  Coordinates are relative to the chunk's top
+     * left tile.  A chunk taken from a board reads its tiles straight from
+     * the board's store for as long as the chunk does not change, so a
+     * snapshot of an unchanged board costs no copy of it.  The board
+     * freezes the chunk before its first change after the snapshot, which
+     * copies it out of the store; only then does the chunk cost memory, and
+     * only while a snapshot holding it is still in use.  A frozen chunk
+     * keeps its colors packed two to a byte like an {@link ArrayTileStore}.
+     */
+    public static class Chunk implements Serializable {
+        /** The number of rows and columns in the chunk */
+        private final int rows;
+        private final int cols;
+        /** The board version of the chunk's last change */
+        private final long version;
+        /** The store the chunk reads from until it is frozen, null for a chunk made frozen */
+        private final transient TileStore store;
+        /** The board row and column of the chunk's top left tile in the store */
+        private final int top;
+        private final int left;
+        /** Write locked while the chunk is frozen, so a read of the store that overlaps it is done again */
+        private final transient StampedLock guard;
+        /** Set once the planes hold the chunk, after which the store is never read */
+        private volatile boolean isFrozen;
+        /** Two color numbers per byte, the even tile in the low nibble, row major */
+        private byte[] colors;
+        /** One owner id per tile, row major */
+        private int[] owners;
+        /** One change time per tile, row major */
+        private long[] times;
+
+        /**
+         * Create a chunk reading through to a tile store until it is frozen.
+         *
+         * @param store the store
+         * @param top the board row of the chunk's first row
+         * @param left the board column of the chunk's first column
+         * @param rows the number of rows
+         * @param cols the number of columns
+         * @param version the board version of the chunk's last change
+         */
+        Chunk(TileStore store, int top, int left, int rows, int cols, long version) {
+            this.rows = rows;
+            this.cols = cols;
+            this.version = version;
+            this.store = store;
+            this.top = top;
+            this.left = left;
+            this.guard = new StampedLock();
+        }
+
+        /**
+         * Create a frozen chunk from its planes, which it takes ownership of.
+         *
+         * @param rows the number of rows
+         * @param cols the number of columns
+         * @param version the board version of the chunk's last change
+         * @param colors the color numbers packed two to a byte, the even tile
+         *               in the low nibble, row major
+         * @param owners one owner id per tile, row major
+         * @param times one change time per tile, row major
+         */
+        public Chunk(int rows, int cols, long version, byte[] colors, int[] owners, long[] times) {
+            this.rows = rows;
+            this.cols = cols;
+            this.version = version;
+            this.store = null;
+            this.top = 0;
+            this.left = 0;
+            this.guard = null;
+            this.colors = colors;
+            this.owners = owners;
+            this.times = times;
+            this.isFrozen = true;
+        }
+
+        /**
+         * Copy the chunk out of the store, before the board changes it.  The
+         * caller must be the only one changing the chunk, as the board is
+         * when it is about to change one of its tiles.
+         */
+        void freeze() {
+            long stamp = guard.writeLock();
+            try {
+                if (isFrozen) {
+                    return;
+                }
+                int tiles = rows * cols;
+                byte[] colors = new byte[(tiles + 1) / 2];
+                int[] owners = new int[tiles];
+                long[] times = new long[tiles];
+                for (int row = 0; row < rows; row++) {
+                    for (int col = 0; col < cols; col++) {
+                        int i = row * cols + col;
+                        colors[i >> 1] |= (byte) (store.getColor(top + row, left + col) << ((i & 1) << 2));
+                        owners[i] = store.getOwner(top + row, left + col);
+                        times[i] = store.getTime(top + row, left + col);
+                    }
+                }
+                this.colors = colors;
+                this.owners = owners;
+                this.times = times;
+                isFrozen = true;
+            } finally {
+                guard.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Wait for a freeze that overlapped a read of the store to finish,
+         * so the read can be made from the planes instead.
+         */
+        private void awaitFrozen() {
+            guard.unlockRead(guard.readLock());
+        }
+
+        /**
+         * Get the number of rows in the chunk.
+         *
+         * @return the rows
+         */
+        public int getRows() { return this.rows; }
+
+        /**
+         * Get the number of columns in the chunk.
+         *
+         * @return the columns
+         */
+        public int getCols() { return this.cols; }
+
+        /**
+         * Get the board version of the chunk's last change.
+         *
+         * @return the version
+         */
+        public long getVersion() { return this.version; }
+
+        /**
+         * Get the color number of a tile.
+         *
+         * @param row row within the chunk
+         * @param col column within the chunk
+         * @return the color number, 0-15
+         */
+        public int getColor(int row, int col) {
+            if (!isFrozen) {
+                long stamp = guard.tryOptimisticRead();
+                if (!isFrozen) {
+                    int color = store.getColor(top + row, left + col);
+                    if (guard.validate(stamp)) {
+                        return color;
+                    }
+                }
+                awaitFrozen();
+            }
+            int i = row * cols + col;
+            return (colors[i >> 1] >> ((i & 1) << 2)) & 0xF;
+        }
+
+        /**
+         * Get the owner id of a tile.
+         *
+         * @param row row within the chunk
+         * @param col column within the chunk
+         * @return the owner id
+         */
+        public int getOwner(int row, int col) {
+            if (!isFrozen) {
+                long stamp = guard.tryOptimisticRead();
+                if (!isFrozen) {
+                    int owner = store.getOwner(top + row, left + col);
+                    if (guard.validate(stamp)) {
+                        return owner;
+                    }
+                }
+                awaitFrozen();
+            }
+            return this.owners[row * cols + col];
+        }
+
+        /**
+         * Get the time a tile was changed.
+         *
+         * @param row row within the chunk
+         * @param col column within the chunk
+         * @return the time in milliseconds
+         */
+        public long getTime(int row, int col) {
+            if (!isFrozen) {
+                long stamp = guard.tryOptimisticRead();
+                if (!isFrozen) {
+                    long time = store.getTime(top + row, left + col);
+                    if (guard.validate(stamp)) {
+                        return time;
+                    }
+                }
+                awaitFrozen();
+            }
+            return this.times[row * cols + col];
+        }
+
+        /**
+         * A chunk still reading from its store is written as a frozen copy.
+         *
+         * @return the chunk to serialize
+         */
+        private Object writeReplace() {
+            if (isFrozen) {
+                return this;
+            }
+            int tiles = rows * cols;
+            byte[] colors = new byte[(tiles + 1) / 2];
+            int[] owners = new int[tiles];
+            long[] times = new long[tiles];
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    int i = row * cols + col;
+                    colors[i >> 1] |= (byte) (getColor(row, col) << ((i & 1) << 2));
+                    owners[i] = getOwner(row, col);
+                    times[i] = getTime(row, col);
+                }
+            }
+            return new Chunk(rows, cols, version, colors, owners, times);
+        }
+    }
+}
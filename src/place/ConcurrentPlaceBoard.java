@@ -0,0 +1,307 @@
+package place;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link PlaceBoard} that many threads can change and read at once.
+ * Instead of one lock for the whole board, every chunk has its own
+ * {@link StampedLock}: a change only holds the write lock of its chunk, so
+ * changes to different chunks never wait for each other, and reads of a
+ * tile are optimistic and only take the read lock when a change to the
+ * chunk got in between.  The board version is an atomic counter, so every
+ * change still gets a version of its own.
+ *
+ * A {@link #snapshot()} takes the read lock of every chunk.  While it holds
+ * them, no change is between taking its version and writing its tile, so
+ * the snapshot has every change up to its version and none after it.  It
+ * copies no tiles, so writers only wait for it to collect its chunks, and
+ * the first change to a chunk after a snapshot copies that chunk under the
+ * chunk's write lock, as with a plain board.
+ *
+ * Two tiles that share a packed color byte are always in the same chunk,
+ * since chunks and padded rows are an even number of tiles wide.
+ *
+ * @author Benjamin Gloger
+ */
+public class ConcurrentPlaceBoard extends PlaceBoard {
+    /** One lock per chunk, row major */
+    private final StampedLock[] locks;
+    /** The number of changes made to the board */
+    private final AtomicLong version = new AtomicLong();
+    /** The board version of the last change in each chunk, row major */
+    private final AtomicLongArray chunkVersions;
+    /** 1 for the chunks changed since their flag was last cleared, row major */
+    private final AtomicIntegerArray dirty;
+
+    /**
+     * Create a new board of all white tiles.
+     *
+     * @param DIM the square dimension of the board
+     */
+    public ConcurrentPlaceBoard(int DIM) {
+        this(new ArrayTileStore(DIM), new UserDictionary());
+    }
+
+    /**
+     * Create a board over an existing tile store.
+     *
+     * @param store the storage engine holding the tiles
+     * @param dictionary the usernames the store's owner ids refer to
+     */
+    public ConcurrentPlaceBoard(TileStore store, UserDictionary dictionary) {
+        super(store, dictionary);
+        int chunks = getChunksPerSide() * getChunksPerSide();
+        this.locks = new StampedLock[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            locks[chunk] = new StampedLock();
+        }
+        this.chunkVersions = new AtomicLongArray(chunks);
+        this.dirty = new AtomicIntegerArray(chunks);
+    }
+
+    /**
+     * Get a tile on the board
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the tile
+     */
+    @Override
+    public PlaceTile getTile(int row, int col) {
+        TileStore store = getStore();
+        StampedLock lock = locks[getChunk(row, col)];
+        long stamp = lock.tryOptimisticRead();
+        int owner = store.getOwner(row, col);
+        int color = store.getColor(row, col);
+        long time = store.getTime(row, col);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                owner = store.getOwner(row, col);
+                color = store.getColor(row, col);
+                time = store.getTime(row, col);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return new PlaceTile(row, col, owner, getDictionary().getName(owner), PlaceColor.fromNumber(color), time);
+    }
+
+    /**
+     * Get the color of a tile without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    @Override
+    public PlaceColor getColor(int row, int col) {
+        StampedLock lock = locks[getChunk(row, col)];
+        long stamp = lock.tryOptimisticRead();
+        int color = getStore().getColor(row, col);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                color = getStore().getColor(row, col);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return PlaceColor.fromNumber(color);
+    }
+
+    /**
+     * Get the owner of a tile without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the username of the owner
+     */
+    @Override
+    public String getOwner(int row, int col) {
+        StampedLock lock = locks[getChunk(row, col)];
+        long stamp = lock.tryOptimisticRead();
+        int owner = getStore().getOwner(row, col);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                owner = getStore().getOwner(row, col);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return getDictionary().getName(owner);
+    }
+
+    /**
+     * Get the time a tile was changed without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the time in milliseconds
+     */
+    @Override
+    public long getTime(int row, int col) {
+        StampedLock lock = locks[getChunk(row, col)];
+        long stamp = lock.tryOptimisticRead();
+        long time = getStore().getTime(row, col);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                time = getStore().getTime(row, col);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Change a tile in the board, holding only the lock of its chunk.  A
+     * tile that only knows its owner by name has the name interned into the
+     * dictionary.
+     *
+     * @param tile the new tile
+     * @return the board version of the change
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public long setTile(PlaceTile tile) {
+        return write(tile, false, null);
+    }
+
+    /**
+     * Change a tile in the board only if that changes something, and only
+     * if the tile still has the color the change expects.  The check and
+     * the change are made under the lock of the tile's chunk, so no other
+     * change to the tile can get in between.
+     *
+     * @param tile the new tile
+     * @param expected the color the tile must have now, or null for any color
+     * @return the board version of the change, or 0 if the tile was left as it was
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    @Override
+    public long setTileIf(PlaceTile tile, PlaceColor expected) {
+        return write(tile, true, expected);
+    }
+
+    /**
+     * Change a tile while holding the write lock of its chunk.
+     *
+     * @param tile the new tile
+     * @param conditional only change the tile if that changes something
+     * @param expected the color the tile must have now, or null for any color
+     * @return the board version of the change, or 0 if the tile was left as it was
+     */
+    private long write(PlaceTile tile, boolean conditional, PlaceColor expected) {
+        int owner = ownerOf(tile);
+        int chunk = getChunk(tile.getRow(), tile.getCol());
+        StampedLock lock = locks[chunk];
+        long stamp = lock.writeLock();
+        try {
+            if (conditional && !isChange(tile, owner, expected)) {
+                return 0;
+            }
+            freeze(chunk);
+            long changed = version.incrementAndGet();
+            getStore().set(tile.getRow(), tile.getCol(), tile.getColor().getNumber(), owner, tile.getTime());
+            chunkVersions.set(chunk, changed);
+            dirty.set(chunk, 1);
+            return changed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Move the board version forward without changing any tile, so the
+     * next change gets a version no earlier board could have reached.
+     *
+     * @param version the version to continue from, ignored if it is lower
+     */
+    @Override
+    public void skipVersionsTo(long version) {
+        this.version.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * Get the number of changes made to the board.  It only ever grows.
+     * Changes with a version up to it may still be being written.
+     *
+     * @return the board version
+     */
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Get the board version of the last change in a chunk.
+     *
+     * @param chunk the chunk number
+     * @return the chunk version, 0 if the chunk never changed
+     */
+    @Override
+    public long getChunkVersion(int chunk) {
+        return chunkVersions.get(chunk);
+    }
+
+    /**
+     * Tells whether a chunk changed since its dirty flag was last cleared.
+     *
+     * @param chunk the chunk number
+     * @return is the chunk dirty?
+     */
+    @Override
+    public boolean isDirty(int chunk) {
+        return dirty.get(chunk) != 0;
+    }
+
+    /**
+     * Clear the dirty flag of a chunk.
+     *
+     * @param chunk the chunk number
+     */
+    @Override
+    public void clearDirty(int chunk) {
+        dirty.set(chunk, 0);
+    }
+
+    /**
+     * Take an immutable snapshot of the board at its current version.  No
+     * tile is copied, and a chunk that did not change since the previous
+     * snapshot is shared with it.  Snapshots are taken one at a time, and
+     * changes wait while one collects its chunks.
+     *
+     * @return the snapshot
+     */
+    @Override
+    public synchronized BoardSnapshot snapshot() {
+        long[] stamps = new long[locks.length];
+        for (int chunk = 0; chunk < locks.length; chunk++) {
+            stamps[chunk] = locks[chunk].readLock();
+        }
+        try {
+            long current = version.get();
+            int chunksPerSide = getChunksPerSide();
+            BoardSnapshot.Chunk[] chunks = new BoardSnapshot.Chunk[locks.length];
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                chunks[chunk] = liveChunk(chunk);
+            }
+            UserDictionary dictionary = getDictionary();
+            return new BoardSnapshot(DIM, current, chunksPerSide, chunks, dictionary, dictionary.size());
+        } finally {
+            for (int chunk = 0; chunk < locks.length; chunk++) {
+                locks[chunk].unlockRead(stamps[chunk]);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * A tile change that only applies while the tile on the board still has an
+ * expected color, sent as a CHANGE_TILE_IF.  A client that saw a tile
+ * painted over asks to paint it back only if nobody else got there first,
+ * so clients fighting over the same tiles don't repaint them for nothing.
+ *
+ * @author Benjamin Gloger
+ */
+public class ConditionalTile implements Serializable {
+    /** The change, with only its row, column and color used */
+    private PlaceTile tile;
+    /** The color the tile must have for the change to apply */
+    private PlaceColor expected;
+
+    /**
+     * Create a conditional change.
+     *
+     * @param tile the change, with only its row, column and color used
+     * @param expected the color the tile must have for the change to apply
+     */
+    public ConditionalTile(PlaceTile tile, PlaceColor expected) {
+        this.tile = tile;
+        this.expected = expected;
+    }
+
+    /**
+     * Get the change.
+     *
+     * @return the tile
+     */
+    public PlaceTile getTile() { return tile; }
+
+    /**
+     * Get the color the tile must have for the change to apply.
+     *
+     * @return the expected color
+     */
+    public PlaceColor getExpected() { return expected; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the change as a string
+     */
+    @Override
+    public String toString() {
+        return "ConditionalTile{" +
+                "tile=" + tile +
+                ", expected=" + expected +
+                '}';
+    }
+}
@@ -0,0 +1,188 @@
+package place;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link TileStore} kept off the heap in a memory mapped file.  The board
+ * costs nothing on the heap beyond the mappings themselves, so its size is
+ * bounded by disk and address space instead of by the garbage collector,
+ * and the operating system's page cache writes changed tiles back to the
+ * file.  Reopening the same file with the same dimension brings the board
+ * back as it was.
+ *
+ * The file holds a small header followed by three planes: packed colors,
+ * owner ids and timestamps, each in row major order.  Colors are stored
+ * XORed with white so that the zero filled pages of a new file read back
+ * as a white board without having to be written first.
+ *
+ * @author Benjamin Gloger
+ */
+public class MappedTileStore implements TileStore, Serializable {
+    /** Marks a file as a mapped board */
+    private static final int MAGIC = 0x504C4345;
+    /** Bytes reserved for the header */
+    private static final long HEADER_SIZE = 64;
+    /** Bytes per mapping, a multiple of 8 so no value spans two mappings */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    /** The stored value of a color is its number XORed with this */
+    private static final int COLOR_BIAS = PlaceColor.WHITE.getNumber();
+
+    /** The square dimension of the board */
+    private final int dim;
+    /** The number of tiles per row in the color plane, always even */
+    private final long stride;
+    /** File offsets of the three planes */
+    private final long colorBase;
+    private final long ownerBase;
+    private final long timeBase;
+    /** The file, mapped in SEGMENT_SIZE pieces */
+    private transient MappedByteBuffer[] segments;
+    private transient RandomAccessFile file;
+
+    /**
+     * Open a mapped board, creating the file if it does not exist.
+     *
+     * @param path the file holding the board
+     * @param dim the square dimension of the board
+     * @throws IOException if the file cannot be mapped or holds a board
+     * of a different dimension
+     */
+    public MappedTileStore(String path, int dim) throws IOException {
+        this.dim = dim;
+        this.stride = (dim + 1) & ~1;
+        long tiles = (long) dim * dim;
+        this.colorBase = HEADER_SIZE;
+        this.ownerBase = align(colorBase + (long) dim * stride / 2);
+        this.timeBase = align(ownerBase + tiles * 4);
+        long length = timeBase + tiles * 8;
+
+        this.file = new RandomAccessFile(path, "rw");
+        try {
+            if (file.length() == 0) {
+                file.setLength(length);
+                file.writeInt(MAGIC);
+                file.writeInt(dim);
+            } else {
+                if (file.readInt() != MAGIC) {
+                    throw new IOException(path + " is not a mapped board");
+                }
+                int stored = file.readInt();
+                if (stored != dim || file.length() != length) {
+                    throw new IOException(path + " holds a board of dimension " + stored);
+                }
+            }
+            FileChannel channel = file.getChannel();
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Round an offset up to the next multiple of 8.
+     *
+     * @param offset the offset
+     * @return the aligned offset
+     */
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * Get the mapping holding a file offset.
+     *
+     * @param offset the file offset
+     * @return the mapping
+     */
+    private MappedByteBuffer segment(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)];
+    }
+
+    /**
+     * Get the position of a file offset within its mapping.
+     *
+     * @param offset the file offset
+     * @return the position
+     */
+    private static int position(long offset) {
+        return (int) (offset & (SEGMENT_SIZE - 1));
+    }
+
+    @Override
+    public int getDim() {
+        return this.dim;
+    }
+
+    @Override
+    public int getColor(int row, int col) {
+        long nibble = row * stride + col;
+        long offset = colorBase + (nibble >> 1);
+        int packed = segment(offset).get(position(offset));
+        return ((packed >> ((nibble & 1) << 2)) & 0xF) ^ COLOR_BIAS;
+    }
+
+    @Override
+    public int getOwner(int row, int col) {
+        long offset = ownerBase + ((long) row * dim + col) * 4;
+        return segment(offset).getInt(position(offset));
+    }
+
+    @Override
+    public long getTime(int row, int col) {
+        long offset = timeBase + ((long) row * dim + col) * 8;
+        return segment(offset).getLong(position(offset));
+    }
+
+    @Override
+    public void set(int row, int col, int color, int owner, long time) {
+        long nibble = row * stride + col;
+        long offset = colorBase + (nibble >> 1);
+        int shift = (int) (nibble & 1) << 2;
+        MappedByteBuffer colors = segment(offset);
+        int packed = colors.get(position(offset));
+        colors.put(position(offset), (byte) ((packed & ~(0xF << shift)) | (((color ^ COLOR_BIAS) & 0xF) << shift)));
+
+        offset = ownerBase + ((long) row * dim + col) * 4;
+        segment(offset).putInt(position(offset), owner);
+        offset = timeBase + ((long) row * dim + col) * 8;
+        segment(offset).putLong(position(offset), time);
+    }
+
+    /**
+     * Write every changed page back to the file and close it.
+     *
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        file.close();
+    }
+
+    /**
+     * A mapping cannot be sent over the network, and a heap copy of a
+     * board big enough to be mapped may not fit on the heap, so a mapped
+     * store is never serialized.  A PlaceBoard serializes its tiles, not
+     * its store.
+     *
+     * @return nothing
+     * @throws NotSerializableException always
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        throw new NotSerializableException("A mapped board of dimension " + dim + " is not serialized");
+    }
+}
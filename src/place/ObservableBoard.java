@@ -40,4 +40,15 @@ public class ObservableBoard extends Observable{
         super.setChanged();
         super.notifyObservers(board.getTile(tile.getRow(), tile.getCol())); // Sends to the observers the tile that was changed
     }
+
+    /**
+     * This method replaces the whole board, when the server resyncs a client that fell behind. Observers are
+     * sent null, since every tile may have changed.
+     * @param new_board the PlaceBoard that replaces the current one
+     */
+    public void resetBoard(PlaceBoard new_board){
+        this.board = new_board;
+        super.setChanged();
+        super.notifyObservers(null);
+    }
 }
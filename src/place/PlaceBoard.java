@@ -1,5 +1,10 @@
 package place;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 /**
@@ -7,13 +12,59 @@ import java.io.Serializable;
  * the initial Board and then transmits it only once to each client that
  * successfully logs in to the server.
  *
+ * The tiles themselves live in a {@link TileStore} as primitives.  The
+ * {@link PlaceTile} objects handed out by {@link #getTile(int, int)} are
+ * views created on demand, and owners are stored as ids into a
+ * {@link UserDictionary}.
+ *
+ * The board is split into square chunks of {@link #CHUNK_SIZE} tiles a side
+ * (the last row and column of chunks may be smaller).  Every change bumps
+ * the board's version, and each chunk remembers the version of its last
+ * change and whether it changed since its dirty flag was last cleared, so
+ * consumers can find what changed without rescanning the whole board.
+ *
+ * Changes and {@link #snapshot()} are synchronized on the board.  A
+ * snapshot copies no tiles: its chunks read the store until a change to
+ * one of them copies that chunk first, so a writer pays for at most one
+ * chunk copy and never waits for whatever a reader then does with the
+ * snapshot.  {@link ConcurrentPlaceBoard} locks each chunk on its
+ * own instead, for boards changed by many threads at once.
+ *
+ * With Java serialization a board is written the way the first clients
+ * read it: its dimension and a grid of tiles naming their owners.
+ *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceBoard implements Serializable {
+    /** The version the first clients were built with */
+    private static final long serialVersionUID = -6226513820871739594L;
+    /** The fields the first clients read */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("DIM", int.class),
+            new ObjectStreamField("board", PlaceTile[][].class)
+    };
+
     /** The square dimension of the board */
     public final int DIM;
-    /** The grid of tiles */
-    private PlaceTile[][] board;
+    /** The storage engine holding the tiles */
+    private TileStore store;
+    /** The number of tiles along one side of a chunk */
+    public static final int CHUNK_SIZE = 64;
+
+    /** The usernames of the owners */
+    private UserDictionary dictionary;
+    /** The number of chunks along one side of the board */
+    private int chunksPerSide;
+    /** The number of changes made to the board */
+    private long version;
+    /** The board version of the last change in each chunk, row major */
+    private long[] chunkVersions;
+    /** The chunks changed since their flag was last cleared, row major */
+    private boolean[] dirty;
+    /** The snapshot chunks still reading the store, which are frozen before their chunk changes, row major */
+    private transient BoardSnapshot.Chunk[] liveChunks;
+    /** The grid of tiles read from Java serialization, until readResolve makes the board */
+    private transient PlaceTile[][] serialTiles;
 
     /**
      * Create a new board of all white tiles.
@@ -21,23 +72,80 @@ public class PlaceBoard implements Serializable {
      * @param DIM the square dimension of the board
      */
     public PlaceBoard(int DIM) {
-        this.DIM = DIM;
-        this.board = new PlaceTile[DIM][DIM];
-        for (int row=0; row<DIM; ++row) {
-            for (int col=0; col<DIM; ++col) {
-                this.board[row][col] =
-                        new PlaceTile(row, col, "", PlaceColor.WHITE);
+        this(new ArrayTileStore(DIM), new UserDictionary());
+    }
+
+    /**
+     * Create a board over an existing tile store.
+     *
+     * @param store the storage engine holding the tiles
+     * @param dictionary the usernames the store's owner ids refer to
+     */
+    public PlaceBoard(TileStore store, UserDictionary dictionary) {
+        this.DIM = store.getDim();
+        this.store = store;
+        this.dictionary = dictionary;
+        this.chunksPerSide = (DIM + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunkVersions = new long[chunksPerSide * chunksPerSide];
+        this.dirty = new boolean[chunksPerSide * chunksPerSide];
+        this.liveChunks = new BoardSnapshot.Chunk[chunksPerSide * chunksPerSide];
+    }
+
+    /**
+     * Create a board holding a copy of a snapshot.
+     *
+     * @param snapshot the snapshot
+     */
+    public PlaceBoard(BoardSnapshot snapshot) {
+        this(new ArrayTileStore(snapshot.DIM), snapshot.getDictionary());
+        for (int chunk = 0; chunk < chunkVersions.length; chunk++) {
+            BoardSnapshot.Chunk copy = snapshot.getChunk(chunk);
+            int top = (chunk / chunksPerSide) * CHUNK_SIZE;
+            int left = (chunk % chunksPerSide) * CHUNK_SIZE;
+            for (int row = 0; row < copy.getRows(); row++) {
+                for (int col = 0; col < copy.getCols(); col++) {
+                    store.set(top + row, left + col, copy.getColor(row, col),
+                            copy.getOwner(row, col), copy.getTime(row, col));
+                }
             }
+            chunkVersions[chunk] = copy.getVersion();
         }
+        this.version = snapshot.getVersion();
     }
 
     /**
-     * Get the entire board.
+     * Get the entire board.  The tiles are copies, so this costs a full
+     * pass over the board; use {@link #getTile(int, int)} or
+     * {@link #getColor(int, int)} for single tiles.
      *
      * @return the board
      */
     public PlaceTile[][] getBoard() {
-        return this.board;
+        PlaceTile[][] tiles = new PlaceTile[DIM][DIM];
+        for (int row=0; row<DIM; ++row) {
+            for (int col=0; col<DIM; ++col) {
+                tiles[row][col] = getTile(row, col);
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Get the storage engine holding the tiles.
+     *
+     * @return the tile store
+     */
+    public TileStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Get the usernames the board's owner ids refer to.
+     *
+     * @return the user dictionary
+     */
+    public UserDictionary getDictionary() {
+        return this.dictionary;
     }
 
     /**
@@ -49,17 +157,233 @@ public class PlaceBoard implements Serializable {
      * @return the tile
      */
     public PlaceTile getTile(int row, int col){
-        return this.board[row][col];
+        int owner = store.getOwner(row, col);
+        return new PlaceTile(row, col, owner, dictionary.getName(owner), getColor(row, col), store.getTime(row, col));
     }
 
     /**
-     * Change a tile in the board.
+     * Get the color of a tile without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the color
+     */
+    public PlaceColor getColor(int row, int col) {
+        return PlaceColor.fromNumber(store.getColor(row, col));
+    }
+
+    /**
+     * Get the owner of a tile without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the username of the owner
+     */
+    public String getOwner(int row, int col) {
+        return dictionary.getName(store.getOwner(row, col));
+    }
+
+    /**
+     * Get the time a tile was changed without creating a tile.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the time in milliseconds
+     */
+    public long getTime(int row, int col) {
+        return store.getTime(row, col);
+    }
+
+    /**
+     * Change a tile in the board.  A tile that only knows its owner by name
+     * has the name interned into the dictionary.
+     *
+     * @param tile the new tile
+     * @return the board version of the change
+     * @rit.pre row and column constitute a valid board coordinate
+     */
+    public synchronized long setTile(PlaceTile tile) {
+        int owner = ownerOf(tile);
+        int chunk = getChunk(tile.getRow(), tile.getCol());
+        freeze(chunk);
+        store.set(tile.getRow(), tile.getCol(), tile.getColor().getNumber(), owner, tile.getTime());
+        chunkVersions[chunk] = ++version;
+        dirty[chunk] = true;
+        return version;
+    }
+
+    /**
+     * Change a tile in the board only if that changes something, and only
+     * if the tile still has the color the change expects.  A tile that
+     * already has the new color and owner is left alone, so repainting it
+     * does not take a version and is never sent to anyone.
      *
      * @param tile the new tile
+     * @param expected the color the tile must have now, or null for any color
+     * @return the board version of the change, or 0 if the tile was left as it was
      * @rit.pre row and column constitute a valid board coordinate
      */
-    public void setTile(PlaceTile tile) {
-        this.board[tile.getRow()][tile.getCol()] = tile;
+    public synchronized long setTileIf(PlaceTile tile, PlaceColor expected) {
+        if (!isChange(tile, ownerOf(tile), expected)) {
+            return 0;
+        }
+        return setTile(tile);
+    }
+
+    /**
+     * Get the owner id a tile will be stored with.  A tile that only knows
+     * its owner by name has the name interned into the dictionary.
+     *
+     * @param tile the tile
+     * @return the owner id
+     */
+    protected int ownerOf(PlaceTile tile) {
+        int owner = tile.getOwnerId();
+        if (owner < 0) {
+            owner = dictionary.intern(tile.getOwner() == null ? "" : tile.getOwner());
+        }
+        return owner;
+    }
+
+    /**
+     * Tells whether storing a tile would change the board, and the tile on
+     * the board has the expected color.  The caller holds whatever lock
+     * keeps the tile from changing meanwhile.
+     *
+     * @param tile the new tile
+     * @param owner the owner id it will be stored with
+     * @param expected the color the tile must have now, or null for any color
+     * @return should the tile be stored?
+     */
+    protected boolean isChange(PlaceTile tile, int owner, PlaceColor expected) {
+        int color = store.getColor(tile.getRow(), tile.getCol());
+        if (expected != null && color != expected.getNumber()) {
+            return false;
+        }
+        return color != tile.getColor().getNumber() || store.getOwner(tile.getRow(), tile.getCol()) != owner;
+    }
+
+    /**
+     * Move the board version forward without changing any tile, so the
+     * next change gets a version no earlier board could have reached.
+     *
+     * @param version the version to continue from, ignored if it is lower
+     */
+    public synchronized void skipVersionsTo(long version) {
+        this.version = Math.max(this.version, version);
+    }
+
+    /**
+     * Get the number of changes made to the board.  It only ever grows.
+     *
+     * @return the board version
+     */
+    public synchronized long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the number of chunks along one side of the board.
+     *
+     * @return chunks per side
+     */
+    public int getChunksPerSide() {
+        return this.chunksPerSide;
+    }
+
+    /**
+     * Get the chunk holding a tile.  Chunks are numbered row major.
+     *
+     * @param row row
+     * @param col column
+     * @rit.pre row and column constitute a valid board coordinate
+     * @return the chunk number
+     */
+    public int getChunk(int row, int col) {
+        return (row / CHUNK_SIZE) * chunksPerSide + col / CHUNK_SIZE;
+    }
+
+    /**
+     * Get the board version of the last change in a chunk.
+     *
+     * @param chunk the chunk number
+     * @return the chunk version, 0 if the chunk never changed
+     */
+    public synchronized long getChunkVersion(int chunk) {
+        return chunkVersions[chunk];
+    }
+
+    /**
+     * Tells whether a chunk changed since its dirty flag was last cleared.
+     *
+     * @param chunk the chunk number
+     * @return is the chunk dirty?
+     */
+    public synchronized boolean isDirty(int chunk) {
+        return dirty[chunk];
+    }
+
+    /**
+     * Clear the dirty flag of a chunk.
+     *
+     * @param chunk the chunk number
+     */
+    public synchronized void clearDirty(int chunk) {
+        dirty[chunk] = false;
+    }
+
+    /**
+     * Take an immutable snapshot of the board at its current version.  No
+     * tile is copied: every chunk of the snapshot reads the store until the
+     * chunk changes, and a chunk that did not change since the previous
+     * snapshot is shared with it.
+     *
+     * @return the snapshot
+     */
+    public synchronized BoardSnapshot snapshot() {
+        BoardSnapshot.Chunk[] chunks = new BoardSnapshot.Chunk[chunkVersions.length];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            chunks[chunk] = liveChunk(chunk);
+        }
+        return new BoardSnapshot(DIM, version, chunksPerSide, chunks, dictionary, dictionary.size());
+    }
+
+    /**
+     * Get the snapshot chunk reading a chunk of the store, making one if
+     * the chunk changed since the last.  The caller must keep the chunk
+     * from changing meanwhile.
+     *
+     * @param chunk the chunk number
+     * @return the snapshot chunk
+     */
+    protected BoardSnapshot.Chunk liveChunk(int chunk) {
+        BoardSnapshot.Chunk live = liveChunks[chunk];
+        if (live == null) {
+            int top = (chunk / chunksPerSide) * CHUNK_SIZE;
+            int left = (chunk % chunksPerSide) * CHUNK_SIZE;
+            live = new BoardSnapshot.Chunk(store, top, left,
+                    Math.min(CHUNK_SIZE, DIM - top), Math.min(CHUNK_SIZE, DIM - left), getChunkVersion(chunk));
+            liveChunks[chunk] = live;
+        }
+        return live;
+    }
+
+    /**
+     * Copy a chunk out of the store into the snapshots that still read it,
+     * before it changes.  The caller must be the only one changing the
+     * chunk.
+     *
+     * @param chunk the chunk number
+     */
+    protected void freeze(int chunk) {
+        BoardSnapshot.Chunk live = liveChunks[chunk];
+        if (live != null) {
+            live.freeze();
+            liveChunks[chunk] = null;
+        }
     }
 
     /**
@@ -74,6 +398,53 @@ public class PlaceBoard implements Serializable {
                 tile.getCol() < this.DIM;
     }
 
+    /**
+     * Write the board the way the first clients read it.
+     *
+     * @param out the stream
+     * @throws IOException if the stream fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("DIM", DIM);
+        fields.put("board", getBoard());
+        out.writeFields();
+    }
+
+    /**
+     * Read a board written by writeObject, or by the first servers.
+     *
+     * @param in the stream
+     * @throws IOException if the stream fails
+     * @throws ClassNotFoundException if a class in the stream is not known
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        serialTiles = (PlaceTile[][]) in.readFields().get("board", null);
+    }
+
+    /**
+     * Make the board that was read.  Owners are interned by name, since the
+     * ids in the stream belong to the dictionary of whoever wrote it.
+     *
+     * @return the board
+     * @throws InvalidObjectException if the stream held no tiles
+     */
+    private Object readResolve() throws InvalidObjectException {
+        if (serialTiles == null) {
+            throw new InvalidObjectException("A board without tiles");
+        }
+        PlaceBoard board = new PlaceBoard(serialTiles.length);
+        for (PlaceTile[] row : serialTiles) {
+            for (PlaceTile tile : row) {
+                if (tile != null && board.isValid(tile)) {
+                    tile.setOwnerId(-1);
+                    board.setTile(tile);
+                }
+            }
+        }
+        return board;
+    }
+
     /**
      * Return a string representation of the board.  It displays the tile color as
      * a single character hex value in the range 0-F.
@@ -82,11 +453,11 @@ public class PlaceBoard implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder("");
+        StringBuilder builder = new StringBuilder(DIM * (DIM + 1));
         for (int row=0; row<DIM; ++row) {
             builder.append("\n");
             for (int col=0; col<DIM; ++col) {
-                builder.append(this.board[row][col].getColor());
+                builder.append(Character.toUpperCase(Character.forDigit(store.getColor(row, col), 16)));
             }
         }
         return builder.toString();
@@ -9,14 +9,19 @@ import java.io.Serializable;
  * @author Sean Strout @ RIT CS
  */
 public class PlaceTile implements Serializable {
+    /** the version the first clients were built with, so they still read tiles from Java serialization */
+    private static final long serialVersionUID = -507145776981425850L;
+
     /** the row */
     private int row;
     /** the column */
     private int col;
     /** the color */
     private PlaceColor color;
-    /** the owner */
+    /** the owner; the binary protocol leaves it out and the receiving side resolves it from ownerId */
     private String user;
+    /** the owner's id in the server's UserDictionary, -1 if not known */
+    private int ownerId;
 
     /**
      * the time the tile was changed, in milliseconds.  it is the difference,
@@ -25,6 +30,9 @@ public class PlaceTile implements Serializable {
      */
     private long time;
 
+    /** the server's sequence number of the change, the board version it made, 0 if not known */
+    private long sequence;
+
     /**
      * Create a tile (with no timestamp).
      *
@@ -47,8 +55,23 @@ public class PlaceTile implements Serializable {
      * @param time current time in milliseconds
      */
     public PlaceTile(int row, int col, String user, PlaceColor color, long time) {
+        this(row, col, -1, user, color, time);
+    }
+
+    /**
+     * Create a tile whose owner is known by id.
+     *
+     * @param row the row
+     * @param col the column
+     * @param ownerId the owner's id in the UserDictionary
+     * @param user the user, or null if only the id is known
+     * @param color the color
+     * @param time current time in milliseconds
+     */
+    public PlaceTile(int row, int col, int ownerId, String user, PlaceColor color, long time) {
         this.row = row;
         this.col = col;
+        this.ownerId = ownerId;
         this.color = color;
         this.user = user;
         this.time = time;
@@ -96,14 +119,53 @@ public class PlaceTile implements Serializable {
      */
     public void setTime(long time) { this.time = time; }
 
+    /**
+     * Get the tile's owner.  The binary protocol does not send the username,
+     * so tiles received with it only know their owner id.
+     *
+     * @return the username, or null if only the id is known
+     */
     public String getOwner() {
         return this.user;
     }
 
+    /**
+     * Change the tile's owner.
+     *
+     * @param user the username
+     */
     public void setOwner(String user) {
         this.user = user;
     }
 
+    /**
+     * Get the id of the tile's owner.
+     *
+     * @return the owner id, or -1 if not known
+     */
+    public int getOwnerId() { return this.ownerId; }
+
+    /**
+     * Change the id of the tile's owner.
+     *
+     * @param ownerId the owner id
+     */
+    public void setOwnerId(int ownerId) { this.ownerId = ownerId; }
+
+    /**
+     * Get the sequence number of the change.
+     *
+     * @return the sequence number, 0 if not known
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Set the sequence number of the change.
+     *
+     * @param sequence the board version the change made
+     */
+    public void setSequence(long sequence) { this.sequence = sequence; }
+
     /**
      * Utility method for debugging only.
      *
@@ -115,8 +177,10 @@ public class PlaceTile implements Serializable {
                 "row=" + this.row +
                 ", col=" + this.col +
                 ", user=" + this.user +
+                ", ownerId=" + this.ownerId +
                 ", color=" + this.color +
                 ", time=" + this.time +
+                ", sequence=" + this.sequence +
                 '}';
     }
 }
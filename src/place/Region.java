@@ -0,0 +1,109 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * A rectangle of tiles on the board, given by its top left and bottom right
+ * tiles, both included.  Clients subscribe to regions to only be told about
+ * the tiles changing inside them.
+ *
+ * @author Benjamin Gloger
+ */
+public class Region implements Serializable {
+    /** the first row */
+    private final int top;
+    /** the first column */
+    private final int left;
+    /** the last row */
+    private final int bottom;
+    /** the last column */
+    private final int right;
+
+    /**
+     * Create a region.
+     *
+     * @param top the first row
+     * @param left the first column
+     * @param bottom the last row
+     * @param right the last column
+     */
+    public Region(int top, int left, int bottom, int right) {
+        this.top = top;
+        this.left = left;
+        this.bottom = bottom;
+        this.right = right;
+    }
+
+    /**
+     * Get the first row.
+     *
+     * @return the row
+     */
+    public int getTop() { return this.top; }
+
+    /**
+     * Get the first column.
+     *
+     * @return the column
+     */
+    public int getLeft() { return this.left; }
+
+    /**
+     * Get the last row.
+     *
+     * @return the row
+     */
+    public int getBottom() { return this.bottom; }
+
+    /**
+     * Get the last column.
+     *
+     * @return the column
+     */
+    public int getRight() { return this.right; }
+
+    /**
+     * Check whether the region holds any tile of a board.
+     *
+     * @param DIM the square dimension of the board
+     * @return whether the region is not empty and overlaps the board
+     */
+    public boolean isValid(int DIM) {
+        return top <= bottom && left <= right && bottom >= 0 && right >= 0 && top < DIM && left < DIM;
+    }
+
+    /**
+     * Check whether a tile is in the region.
+     *
+     * @param row the row
+     * @param col the column
+     * @return whether the tile is in the region
+     */
+    public boolean contains(int row, int col) {
+        return row >= top && row <= bottom && col >= left && col <= right;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Region)) {
+            return false;
+        }
+        Region region = (Region) other;
+        return top == region.top && left == region.left && bottom == region.bottom && right == region.right;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((top * 31 + left) * 31 + bottom) * 31 + right;
+    }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the region as a string
+     */
+    @Override
+    public String toString() {
+        return "Region{" + top + "," + left + " to " + bottom + "," + right + '}';
+    }
+}
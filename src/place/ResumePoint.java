@@ -0,0 +1,62 @@
+package place;
+
+import java.io.Serializable;
+
+/**
+ * What a client that lost its connection already knows, sent when it logs
+ * in again so the server only has to send what it missed.
+ *
+ * @author Benjamin Gloger
+ */
+public class ResumePoint implements Serializable {
+    /** the username */
+    private final String username;
+    /** the sequence number of the last change the client saw */
+    private final long sequence;
+    /** the number of usernames the client knows the ids of */
+    private final int userCount;
+
+    /**
+     * Create a resume point.
+     *
+     * @param username the username
+     * @param sequence the sequence number of the last change seen
+     * @param userCount the number of usernames known
+     */
+    public ResumePoint(String username, long sequence, int userCount) {
+        this.username = username;
+        this.sequence = sequence;
+        this.userCount = userCount;
+    }
+
+    /**
+     * Get the username.
+     *
+     * @return the username
+     */
+    public String getUsername() { return this.username; }
+
+    /**
+     * Get the sequence number of the last change the client saw.
+     *
+     * @return the sequence number
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Get the number of usernames the client knows the ids of.
+     *
+     * @return the user count
+     */
+    public int getUserCount() { return this.userCount; }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the resume point as a string
+     */
+    @Override
+    public String toString() {
+        return "ResumePoint{" + username + " at " + sequence + ", " + userCount + " users}";
+    }
+}
@@ -0,0 +1,197 @@
+package place;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A list of tile changes, held in parallel arrays instead of one
+ * {@link PlaceTile} per change.  The server sends one as a TILE_BATCH with
+ * every change of a tick, and it keeps the owner and time of each change.
+ *
+ * @author Benjamin Gloger
+ */
+public class TileBatch implements Serializable {
+    /** The number of changes */
+    private int size;
+    /** The row and column of each change */
+    private int[] rows;
+    private int[] cols;
+    /** The color number of each change */
+    private byte[] colors;
+    /** The owner id of each change */
+    private int[] owners;
+    /** The time of each change, in milliseconds */
+    private long[] times;
+    /** The sequence number of the last change the batch covers, 0 if not known */
+    private long sequence;
+    /** The sequence number of the first change the batch covers, only known where the batch was made */
+    private transient long firstSequence;
+
+    /**
+     * Create an empty batch.
+     */
+    public TileBatch() {
+        this(16);
+    }
+
+    /**
+     * Create an empty batch with room for some changes.
+     *
+     * @param capacity the number of changes to make room for
+     */
+    public TileBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        rows = new int[capacity];
+        cols = new int[capacity];
+        colors = new byte[capacity];
+        owners = new int[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Add a change to the end of the batch.
+     *
+     * @param row the row
+     * @param col the column
+     * @param color the color number, 0-15
+     * @param owner the owner id
+     * @param time the time in milliseconds
+     * @return the index of the change
+     */
+    public int add(int row, int col, int color, int owner, long time) {
+        if (size == rows.length) {
+            int capacity = size * 2;
+            rows = Arrays.copyOf(rows, capacity);
+            cols = Arrays.copyOf(cols, capacity);
+            colors = Arrays.copyOf(colors, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        rows[size] = row;
+        cols[size] = col;
+        set(size, color, owner, time);
+        return size++;
+    }
+
+    /**
+     * Add a tile to the end of the batch.
+     *
+     * @param tile the tile
+     * @return the index of the change
+     */
+    public int add(PlaceTile tile) {
+        return add(tile.getRow(), tile.getCol(), tile.getColor().getNumber(), tile.getOwnerId(), tile.getTime());
+    }
+
+    /**
+     * Replace what a change sets its tile to, keeping its place in the batch.
+     *
+     * @param i the index of the change
+     * @param color the color number, 0-15
+     * @param owner the owner id
+     * @param time the time in milliseconds
+     */
+    public void set(int i, int color, int owner, long time) {
+        colors[i] = (byte) color;
+        owners[i] = owner;
+        times[i] = time;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return the size
+     */
+    public int size() { return this.size; }
+
+    /**
+     * Get the row of a change.
+     *
+     * @param i the index of the change
+     * @return the row
+     */
+    public int getRow(int i) { return this.rows[i]; }
+
+    /**
+     * Get the column of a change.
+     *
+     * @param i the index of the change
+     * @return the column
+     */
+    public int getCol(int i) { return this.cols[i]; }
+
+    /**
+     * Get the color number of a change.
+     *
+     * @param i the index of the change
+     * @return the color number, 0-15
+     */
+    public int getColor(int i) { return this.colors[i]; }
+
+    /**
+     * Get the owner id of a change.
+     *
+     * @param i the index of the change
+     * @return the owner id
+     */
+    public int getOwner(int i) { return this.owners[i]; }
+
+    /**
+     * Get the time of a change.
+     *
+     * @param i the index of the change
+     * @return the time in milliseconds
+     */
+    public long getTime(int i) { return this.times[i]; }
+
+    /**
+     * Get the sequence number of the last change the batch covers.  Once a
+     * client has applied the batch it has seen every change of the batch's
+     * tiles up to it.
+     *
+     * @return the sequence number, 0 if not known
+     */
+    public long getSequence() { return this.sequence; }
+
+    /**
+     * Set the sequence number of the last change the batch covers.
+     *
+     * @param sequence the sequence number
+     */
+    public void setSequence(long sequence) { this.sequence = sequence; }
+
+    /**
+     * Get the sequence number of the first change the batch covers.  It is
+     * not sent, so a batch that was received does not know it.
+     *
+     * @return the sequence number, 0 if not known
+     */
+    public long getFirstSequence() { return this.firstSequence; }
+
+    /**
+     * Set the sequence number of the first change the batch covers.
+     *
+     * @param firstSequence the sequence number
+     */
+    public void setFirstSequence(long firstSequence) { this.firstSequence = firstSequence; }
+
+    /**
+     * Get a change as a tile.
+     *
+     * @param i the index of the change
+     * @return the tile
+     */
+    public PlaceTile getTile(int i) {
+        return new PlaceTile(rows[i], cols[i], owners[i], null, PlaceColor.fromNumber(colors[i]), times[i]);
+    }
+
+    /**
+     * Utility method for debugging only.
+     *
+     * @return the batch as a string
+     */
+    @Override
+    public String toString() {
+        return "TileBatch{size=" + size + '}';
+    }
+}
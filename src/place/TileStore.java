@@ -0,0 +1,91 @@
+package place;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The storage engine behind a {@link PlaceBoard}.  A store keeps the color
+ * number, owner id and timestamp of every tile as primitives, so the board
+ * never has to hold one object per tile.  Tiles are addressed by row and
+ * column and colors are the 0-15 numbers from {@link PlaceColor}.
+ *
+ * @author Benjamin Gloger
+ */
+public interface TileStore extends Closeable {
+    /**
+     * Get the square dimension of the stored board.
+     *
+     * @return the dimension
+     */
+    int getDim();
+
+    /**
+     * Get the color number of a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the color number, 0-15
+     */
+    int getColor(int row, int col);
+
+    /**
+     * Get the owner id of a tile.
+     *
+     * @param row row
+     * @param col column
+     * @return the owner id
+     */
+    int getOwner(int row, int col);
+
+    /**
+     * Get the time a tile was last changed.
+     *
+     * @param row row
+     * @param col column
+     * @return the time in milliseconds
+     */
+    long getTime(int row, int col);
+
+    /**
+     * Overwrite everything stored for one tile.
+     *
+     * @param row row
+     * @param col column
+     * @param color the color number, 0-15
+     * @param owner the owner id
+     * @param time the time in milliseconds
+     */
+    void set(int row, int col, int color, int owner, long time);
+
+    /**
+     * Overwrite a run of tiles in one row, as when a whole board is loaded
+     * back.  Stores that can copy the run in bulk override this.
+     *
+     * @param row row
+     * @param col the column of the first tile
+     * @param count the number of tiles
+     * @param colors the color numbers packed two to a byte, the even tile
+     *               of the run in the low nibble
+     * @param colorOffset the index of the byte holding the first tile's color
+     * @param owners the owner ids
+     * @param times the times in milliseconds
+     * @param offset the index of the first tile's owner and time
+     */
+    default void setRow(int row, int col, int count, byte[] colors, int colorOffset,
+                        int[] owners, long[] times, int offset) {
+        for (int i = 0; i < count; i++) {
+            int color = (colors[colorOffset + (i >> 1)] >> ((i & 1) << 2)) & 0xF;
+            set(row, col + i, color, owners[offset + i], times[offset + i]);
+        }
+    }
+
+    /**
+     * Release whatever the store holds outside of the heap.  In-memory
+     * stores have nothing to release.
+     *
+     * @throws IOException if the store could not be closed
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,150 @@
+package place;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps usernames to small integer ids so the board, the network messages
+ * and the change history can refer to owners by id instead of by string.
+ * Ids are handed out in order starting from 0, which is always the empty
+ * owner of tiles nobody has changed, and are never reused.
+ *
+ * The server keeps one dictionary for its lifetime.  Clients receive a copy
+ * inside the board and then a {@link Delta} every time a new user appears.
+ *
+ * @author Benjamin Gloger
+ */
+public class UserDictionary implements Serializable {
+    /** The usernames, indexed by id */
+    private ArrayList<String> names;
+    /** The id of every username in names */
+    private HashMap<String, Integer> ids;
+
+    /**
+     * Create a dictionary holding only the empty owner.
+     */
+    public UserDictionary() {
+        names = new ArrayList<>();
+        ids = new HashMap<>();
+        intern("");
+    }
+
+    /**
+     * Get the id for a username, handing out the next id to new usernames.
+     *
+     * @param name the username
+     * @return the id
+     */
+    public synchronized int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a username that is already in the dictionary.
+     *
+     * @param name the username
+     * @return the id, or -1 if the username has no id
+     */
+    public synchronized int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the username for an id.
+     *
+     * @param id the id
+     * @return the username, or null for an id the dictionary has not seen
+     */
+    public synchronized String getName(int id) {
+        return id >= 0 && id < names.size() ? names.get(id) : null;
+    }
+
+    /**
+     * Get the number of ids handed out so far.
+     *
+     * @return the number of usernames, including the empty owner
+     */
+    public synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * Get the usernames added since a client last synchronized.
+     *
+     * @param firstId the first id the client does not know
+     * @return the usernames from firstId onwards
+     */
+    public synchronized Delta getDelta(int firstId) {
+        return new Delta(firstId, names.subList(firstId, names.size()).toArray(new String[0]));
+    }
+
+    /**
+     * Add the usernames from a delta sent by the server.  Ids the dictionary
+     * already holds are skipped, so a delta can safely be applied twice.  A
+     * delta that starts past the end of the dictionary is ignored.
+     *
+     * @param delta the delta
+     */
+    public synchronized void apply(Delta delta) {
+        for (int i = names.size() - delta.getFirstId(); i >= 0 && i < delta.getNames().length; i++) {
+            intern(delta.getNames()[i]);
+        }
+    }
+
+    /**
+     * A run of consecutive ids and their usernames, sent to clients
+     * when new users appear.
+     */
+    public static class Delta implements Serializable {
+        /** The id of the first username */
+        private int firstId;
+        /** The usernames, in id order */
+        private String[] names;
+
+        /**
+         * Create a delta.
+         *
+         * @param firstId the id of the first username
+         * @param names the usernames, in id order
+         */
+        public Delta(int firstId, String[] names) {
+            this.firstId = firstId;
+            this.names = names;
+        }
+
+        /**
+         * Get the id of the first username.
+         *
+         * @return the first id
+         */
+        public int getFirstId() { return firstId; }
+
+        /**
+         * Get the usernames, in id order.
+         *
+         * @return the usernames
+         */
+        public String[] getNames() { return names; }
+
+        /**
+         * Utility method for debugging only.
+         *
+         * @return the delta as a string
+         */
+        @Override
+        public String toString() {
+            return "Delta{" +
+                    "firstId=" + firstId +
+                    ", names=" + String.join(",", names) +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package place.bench;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.server.WriteAheadLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Measures how many tile changes a second the WriteAheadLog takes at each durability. For each one a log is opened in
+ * a temporary file, and the given number of threads append changes for a few seconds, each waiting for its change to
+ * be durable before the next one as the server does before sending a change on. It prints the changes per second,
+ * and how many blocks (writes, and fsyncs unless the durability is none) they went to disk in.
+ *
+ * Usage: java place.bench.LogBenchmark [threads] [seconds] [directory]
+ */
+public class LogBenchmark {
+    private static final int DIM = 1000;
+
+    /**
+     * Runs the benchmark for each durability
+     * @param args threads, seconds and the directory to put the logs in, all optional
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File directory = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+
+        System.out.println("durability   threads   changes/s   blocks   changes/block");
+        for(WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()){
+            run(durability, threads, seconds, directory);
+        }
+    }
+
+    /**
+     * Runs the benchmark against one durability
+     * @param durability the durability
+     * @param threads the number of threads appending
+     * @param seconds how long to append for
+     * @param directory where to put the log
+     */
+    private static void run(WriteAheadLog.Durability durability, int threads, int seconds, File directory)
+            throws IOException, InterruptedException {
+        File file = File.createTempFile("place-bench", ".wal", directory);
+        file.delete();
+        WriteAheadLog log = new WriteAheadLog(file.getPath(), null, durability, 5, 1024);
+        AtomicBoolean isActive = new AtomicBoolean(true);
+        AtomicLong sequence = new AtomicLong();
+        Thread[] appenders = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            final int seed = i;
+            appenders[i] = new Thread(() -> {
+                int n = seed;
+                while(isActive.get()){
+                    n = n * 1103515245 + 12345;
+                    PlaceTile t = new PlaceTile((n >>> 8) % DIM, (n >>> 4) % DIM, seed + 1, null,
+                            PlaceColor.fromNumber(n & 0xF), System.currentTimeMillis());
+                    t.setSequence(sequence.incrementAndGet());
+                    log.append(t);
+                    log.awaitDurable();
+                }
+            }, "Appender-" + i);
+        }
+        long start = System.nanoTime();
+        for(Thread appender : appenders){
+            appender.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        isActive.set(false);
+        for(Thread appender : appenders){
+            appender.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long changes = log.getAppended();
+        log.close();
+        long blocks = Math.max(log.getBlocks(), 1);
+        System.out.printf("%-12s %7d %11.0f %8d %15.1f%n", durability.name().toLowerCase(), threads,
+                changes / elapsed, blocks, (double) changes / blocks);
+        file.delete();
+    }
+}
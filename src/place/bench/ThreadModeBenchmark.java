@@ -0,0 +1,111 @@
+package place.bench;
+
+import place.PlaceColor;
+import place.PlaceException;
+import place.PlaceTile;
+import place.network.BinaryRequestChannel;
+import place.network.PlaceRequest;
+import place.network.RequestChannel;
+import place.server.PlaceServer;
+import place.server.ServerConfig;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Compares serving connections on platform threads against virtual threads. For each mode an in process PlaceServer
+ * is started, the given number of clients log in, and then one tile change is broadcast to all of them. It prints
+ * how long the logins took, the platform threads and heap in use with every client connected, and how long the
+ * broadcast took to reach the last client.
+ *
+ * Usage: java place.bench.ThreadModeBenchmark [clients] [port]
+ */
+public class ThreadModeBenchmark {
+    private static final int DIM = 64;
+
+    /**
+     * Runs the benchmark for each blocking mode
+     * @param args clients and port, both optional
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5123;
+
+        System.out.println("mode      clients   login ms   threads   heap MB   broadcast ms");
+        for(ServerConfig.IoMode mode : new ServerConfig.IoMode[]{ServerConfig.IoMode.BLOCKING, ServerConfig.IoMode.VIRTUAL}){
+            run(mode, clients, port++);
+        }
+    }
+
+    /**
+     * Runs the benchmark against one mode
+     * @param mode the IoMode to serve connections with
+     * @param clients the number of clients
+     * @param port the port to run the server on
+     */
+    private static void run(ServerConfig.IoMode mode, int clients, int port) throws PlaceException, IOException, InterruptedException {
+        PlaceServer placeServer = new PlaceServer(ServerConfig.parse(new String[]{
+                String.valueOf(port), String.valueOf(DIM), "-io", mode.name()}));
+        Thread serverThread = new Thread(placeServer::run, "PlaceServer");
+        serverThread.start();
+
+        ArrayList<Socket> sockets = new ArrayList<>();
+        ArrayList<RequestChannel> channels = new ArrayList<>();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                Socket socket = new Socket("localhost", port);
+                RequestChannel channel = new BinaryRequestChannel(socket.getInputStream(), socket.getOutputStream());
+                channel.write(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "bench" + i));
+                channel.flush();
+                await(channel, PlaceRequest.RequestType.BOARD);
+                sockets.add(socket);
+                channels.add(channel);
+            }
+            long loginTime = System.nanoTime() - start;
+
+            System.gc();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+
+            //one client changes a tile and every client waits for it
+            start = System.nanoTime();
+            channels.get(0).write(new PlaceRequest<>(PlaceRequest.RequestType.CHANGE_TILE,
+                    new PlaceTile(0, 0, "bench0", PlaceColor.RED)));
+            channels.get(0).flush();
+            for (RequestChannel channel : channels) {
+                await(channel, PlaceRequest.RequestType.TILE_CHANGED);
+            }
+            long broadcastTime = System.nanoTime() - start;
+
+            System.out.printf("%-9s %7d %10d %9d %9d %14.2f%n", mode.name().toLowerCase(), clients,
+                    loginTime / 1_000_000, threads, heap >> 20, broadcastTime / 1e6);
+        }finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            placeServer.close();
+            serverThread.join();
+        }
+    }
+
+    /**
+     * Reads requests until one of the given type arrives
+     * @param channel the RequestChannel to read from
+     * @param type the RequestType to wait for
+     * @throws IOException if the connection fails first
+     */
+    private static void await(RequestChannel channel, PlaceRequest.RequestType type) throws IOException {
+        PlaceRequest<?> req;
+        do {
+            req = channel.read();
+            if(req.getType() == PlaceRequest.RequestType.ERROR){
+                throw new IOException((String) req.getData());
+            }
+        }while(req.getType() != type);
+    }
+}
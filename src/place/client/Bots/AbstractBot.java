@@ -4,13 +4,12 @@ import place.ObservableBoard;
 import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceTile;
+import place.TileBatch;
 import place.client.NetworkClient;
 import place.client.ptui.ConsoleApplication;
 import place.network.PlaceRequest;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.List;
@@ -27,8 +26,6 @@ import static java.lang.Thread.sleep;
  * This is the abstract class that all Place bots extend
  */
 public abstract class AbstractBot extends ConsoleApplication implements Observer {//ericben999!
-    protected ObjectInputStream input;
-    protected ObjectOutputStream output;
     protected Scanner systemIn;
     protected NetworkClient serverConn;
     protected ObservableBoard model;
@@ -38,6 +35,7 @@ public abstract class AbstractBot extends ConsoleApplication implements Observer
     protected static int SLEEP_TIME = 500;
     protected int port;
     protected String host;
+    protected TileBatch pending = new TileBatch(); //tiles waiting to be sent with sendTiles()
 
     // *** Your methods should have more descriptive names -> update vs refresh ???
     // *** Your update and refresh method call eachother recursively -> this is not good coding practice, as 1. you may run int memory issues with the stack 2. you wont ever break out of it, if a user wants to exit they should type exit not press the red square
@@ -57,10 +55,8 @@ public abstract class AbstractBot extends ConsoleApplication implements Observer
         try (
                 Socket server = new Socket(host, port)
         ) {
-            output = new ObjectOutputStream(server.getOutputStream()); // * These streams need to be closed -> put them into the ()s
-            input = new ObjectInputStream(server.getInputStream());
             systemIn = new Scanner(System.in);
-            serverConn = new NetworkClient(server, username, input, output);
+            serverConn = new NetworkClient(server, username);
             model = serverConn.getBoard();
             DIM = model.getBoard().DIM;
             System.out.println(model.getBoard());
@@ -156,19 +152,39 @@ public abstract class AbstractBot extends ConsoleApplication implements Observer
         return null;
     }
 
+    /**
+     * Adds a tile to the batch that sendTiles() sends. A full batch is sent right away
+     * @param row the row
+     * @param col the column
+     * @param color the color
+     */
+    public void queueTile(int row, int col, PlaceColor color) {
+        pending.add(row, col, color.getNumber(), -1, 0L);
+        if (pending.size() >= NetworkClient.MAX_BATCH) {
+            sendTiles();
+        }
+    }
+
+    /**
+     * Sends every queued tile to the server in one CHANGE_TILES request
+     */
+    public void sendTiles() {
+        if (pending.size() > 0) {
+            serverConn.updateTiles(pending);
+            pending = new TileBatch();
+        }
+    }
+
     /**
      * Ends the client and closes all inputs and outputs
      */
     public void endClient() {
-        try {
-            input.close();
-            output.close();
+        if (serverConn != null) {
+            serverConn.close();
+        }
+        if (systemIn != null) {
             systemIn.close();
-            isActive = false;
-        } catch (IOException e) {
-            System.err.println(e + " @ endClient");
-            System.exit(-1);
         }
-
+        isActive = false;
     }
 }
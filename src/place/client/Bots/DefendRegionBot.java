@@ -2,6 +2,7 @@ package place.client.Bots;
 
 import place.PlaceColor;
 import place.PlaceTile;
+import place.Region;
 import place.client.ptui.ConsoleApplication;
 
 import static java.lang.Thread.sleep;
@@ -50,10 +51,12 @@ public class DefendRegionBot extends AbstractBot {//ericben999!
 
     /**
      * This method runs the main loop of the client and adds the client to the model board
-     * as an observer. It watches for changes in region, and corrects them.
+     * as an observer. It watches for changes in region, and corrects them, sending every
+     * correction of one pass over the region as a batch.
      */
     public synchronized void run(){
         this.model.addObserver(this);
+        serverConn.subscribe(new Region(TR, TC, BR, BC)); // Only changes to the region matter to this bot
 
         region = new PlaceColor[BR-TR+1][BC-TC+1];
 
@@ -61,7 +64,7 @@ public class DefendRegionBot extends AbstractBot {//ericben999!
         //capture region
         for(int i =TR ; i<= BR; i++){
             for(int j = TC; j <= BC; j++){
-                region[i-TR][j-TC] = model.getBoard().getBoard()[i][j].getColor();
+                region[i-TR][j-TC] = model.getBoard().getColor(i, j);
             }
         }
 
@@ -70,13 +73,15 @@ public class DefendRegionBot extends AbstractBot {//ericben999!
             // client is still connected and active and if the NetworkClient is still running
             for(int i =TR ; i<= BR; i++){
                 for(int j = TC; j <= BC; j++){
-                    if(model.getBoard().getTile(i,j).getColor() != region[i-TR][j-TC]){
-                        changeTile(i,j,region[i-TR][j-TC]);
+                    if(model.getBoard().getColor(i, j) != region[i-TR][j-TC]){
+                        queueTile(i,j,region[i-TR][j-TC]);
                     }
                 }
             }
+            sendTiles();
             try {
                 sleep(SLEEP_TIME);
+                serverConn.awaitCooldown();
             }catch(InterruptedException e){
                 System.out.println(e);
             }
@@ -1,5 +1,6 @@
 package place.client.Bots;
 
+import place.PlaceColor;
 import place.PlaceTile;
 import place.client.ptui.ConsoleApplication;
 
@@ -57,6 +58,7 @@ public class DefendSquareBot extends AbstractBot {//ericben999!
             this.changeTile();
             try {
                 sleep(SLEEP_TIME);
+                serverConn.awaitCooldown();
             }catch(InterruptedException e){
                 System.out.println(e);
             }
@@ -66,14 +68,16 @@ public class DefendSquareBot extends AbstractBot {//ericben999!
 
     /**
      * This method asks for the tile the client wishes to change and sends the request to
-     * the server.
+     * the server. The change is conditional on the color the bot saw, so a correction that
+     * someone else already made, or that a newer change overtook, is dropped by the server.
      * Notes: When the server disconnects and/or ends, this method needs to finish (user needs to input something)
      * before the client completely ends - Looking at possible solutions for this
      */
     public void changeTile(){
-            if (model.getBoard().getBoard()[row][col].getColor() != checkColor(color)){ //Checks to see if the color inputted corresponds to a color available
+            PlaceColor seen = model.getBoard().getColor(row, col);
+            if (seen != checkColor(color)){ //Checks to see if the color inputted corresponds to a color available
                 PlaceTile new_tile = new PlaceTile(row, col, username, checkColor(color));
-                serverConn.updateTile(new_tile); //Sends the tile to the NetworkClient so that they can update the board
+                serverConn.updateTileIf(new_tile, seen); //Sends the tile to the NetworkClient so that they can update the board
             }
     }
 
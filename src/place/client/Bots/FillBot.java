@@ -1,5 +1,6 @@
 package place.client.Bots;
 
+import place.PlaceColor;
 import place.PlaceTile;
 import place.client.ptui.ConsoleApplication;
 
@@ -38,23 +39,46 @@ public class FillBot extends AbstractBot {//ericben999!
     /**
      * This method runs the main loop of the client and adds the client to the model board
      * as an observer. It goes down the row, down the col, filling in blocks with inputted color.
+     * The tiles go out in batches, with a pause after each batch instead of after each tile.
+     * Tiles the server refused because of its rate limit, or that someone else changed since,
+     * are sent again on the next pass, until the whole board is filled.
      */
     public synchronized void run(){
         this.model.addObserver(this);
+        PlaceColor fill = checkColor(color);
 
-        for (int i =0; i< DIM; i++ ) {
-            for (int j = 0; j < DIM; j++) {
-                this.changeTile(i, j);
-                try {
-                    sleep(SLEEP_TIME);
-                }catch(InterruptedException e){
-                    System.out.println(e);
+        boolean filled = false;
+        while (!filled && isActive && serverConn.isRunning()) {
+            filled = true;
+            for (int i =0; i< DIM; i++ ) {
+                for (int j = 0; j < DIM; j++) {
+                    if (model.getBoard().getColor(i, j) != fill) {
+                        filled = false;
+                        this.queueTile(i, j, fill);
+                        if (pending.size() == 0) { // a full batch was just sent
+                            pause();
+                        }
+                    }
                 }
             }
+            this.sendTiles();
+            pause();
         }
         endClient(); // When the client is disconnected the loop stops running and endClient is called
     }
 
+    /**
+     * Waits between batches, so the server is not flooded
+     */
+    private void pause(){
+        try {
+            sleep(SLEEP_TIME);
+            serverConn.awaitCooldown();
+        }catch(InterruptedException e){
+            System.out.println(e);
+        }
+    }
+
     /**
      * This method asks for the tile the client wishes to change and sends the request to
      * the server.
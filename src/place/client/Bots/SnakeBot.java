@@ -105,6 +105,7 @@ public class SnakeBot extends AbstractBot {//ericben999!
 
             try {
                 sleep(SLEEP_TIME);
+                serverConn.awaitCooldown();
             }catch(InterruptedException e){
                 System.out.println(e);
             }
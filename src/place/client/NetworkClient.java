@@ -1,10 +1,20 @@
 package place.client;
 
+import place.ConditionalTile;
 import place.ObservableBoard;
 import place.PlaceBoard;
 import place.PlaceColor;
 import place.PlaceTile;
+import place.Region;
+import place.ResumePoint;
+import place.TileBatch;
+import place.UserDictionary;
+import place.network.BinaryRequestChannel;
+import place.network.BoardCodec;
+import place.network.ObjectRequestChannel;
 import place.network.PlaceRequest;
+import place.network.PlaceRequestCodec;
+import place.network.RequestChannel;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
@@ -20,38 +30,68 @@ import java.sql.Timestamp;
  * @author Eric Chen
  */
 public class NetworkClient {
+    /** The most tiles sent in one CHANGE_TILES, which is also the most the server applies by default */
+    public static final int MAX_BATCH = 256;
+    /** The most times a lost connection is retried before the client gives up */
+    public static final int RECONNECT_ATTEMPTS = 8;
+
     private Socket server;
-    private ObjectInputStream networkIn;
-    private ObjectOutputStream networkOut;
+    private volatile RequestChannel channel;
     private boolean isActive;
     private ObservableBoard board;
+    private String username;
+    private volatile long cooldownUntil; //when the server allows this client's next tile change
+    private volatile long sequence; //the sequence number of the last change this client saw
+    private List<Region> regions = Collections.synchronizedList(new ArrayList<>()); //subscribed again after a reconnect
 
     /**
      * Constructor for the NetworkClient. The NetworkClient
      * logins in the Client, gets the board from the server,
      * and runs itself in a separate thread to receive PlaceRequests
-     * from the server.
+     * from the server. It talks to the server with the binary protocol, and asks for large frames
+     * such as the board to be compressed.
+     * @param sock Socket connection to server
+     * @param username the username of the client
+     * @throws IOException if the socket's streams cannot be opened
+     */
+    public NetworkClient(Socket sock, String username) throws IOException {
+        this(sock, username, new BinaryRequestChannel(sock.getInputStream(), sock.getOutputStream(),
+                PlaceRequestCodec.FLAG_COMPRESS));
+    }
+
+    /**
+     * Constructor for a NetworkClient that talks to the server with Java serialization.
      * @param sock Socket connection to server
      * @param username the username of the client
      * @param input Copies the ObjectInputStream input from the client
      * @param output Copies the ObjectOutputStream output from the client
      */
     public NetworkClient(Socket sock, String username, ObjectInputStream input, ObjectOutputStream output) {
+        this(sock, username, new ObjectRequestChannel(input, output));
+    }
+
+    /**
+     * Constructor for a NetworkClient over an open RequestChannel.
+     * @param sock Socket connection to server
+     * @param username the username of the client
+     * @param channel the RequestChannel to the server
+     */
+    private NetworkClient(Socket sock, String username, RequestChannel channel) {
         this.server = sock;
-        networkOut = output;
-        networkIn = input;
+        this.channel = channel;
+        this.username = username;
         try{
             PlaceRequest<String> login = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, username);
-            networkOut.writeUnshared(login);
-            networkOut.flush();
+            channel.write(login);
+            channel.flush();
 
-            PlaceRequest<?> login_result = (PlaceRequest<?>) networkIn.readUnshared(); //Receives information about login success
+            PlaceRequest<?> login_result = channel.read(); //Receives information about login success
 
             if (login_result.getType().equals(PlaceRequest.RequestType.LOGIN_SUCCESS) // If login is successful, then creates the board
                     /*&& login_result.getData().equals("LOGIN_SUCCESS")*/){
                 System.out.println("Login was successful!");
-                PlaceRequest<PlaceBoard> new_board = (PlaceRequest<PlaceBoard>)input.readUnshared(); //Creates the board
-                board = new ObservableBoard(new_board.getData()); //Creates the observable model of the board
+                PlaceRequest<?> new_board = channel.read(); //Creates the board
+                board = new ObservableBoard(toBoard(new_board.getData())); //Creates the observable model of the board
                 isActive = true;
 
                 // Run rest of client in separate thread.
@@ -70,10 +110,6 @@ public class NetworkClient {
             System.err.println(e + " @ init");
             stop();
         }
-        catch(ClassNotFoundException e){
-            System.err.println(e + " @ init");
-            stop();
-        }
     }
 
     /**
@@ -95,10 +131,10 @@ public class NetworkClient {
      * Closes the NetworkClient and all of the input and output streams in it
      */
     public void close() {
+        stop(); //so the run() loop does not take the closed socket for a lost connection
         try {
             this.server.close();
-            networkIn.close();
-            networkOut.close();
+            channel.close();
         }
         catch( IOException e ) {
             System.err.println(e.getMessage() + " @ close");
@@ -112,8 +148,8 @@ public class NetworkClient {
      */
     public void updateTile(PlaceTile new_tile){
         try{
-            networkOut.writeUnshared(new PlaceRequest<PlaceTile>(PlaceRequest.RequestType.CHANGE_TILE, new_tile));
-            networkOut.flush();
+            channel.write(new PlaceRequest<PlaceTile>(PlaceRequest.RequestType.CHANGE_TILE, new_tile));
+            channel.flush();
         }
         catch(IOException e){
             System.err.println(e.getMessage() + " @ updateTile");
@@ -121,6 +157,79 @@ public class NetworkClient {
 
     }
 
+    /**
+     * Sends a tile to the server that is only changed if it still has the color the client expects. If someone
+     * else changed the tile first, the server drops the change
+     * @param new_tile the tile sent by the client
+     * @param expected the color the tile has on the client's board
+     */
+    public void updateTileIf(PlaceTile new_tile, PlaceColor expected){
+        try{
+            channel.write(new PlaceRequest<ConditionalTile>(PlaceRequest.RequestType.CHANGE_TILE_IF,
+                    new ConditionalTile(new_tile, expected)));
+            channel.flush();
+        }
+        catch(IOException e){
+            System.err.println(e.getMessage() + " @ updateTileIf");
+        }
+    }
+
+    /**
+     * Sends many tiles to the server in one CHANGE_TILES request, with a single flush. The server applies at
+     * most its own cap of tiles per request, so callers should keep batches to MAX_BATCH tiles
+     * @param tiles the rows, columns and colors of the tiles
+     */
+    public void updateTiles(TileBatch tiles){
+        try{
+            channel.write(new PlaceRequest<TileBatch>(PlaceRequest.RequestType.CHANGE_TILES, tiles));
+            channel.flush();
+        }
+        catch(IOException e){
+            System.err.println(e.getMessage() + " @ updateTiles");
+        }
+    }
+
+    /**
+     * Asks the server to only send the changes of a region from now on. Calling it again adds more regions
+     * @param region the region
+     */
+    public void subscribe(Region region){
+        regions.add(region);
+        try{
+            channel.write(new PlaceRequest<Region>(PlaceRequest.RequestType.SUBSCRIBE, region));
+            channel.flush();
+        }
+        catch(IOException e){
+            System.err.println(e.getMessage() + " @ subscribe");
+        }
+    }
+
+    /**
+     * Asks the server to stop sending the changes of a region
+     * @param region the region that was subscribed to
+     */
+    public void unsubscribe(Region region){
+        regions.remove(region);
+        try{
+            channel.write(new PlaceRequest<Region>(PlaceRequest.RequestType.UNSUBSCRIBE, region));
+            channel.flush();
+        }
+        catch(IOException e){
+            System.err.println(e.getMessage() + " @ unsubscribe");
+        }
+    }
+
+    /**
+     * Waits until the server allows this client to change tiles again, after it sent a COOLDOWN
+     * @throws InterruptedException
+     */
+    public void awaitCooldown() throws InterruptedException {
+        long wait = cooldownUntil - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
     /**
      * Getter function for the ObservableBoard board
      * @return the board
@@ -138,12 +247,32 @@ public class NetworkClient {
     private void run(){
         while(isActive){
             try{
-                PlaceRequest<?> update = (PlaceRequest<?>) networkIn.readUnshared();
+                PlaceRequest<?> update = channel.read();
 
                 switch (update.getType()){
                     case TILE_CHANGED: //If the server sent a message that the tile changed on the board,
                         // the NetworkClient updates its board and in turn notifies the client that the board updated
-                        board.setBoard((PlaceTile) update.getData());
+                        PlaceTile changed = (PlaceTile) update.getData();
+                        board.setBoard(changed);
+                        sequence = Math.max(sequence, changed.getSequence());
+                        break;
+                    case TILE_BATCH: //If the server batches changes, each change in the batch is applied in turn
+                        TileBatch batch = (TileBatch) update.getData();
+                        for (int i = 0; i < batch.size(); i++) {
+                            board.setBoard(batch.getTile(i));
+                        }
+                        sequence = Math.max(sequence, batch.getSequence());
+                        break;
+                    case BOARD: //If this client fell too far behind, the server sends the whole board again
+                        PlaceBoard snapshot = toBoard(update.getData());
+                        board.resetBoard(snapshot);
+                        break;
+                    case USERS: //If new users appeared, the NetworkClient learns their owner ids before they own any tiles
+                        board.getBoard().getDictionary().apply((UserDictionary.Delta) update.getData());
+                        break;
+                    case COOLDOWN: //If the client changed tiles too fast, the tiles over the limit were not changed
+                        cooldownUntil = (Long) update.getData();
+                        System.out.println("Too many tiles! The next one can be changed at " + new Timestamp(cooldownUntil));
                         break;
                     case ERROR: //If the server sent an error the NetworkClient ends itself
                         System.err.println(update.getData());
@@ -152,17 +281,85 @@ public class NetworkClient {
                 }
             }
             catch(IOException e){
-                System.out.println("This Client disconnected from the server.");
-                this.stop();
-            }
-            catch(ClassNotFoundException e){
-                System.err.println(e.getMessage() + " @ run");
-                this.stop();
+                if(isRunning()){
+                    System.out.println("This Client lost its connection to the server, reconnecting.");
+                    if(!reconnect()){
+                        System.out.println("This Client disconnected from the server.");
+                        this.stop();
+                    }
+                }
             }
         }
         this.close();
     }
 
+    /**
+     * Makes the board a BOARD request holds, and starts the client's sequence number from it. A server speaking the
+     * binary protocol sends an encoded BoardSnapshot, and one speaking Java serialization sends a PlaceBoard, which
+     * has no version, so a client that reconnects after it asks for the whole board
+     * @param data the data of the BOARD request
+     * @return the board
+     * @throws IOException if the encoded board cannot be decoded
+     */
+    private PlaceBoard toBoard(Object data) throws IOException{
+        if(data instanceof PlaceBoard){
+            sequence = 0;
+            return (PlaceBoard) data;
+        }
+        PlaceBoard snapshot = new PlaceBoard(BoardCodec.decode((byte[]) data));
+        sequence = snapshot.getVersion();
+        return snapshot;
+    }
+
+    /**
+     * This method logs in again after the connection to the server was lost, with the binary protocol. The
+     * LOGIN_RESUME tells the server the last change this client saw, so the server only sends the changes it
+     * missed, or the whole board if it no longer has them. The run() loop handles either once this returns.
+     * Attempts are spaced further apart each time, since the server may still hold the old login for a moment
+     * @return if the client is logged in again
+     */
+    private boolean reconnect(){
+        try {
+            channel.close();
+        }
+        catch(IOException e){
+            //System.err.println(e + " @ reconnect");
+        }
+        long backoff = 250;
+        for(int attempt = 0; attempt < RECONNECT_ATTEMPTS && isRunning(); attempt++){
+            try{
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 8000);
+
+                Socket sock = new Socket(server.getInetAddress(), server.getPort());
+                RequestChannel resumed = new BinaryRequestChannel(sock.getInputStream(), sock.getOutputStream(),
+                        PlaceRequestCodec.FLAG_COMPRESS);
+                ResumePoint resume = new ResumePoint(username, sequence, board.getBoard().getDictionary().size());
+                resumed.write(new PlaceRequest<ResumePoint>(PlaceRequest.RequestType.LOGIN_RESUME, resume));
+                resumed.flush();
+
+                if(resumed.read().getType() == PlaceRequest.RequestType.LOGIN_SUCCESS){
+                    server = sock;
+                    channel = resumed;
+                    for(Region region : regions.toArray(new Region[0])){
+                        channel.write(new PlaceRequest<Region>(PlaceRequest.RequestType.SUBSCRIBE, region));
+                    }
+                    channel.flush();
+                    System.out.println("Reconnected to the server.");
+                    return true;
+                }
+                resumed.close(); //the server has not let go of the old login yet
+            }
+            catch(IOException e){
+                //System.err.println(e + " @ reconnect");
+            }
+            catch(InterruptedException e){
+                return false;
+            }
+        }
+        return false;
+    }
+
     /**
      * This method converts PlaceColor numbers into
      * an actual PlaceColor that can be used by the server
@@ -1,8 +1,6 @@
 package place.client.gui;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.*;
 import javafx.application.Application;
@@ -48,8 +46,6 @@ import static java.lang.Thread.sleep;
  */
 public class PlaceGUI extends Application implements Observer {
     private String username;
-    private ObjectInputStream input;
-    private ObjectOutputStream output;
     private ObservableBoard model;
     private NetworkClient serverConn;
     private boolean isActive;
@@ -100,7 +96,15 @@ public class PlaceGUI extends Application implements Observer {
      */
     @Override
     public void update(Observable o, Object arg) {
-        if (pane != null){ // Prevents the update method from being called while the GUI is not finished being created to prevent issues
+        if (pane != null && arg == null){ // The whole board was replaced, so every tile is redrawn
+            for (Node tile : pane.getChildren()){
+                CoordRect rect = (CoordRect) tile;
+                rect.setFill(convertColor(model.getBoard().getColor(rect.getI(), rect.getJ())));
+                rect.setTime(new Date(model.getBoard().getTime(rect.getI(), rect.getJ())));
+                setTileInfo(rect);
+            }
+        }
+        else if (pane != null){ // Prevents the update method from being called while the GUI is not finished being created to prevent issues
             PlaceTile tileChanged = (PlaceTile) arg;
             CoordRect rectChanged = null;
 
@@ -115,7 +119,7 @@ public class PlaceGUI extends Application implements Observer {
                 }
             }
 
-            rectChanged.setFill(convertColor(model.getBoard().getTile(rectChanged.getI(), rectChanged.getJ()).getColor()));
+            rectChanged.setFill(convertColor(model.getBoard().getColor(rectChanged.getI(), rectChanged.getJ())));
             rectChanged.setTime(new Date(tileChanged.getTime())); //Changes and formats the time the tile was changed
             setTileInfo(rectChanged); // Updates the ToolTip of the tile
         }
@@ -141,10 +145,7 @@ public class PlaceGUI extends Application implements Observer {
                 Socket server = new Socket(host, port)
         ){
 
-            output = new ObjectOutputStream(server.getOutputStream());
-            input = new ObjectInputStream(server.getInputStream());
-
-            serverConn = new NetworkClient(server, username, input, output);
+            serverConn = new NetworkClient(server, username);
             model = serverConn.getBoard();
             DIM = model.getBoard().DIM;
             this.run();
@@ -193,17 +194,11 @@ public class PlaceGUI extends Application implements Observer {
      * Stops the client and closes all of the streams.
      */
     public void stop(){
-        try{
+        if (serverConn != null){
             serverConn.close();
-            input.close();
-            output.close();
-            isActive = false;
-            System.exit(0);
-        }
-        catch(IOException e){
-            System.err.println(e + " @ stop");
-            System.exit(-1);
         }
+        isActive = false;
+        System.exit(0);
     }
 
     /**
@@ -231,9 +226,9 @@ public class PlaceGUI extends Application implements Observer {
         for(int i = 0; i < DIM; i++){
             for(int j =0; j < DIM; j++){
                 CoordRect tile = new CoordRect(i,j, DIM);
-                tile.setFill(convertColor(model.getBoard().getTile(i,j).getColor()));
+                tile.setFill(convertColor(model.getBoard().getColor(i, j)));
                 tile.setOnMouseClicked((event) -> buttonClick(tile, this));
-                tile.setTime(new Date(model.getBoard().getTile(i, j).getTime())); //Sets and formats the time and date that the tile was created
+                tile.setTime(new Date(model.getBoard().getTime(i, j))); //Sets and formats the time and date that the tile was created
                 setTileInfo(tile); //Sets the ToolTip to the tile
                 gridPane.add(tile, j, i);
             }
@@ -302,9 +297,9 @@ public class PlaceGUI extends Application implements Observer {
         Rectangle label = new Rectangle(15, 15);
         label.setFill(rect.getFill());
         Tooltip buttonInfo = new Tooltip("\nCoordinate: (" + rect.getI() + "," + rect.getJ() + ")\n"
-                + "Owner: " + model.getBoard().getTile(rect.getI(), rect.getJ()).getOwner() + "\n"
+                + "Owner: " + model.getBoard().getOwner(rect.getI(), rect.getJ()) + "\n"
                 + "Time: " + rect.getTime() + "\n"
-                + "Color: " + model.getBoard().getTile(rect.getI(), rect.getJ()).getColor().getName() +"\n");
+                + "Color: " + model.getBoard().getColor(rect.getI(), rect.getJ()).getName() +"\n");
         buttonInfo.setGraphic(label);
         Tooltip.install(rect, buttonInfo);
     }
@@ -20,8 +20,6 @@ import static java.lang.Thread.sleep;
  * @author Eric Chen
  */
 public class PlacePTUI extends ConsoleApplication implements Observer {//ericben999!
-    private ObjectInputStream userIn;
-    private ObjectOutputStream userOut;
     private Scanner systemIn;
     private NetworkClient serverConn;
     private ObservableBoard model;
@@ -44,10 +42,8 @@ public class PlacePTUI extends ConsoleApplication implements Observer {//ericben
         try(
                 Socket server = new Socket(host, port)
                 ){
-                userOut = new ObjectOutputStream(server.getOutputStream());
-                userIn = new ObjectInputStream(server.getInputStream());
                 systemIn = new Scanner(System.in);
-                serverConn = new NetworkClient(server, username, userIn, userOut);
+                serverConn = new NetworkClient(server, username);
                 model = serverConn.getBoard();
                 System.out.println(model.getBoard());
                 this.run();
@@ -135,17 +131,13 @@ public class PlacePTUI extends ConsoleApplication implements Observer {//ericben
      * Ends the client and closes all inputs and outputs.
      */
     private void endClient(){
-        try{
-            userIn.close();
-            userOut.close();
-            systemIn.close();
-            isActive = false;
+        if (serverConn != null){
+            serverConn.close();
         }
-        catch(IOException e){
-            System.err.println(e + " @ endClient");
-            System.exit(-1);
+        if (systemIn != null){
+            systemIn.close();
         }
-
+        isActive = false;
     }
 
     /**
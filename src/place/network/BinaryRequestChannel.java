@@ -0,0 +1,149 @@
+package place.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The binary wire format: length prefixed frames encoded by
+ * {@link PlaceRequestCodec}.  Nothing is remembered between frames, so a
+ * long lived connection costs the same memory as a new one.  The only
+ * state is the connection's LOGIN flags: a client sets them when it opens
+ * the channel, and the server learns them from the client's LOGIN.
+ *
+ * A frame is read into memory whole, so the length it claims is checked
+ * against the largest frame the channel accepts before anything is
+ * allocated.  The server lowers that limit with {@link #setMaxFrame(int)},
+ * since only the BOARD it sends comes near {@link PlaceRequestCodec#MAX_FRAME}.
+ * Only the server compresses what it sends, so the server's end of the
+ * connection, opened with {@link #forServer(InputStream, OutputStream)},
+ * refuses compressed frames instead of inflating them.
+ *
+ * @author Benjamin Gloger
+ */
+public class BinaryRequestChannel implements RequestChannel {
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    /** The LOGIN flags of the connection */
+    private int flags;
+    /** The largest frame body read accepts */
+    private volatile int maxFrame = PlaceRequestCodec.MAX_FRAME;
+    /** Whether this is the server's end of the connection */
+    private final boolean isServer;
+
+    /**
+     * Create a channel over raw streams.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     */
+    public BinaryRequestChannel(InputStream in, OutputStream out) {
+        this(in, out, 0);
+    }
+
+    /**
+     * Create a channel over raw streams for a client that logs in with
+     * the given flags, such as {@link PlaceRequestCodec#FLAG_COMPRESS}.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     * @param flags the LOGIN flags
+     */
+    public BinaryRequestChannel(InputStream in, OutputStream out, int flags) {
+        this(in, out, flags, false);
+    }
+
+    /**
+     * Create a channel over raw streams.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     * @param flags the LOGIN flags
+     * @param isServer whether this is the server's end of the connection
+     */
+    private BinaryRequestChannel(InputStream in, OutputStream out, int flags, boolean isServer) {
+        this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.flags = flags;
+        this.isServer = isServer;
+    }
+
+    /**
+     * Create the server's end of a connection.  It accepts no frame longer
+     * than {@link PlaceRequestCodec#MAX_LOGIN_FRAME} until the limit is
+     * raised, refuses compressed frames, and compresses what it sends if
+     * the client's LOGIN asked for it.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     * @return the channel
+     */
+    public static BinaryRequestChannel forServer(InputStream in, OutputStream out) {
+        BinaryRequestChannel channel = new BinaryRequestChannel(in, out, 0, true);
+        channel.setMaxFrame(PlaceRequestCodec.MAX_LOGIN_FRAME);
+        return channel;
+    }
+
+    @Override
+    public PlaceRequest<?> read() throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > maxFrame) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        PlaceRequest<?> request = PlaceRequestCodec.decode(frame, 0, length, isServer ? 0 : maxFrame);
+        if (request.getType() == PlaceRequest.RequestType.LOGIN
+                || request.getType() == PlaceRequest.RequestType.LOGIN_RESUME) {
+            flags = PlaceRequestCodec.loginFlags(frame, 0, length);
+        }
+        return request;
+    }
+
+    /**
+     * Set the largest frame body the channel accepts.  A longer frame fails
+     * the read before it is allocated.
+     *
+     * @param maxFrame the length of the largest frame body
+     */
+    public void setMaxFrame(int maxFrame) {
+        this.maxFrame = maxFrame;
+    }
+
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException {
+        out.write(isServer ? PlaceRequestCodec.encodeFrame(request, flags) : PlaceRequestCodec.encodeFrame(request, flags, false));
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        out.write(frame.getBytes(isCompressed()));
+    }
+
+    /**
+     * Check whether the frames written are compressed.
+     *
+     * @return true if this is the server's end and the client asked for compression
+     */
+    public boolean isCompressed() {
+        return isServer && (flags & PlaceRequestCodec.FLAG_COMPRESS) != 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
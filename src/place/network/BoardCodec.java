@@ -0,0 +1,271 @@
+package place.network;
+
+import place.BoardSnapshot;
+import place.PlaceBoard;
+import place.UserDictionary;
+
+import java.io.IOException;
+
+/**
+ * The compact encoding of a {@link BoardSnapshot} sent in the BOARD message.
+ *
+ * A snapshot is written as a header followed by every chunk in row major
+ * order, each prefixed with its encoded length:
+ * <pre>
+ *   header: format byte, DIM, version, chunk size, user count, usernames 1..n-1
+ *   chunk:  version, color runs, owner runs, time runs
+ * </pre>
+ * Tiles within a chunk are visited in row major order.  A color run is one
+ * byte holding the color in the high nibble and the run length minus one in
+ * the low nibble, with a low nibble of 15 followed by the rest of the length.
+ * Owner runs are an owner id and a length.  Times are delta encoded against
+ * the previous tile, and runs of equal deltas are written once with their
+ * length, so the untouched parts of a board cost a few bytes per chunk.
+ *
+ * Chunks are encoded independently, so an encoded chunk can be reused for
+ * as long as the chunk does not change.
+ *
+ * @author Benjamin Gloger
+ */
+public class BoardCodec {
+    /** The encoding version, bumped whenever the layout changes */
+    private static final int FORMAT = 1;
+
+    /**
+     * Encode a whole snapshot.
+     *
+     * @param snapshot the snapshot
+     * @return the encoded snapshot
+     */
+    public static byte[] encode(BoardSnapshot snapshot) {
+        int chunks = snapshot.getChunksPerSide() * snapshot.getChunksPerSide();
+        byte[][] encoded = new byte[chunks][];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            encoded[chunk] = encodeChunk(snapshot.getChunk(chunk));
+        }
+        return encode(snapshot, encoded);
+    }
+
+    /**
+     * Encode a snapshot from chunks that were already encoded.
+     *
+     * @param snapshot the snapshot
+     * @param chunks the encoded chunks, row major
+     * @return the encoded snapshot
+     */
+    public static byte[] encode(BoardSnapshot snapshot, byte[][] chunks) {
+        int size = 64;
+        for (byte[] chunk : chunks) {
+            size += chunk.length + 5;
+        }
+        ByteWriter out = new ByteWriter(size);
+        out.writeByte(FORMAT);
+        out.writeVarInt(snapshot.DIM);
+        out.writeVarLong(snapshot.getVersion());
+        out.writeVarInt(PlaceBoard.CHUNK_SIZE);
+        out.writeVarInt(snapshot.getUserCount());
+        for (int id = 1; id < snapshot.getUserCount(); id++) {
+            out.writeString(snapshot.getDictionary().getName(id));
+        }
+        for (byte[] chunk : chunks) {
+            out.writeVarInt(chunk.length);
+            out.writeBytes(chunk, 0, chunk.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode one chunk of a snapshot.
+     *
+     * @param chunk the chunk
+     * @return the encoded chunk
+     */
+    public static byte[] encodeChunk(BoardSnapshot.Chunk chunk) {
+        int tiles = chunk.getRows() * chunk.getCols();
+        ByteWriter out = new ByteWriter(32);
+        out.writeVarLong(chunk.getVersion());
+
+        // colors
+        for (int i = 0; i < tiles; ) {
+            int color = color(chunk, i);
+            int run = 1;
+            while (i + run < tiles && color(chunk, i + run) == color) {
+                run++;
+            }
+            if (run <= 15) {
+                out.writeByte(color << 4 | (run - 1));
+            } else {
+                out.writeByte(color << 4 | 15);
+                out.writeVarInt(run - 16);
+            }
+            i += run;
+        }
+
+        // owners
+        for (int i = 0; i < tiles; ) {
+            int owner = owner(chunk, i);
+            int run = 1;
+            while (i + run < tiles && owner(chunk, i + run) == owner) {
+                run++;
+            }
+            out.writeVarInt(owner);
+            out.writeVarInt(run);
+            i += run;
+        }
+
+        // times, as deltas from the tile before
+        long previous = 0;
+        for (int i = 0; i < tiles; ) {
+            long delta = time(chunk, i) - previous;
+            previous = time(chunk, i);
+            int run = 1;
+            while (i + run < tiles && time(chunk, i + run) - previous == delta) {
+                previous = time(chunk, i + run);
+                run++;
+            }
+            out.writeSignedVarLong(delta);
+            out.writeVarInt(run);
+            i += run;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode an encoded snapshot.
+     *
+     * @param bytes the encoded snapshot
+     * @return the snapshot
+     * @throws IOException if the bytes are not a valid snapshot
+     */
+    public static BoardSnapshot decode(byte[] bytes) throws IOException {
+        ByteReader in = new ByteReader(bytes);
+        if (in.readByte() != FORMAT) {
+            throw new IOException("Unknown board format");
+        }
+        int DIM = in.readVarInt();
+        long version = in.readVarLong();
+        int chunkSize = in.readVarInt();
+        if (chunkSize != PlaceBoard.CHUNK_SIZE) {
+            throw new IOException("Unsupported chunk size " + chunkSize);
+        }
+        long side = ((long) DIM + chunkSize - 1) / chunkSize;
+        if (DIM <= 0 || side * side > in.remaining()) {
+            throw new IOException("Bad board dimension " + DIM); // every chunk takes at least a byte
+        }
+        UserDictionary dictionary = new UserDictionary();
+        int userCount = in.readVarInt();
+        if (userCount < 0 || userCount > in.remaining() + 1) {
+            throw new IOException("Bad user count " + userCount);
+        }
+        for (int id = 1; id < userCount; id++) {
+            dictionary.intern(in.readString());
+        }
+
+        int chunksPerSide = (int) side;
+        BoardSnapshot.Chunk[] chunks = new BoardSnapshot.Chunk[chunksPerSide * chunksPerSide];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            int length = in.readVarInt();
+            int rows = Math.min(chunkSize, DIM - (chunk / chunksPerSide) * chunkSize);
+            int cols = Math.min(chunkSize, DIM - (chunk % chunksPerSide) * chunkSize);
+            chunks[chunk] = decodeChunk(new ByteReader(in.readBytes(length)), rows, cols);
+        }
+        return new BoardSnapshot(DIM, version, chunksPerSide, chunks, dictionary, userCount);
+    }
+
+    /**
+     * Decode one chunk.
+     *
+     * @param in the encoded chunk
+     * @param rows the number of rows in the chunk
+     * @param cols the number of columns in the chunk
+     * @return the chunk
+     * @throws IOException if the bytes are not a valid chunk
+     */
+    public static BoardSnapshot.Chunk decodeChunk(ByteReader in, int rows, int cols) throws IOException {
+        int tiles = rows * cols;
+        long version = in.readVarLong();
+
+        byte[] colors = new byte[(tiles + 1) / 2]; // packed two to a byte, the even tile in the low nibble
+        for (int i = 0; i < tiles; ) {
+            int b = in.readByte();
+            int run = (b & 0xF) + 1;
+            if (run == 16) {
+                run += in.readVarInt();
+            }
+            fill(i, run, tiles);
+            for (int end = i + run; i < end; i++) {
+                colors[i >> 1] |= (byte) ((b >> 4) << ((i & 1) << 2));
+            }
+        }
+
+        int[] owners = new int[tiles];
+        for (int i = 0; i < tiles; ) {
+            int owner = in.readVarInt();
+            int run = in.readVarInt();
+            fill(i, run, tiles);
+            for (int end = i + run; i < end; i++) {
+                owners[i] = owner;
+            }
+        }
+
+        long[] times = new long[tiles];
+        long previous = 0;
+        for (int i = 0; i < tiles; ) {
+            long delta = in.readSignedVarLong();
+            int run = in.readVarInt();
+            fill(i, run, tiles);
+            for (int end = i + run; i < end; i++) {
+                previous += delta;
+                times[i] = previous;
+            }
+        }
+        return new BoardSnapshot.Chunk(rows, cols, version, colors, owners, times);
+    }
+
+    /**
+     * Check that a run fits in the chunk.
+     *
+     * @param start the first tile of the run
+     * @param run the run length
+     * @param tiles the number of tiles in the chunk
+     * @throws IOException if the run is empty or too long
+     */
+    private static void fill(int start, int run, int tiles) throws IOException {
+        if (run <= 0 || run > tiles - start) {
+            throw new IOException("Run past the end of a chunk");
+        }
+    }
+
+    /**
+     * Get the color number of the i-th tile of a chunk in row major order.
+     *
+     * @param chunk the chunk
+     * @param i the tile index
+     * @return the color number
+     */
+    private static int color(BoardSnapshot.Chunk chunk, int i) {
+        return chunk.getColor(i / chunk.getCols(), i % chunk.getCols());
+    }
+
+    /**
+     * Get the owner id of the i-th tile of a chunk in row major order.
+     *
+     * @param chunk the chunk
+     * @param i the tile index
+     * @return the owner id
+     */
+    private static int owner(BoardSnapshot.Chunk chunk, int i) {
+        return chunk.getOwner(i / chunk.getCols(), i % chunk.getCols());
+    }
+
+    /**
+     * Get the change time of the i-th tile of a chunk in row major order.
+     *
+     * @param chunk the chunk
+     * @param i the tile index
+     * @return the time in milliseconds
+     */
+    private static long time(BoardSnapshot.Chunk chunk, int i) {
+        return chunk.getTime(i / chunk.getCols(), i % chunk.getCols());
+    }
+}
@@ -0,0 +1,168 @@
+package place.network;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads back what a {@link ByteWriter} wrote.
+ *
+ * @author Benjamin Gloger
+ */
+public class ByteReader {
+    /** The bytes being read */
+    private final byte[] buf;
+    /** The position of the next byte */
+    private int pos;
+    /** The position just past the last readable byte */
+    private final int end;
+
+    /**
+     * Create a reader over all of an array.
+     *
+     * @param buf the bytes
+     */
+    public ByteReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Create a reader over part of an array.
+     *
+     * @param buf the bytes
+     * @param offset the first readable byte
+     * @param length the number of readable bytes
+     */
+    public ByteReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Check that more bytes are left.
+     *
+     * @param n the number of bytes about to be read
+     * @throws EOFException if fewer bytes are left
+     */
+    private void require(int n) throws EOFException {
+        if (n < 0 || end - pos < n) {
+            throw new EOFException("Message ended early");
+        }
+    }
+
+    /**
+     * Get the number of bytes left to read.
+     *
+     * @return the bytes remaining
+     */
+    public int remaining() {
+        return end - pos;
+    }
+
+    /**
+     * Read one unsigned byte.
+     *
+     * @return the byte, 0-255
+     * @throws IOException if the message ended
+     */
+    public int readByte() throws IOException {
+        require(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * Read bytes as they are.
+     *
+     * @param length the number of bytes
+     * @return the bytes
+     * @throws IOException if the message ended
+     */
+    public byte[] readBytes(int length) throws IOException {
+        require(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    /**
+     * Read a big endian 4 byte int.
+     *
+     * @return the value
+     * @throws IOException if the message ended
+     */
+    public int readInt() throws IOException {
+        require(4);
+        int v = (buf[pos] & 0xFF) << 24 | (buf[pos + 1] & 0xFF) << 16 | (buf[pos + 2] & 0xFF) << 8 | (buf[pos + 3] & 0xFF);
+        pos += 4;
+        return v;
+    }
+
+    /**
+     * Read a big endian 8 byte long.
+     *
+     * @return the value
+     * @throws IOException if the message ended
+     */
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Read a variable length int.
+     *
+     * @return the value
+     * @throws IOException if the message ended or the value is too long
+     */
+    public int readVarInt() throws IOException {
+        long v = readVarLong();
+        if ((v & ~0xFFFFFFFFL) != 0) {
+            throw new IOException("Variable length int out of range");
+        }
+        return (int) v;
+    }
+
+    /**
+     * Read a variable length long.
+     *
+     * @return the value
+     * @throws IOException if the message ended or the value is too long
+     */
+    public long readVarLong() throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Variable length long too long");
+    }
+
+    /**
+     * Read a zigzag encoded signed long.
+     *
+     * @return the value
+     * @throws IOException if the message ended
+     */
+    public long readSignedVarLong() throws IOException {
+        long v = readVarLong();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Read a string written by {@link ByteWriter#writeString(String)}.
+     *
+     * @return the string
+     * @throws IOException if the message ended
+     */
+    public String readString() throws IOException {
+        int length = readVarInt();
+        require(length);
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+}
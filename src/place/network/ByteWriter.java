@@ -0,0 +1,161 @@
+package place.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte array for building binary messages.  Besides fixed size
+ * values it writes variable length integers: 7 bits per byte, least
+ * significant group first, with the high bit set on every byte but the
+ * last.  Signed values are zigzag encoded first so small negative numbers
+ * stay short.
+ *
+ * @author Benjamin Gloger
+ */
+public class ByteWriter {
+    /** The bytes written so far, followed by spare capacity */
+    private byte[] buf;
+    /** The number of bytes written */
+    private int size;
+
+    /**
+     * Create a writer with room for a number of bytes before it grows.
+     *
+     * @param capacity the initial capacity
+     */
+    public ByteWriter(int capacity) {
+        this.buf = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Make room for more bytes.
+     *
+     * @param more the number of bytes about to be written
+     */
+    private void ensure(int more) {
+        if (size + more > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + more));
+        }
+    }
+
+    /**
+     * Write one byte.
+     *
+     * @param b the byte, only the low 8 bits are written
+     */
+    public void writeByte(int b) {
+        ensure(1);
+        buf[size++] = (byte) b;
+    }
+
+    /**
+     * Write bytes as they are.
+     *
+     * @param bytes the bytes
+     * @param offset the first byte to write
+     * @param length the number of bytes
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        ensure(length);
+        System.arraycopy(bytes, offset, buf, size, length);
+        size += length;
+    }
+
+    /**
+     * Write a big endian 4 byte int.
+     *
+     * @param v the value
+     */
+    public void writeInt(int v) {
+        ensure(4);
+        buf[size++] = (byte) (v >>> 24);
+        buf[size++] = (byte) (v >>> 16);
+        buf[size++] = (byte) (v >>> 8);
+        buf[size++] = (byte) v;
+    }
+
+    /**
+     * Overwrite 4 bytes already written with a big endian int, such as a
+     * length that was only known once what followed it was written.
+     *
+     * @param position the offset of the first byte
+     * @param v the value
+     */
+    public void setInt(int position, int v) {
+        buf[position] = (byte) (v >>> 24);
+        buf[position + 1] = (byte) (v >>> 16);
+        buf[position + 2] = (byte) (v >>> 8);
+        buf[position + 3] = (byte) v;
+    }
+
+    /**
+     * Write a big endian 8 byte long.
+     *
+     * @param v the value
+     */
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * Write a non-negative int in as few bytes as it needs.
+     *
+     * @param v the value, treated as unsigned
+     */
+    public void writeVarInt(int v) {
+        writeVarLong(v & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write a non-negative long in as few bytes as it needs.
+     *
+     * @param v the value, treated as unsigned
+     */
+    public void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[size++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[size++] = (byte) v;
+    }
+
+    /**
+     * Write a signed long, zigzag encoded so small magnitudes stay short.
+     *
+     * @param v the value
+     */
+    public void writeSignedVarLong(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Write a string as its UTF-8 length followed by its UTF-8 bytes.
+     *
+     * @param s the string
+     */
+    public void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Get the number of bytes written.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get a copy of the bytes written.
+     *
+     * @return the bytes
+     */
+    public byte[] toByteArray() {
+        return size == buf.length ? buf : Arrays.copyOf(buf, size);
+    }
+}
@@ -0,0 +1,115 @@
+package place.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A request on its way to one or more clients, together with its binary
+ * encoding.  The encoding is made the first time a binary connection needs
+ * it and then shared by every connection the frame is sent to, so
+ * broadcasting a request costs one encoding however many clients there are.
+ * Connections that speak Java serialization still write the request itself.
+ *
+ * @author Benjamin Gloger
+ */
+public class Frame {
+    private final PlaceRequest<?> request;
+    /** The whole frame, length included, or null until it is first needed */
+    private volatile byte[] bytes;
+    /** The same frame for connections that asked for compression, or null until it is first needed */
+    private volatile byte[] compressedBytes;
+
+    /**
+     * Create a frame for a request.
+     *
+     * @param request the request
+     */
+    public Frame(PlaceRequest<?> request) {
+        this.request = request;
+    }
+
+    /**
+     * Get the request.
+     *
+     * @return the request
+     */
+    public PlaceRequest<?> getRequest() {
+        return this.request;
+    }
+
+    /**
+     * Get the binary encoding of the request, length included.  The array
+     * is shared and must not be modified.  Two threads that ask at once may
+     * both encode it, which is harmless since they get the same bytes.
+     *
+     * @return the encoded frame
+     */
+    public byte[] getBytes() {
+        byte[] b = bytes;
+        if (b == null) {
+            b = PlaceRequestCodec.encodeFrame(request);
+            bytes = b;
+        }
+        return b;
+    }
+
+    /**
+     * Get the binary encoding of the request for a connection that may or
+     * may not have asked for compression.  The compressed encoding is also
+     * made once and shared, and is the plain one when the frame is too
+     * small to compress.
+     *
+     * @param compressed whether the connection accepts compressed frames
+     * @return the encoded frame
+     */
+    public byte[] getBytes(boolean compressed) {
+        if (!compressed) {
+            return getBytes();
+        }
+        byte[] b = compressedBytes;
+        if (b == null) {
+            b = PlaceRequestCodec.compressFrame(getBytes());
+            compressedBytes = b;
+        }
+        return b;
+    }
+
+    /**
+     * Tell whether getting the encoding may take long enough that it should
+     * not be done on a thread serving other connections: a BOARD that was
+     * not encoded yet, or a frame big enough to compress that was not
+     * compressed yet.
+     *
+     * @param compressed whether the connection accepts compressed frames
+     * @return true if the encoding is not made yet and may be costly
+     */
+    public boolean isCostly(boolean compressed) {
+        if ((compressed ? compressedBytes : bytes) != null) {
+            return false;
+        }
+        if (request.getType() == PlaceRequest.RequestType.BOARD) {
+            return true;
+        }
+        return compressed && getBytes().length >= PlaceRequestCodec.COMPRESS_THRESHOLD;
+    }
+
+    /**
+     * Get a read only buffer over the encoded frame, with its own position,
+     * so any number of connections can write the same bytes at once.
+     *
+     * @return the buffer
+     */
+    public ByteBuffer buffer() {
+        return buffer(false);
+    }
+
+    /**
+     * Get a read only buffer over the encoded frame, compressed if the
+     * connection asked for it.
+     *
+     * @param compressed whether the connection accepts compressed frames
+     * @return the buffer
+     */
+    public ByteBuffer buffer(boolean compressed) {
+        return ByteBuffer.wrap(getBytes(compressed)).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,73 @@
+package place.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * The original wire format: requests written with Java serialization.  The
+ * output stream is reset after every request, so the stream's handle table
+ * does not keep every object ever sent alive for the life of the connection.
+ *
+ * @author Benjamin Gloger
+ */
+public class ObjectRequestChannel implements RequestChannel {
+    private final ObjectInputStream in;
+    private final ObjectOutputStream out;
+
+    /**
+     * Create a channel over object streams that are already open.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     */
+    public ObjectRequestChannel(ObjectInputStream in, ObjectOutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Create a channel over raw streams.  The output stream header is sent
+     * before waiting for the other side's, so both ends can do this at once.
+     *
+     * @param in the raw input stream
+     * @param out the raw output stream
+     * @throws IOException if the stream headers could not be exchanged
+     */
+    public ObjectRequestChannel(InputStream in, OutputStream out) throws IOException {
+        this.out = new ObjectOutputStream(out);
+        this.out.flush();
+        this.in = new ObjectInputStream(in);
+    }
+
+    @Override
+    public PlaceRequest<?> read() throws IOException {
+        try {
+            return (PlaceRequest<?>) in.readUnshared();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException {
+        out.writeUnshared(request);
+        out.reset();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
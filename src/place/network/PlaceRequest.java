@@ -5,24 +5,39 @@ import java.io.Serializable;
 /**
  * This is the class that represents the requests that are transmitted between
  * the server and clients.  These objects will be sent and received using
- * PlaceExchange.
+ * a RequestChannel, either with Java serialization or with the binary
+ * encoding in PlaceRequestCodec.  With Java serialization the server only
+ * sends what the first clients understood: LOGIN_SUCCESS, ERROR, the BOARD
+ * as a PlaceBoard and every change as a TILE_CHANGED naming its owner.
  *
  * @param <E> the data type (depends on the request type):<br>
- *      BOARD: PlaceBoard object<br>
+ *      BOARD: byte[], a BoardSnapshot encoded by BoardCodec, or a PlaceBoard with Java serialization<br>
  *      CHANGE_TILE: PlaceTile object<br>
+ *      CHANGE_TILE_IF: ConditionalTile object<br>
+ *      CHANGE_TILES: TileBatch object<br>
+ *      COOLDOWN: Long, the time in milliseconds of the next allowed change<br>
+ *      SUBSCRIBE: Region object<br>
+ *      UNSUBSCRIBE: Region object<br>
  *      ERROR: String<br>
  *      LOGIN: String<br>
+ *      LOGIN_RESUME: ResumePoint object<br>
  *      LOGIN_SUCCESS: String<br>
  *      TILE_CHANGED: PlaceTile object<br>
+ *      USERS: UserDictionary.Delta object<br>
+ *      TILE_BATCH: TileBatch object<br>
  *
  * @author Sean Strout @ RIT CS
  */
 public class PlaceRequest<E extends Serializable> implements Serializable {
+    /** The version the first clients were built with, so they still read requests from Java serialization */
+    private static final long serialVersionUID = 6908994432343544528L;
+
     public enum RequestType {
         /**
          * After a successful client login, the server will send the current
-         * Board to the client.  This is only sent once - afterwards the
-         * only information transmitted are the tile changes.
+         * Board to the client as a snapshot encoded by BoardCodec.  This is
+         * only sent once -
+         * afterwards the only information transmitted are the tile changes.
          */
         BOARD,
 
@@ -59,9 +74,79 @@ public class PlaceRequest<E extends Serializable> implements Serializable {
          * Used by the server to indicate to all clients that a tile has
          * officially been changed.  It will contain the new Tile object.
          * The clients should update their view of the board each time
-         * a tile change arrives.
+         * a tile change arrives.  The tile only carries the id of its owner,
+         * and its sequence number, which is the board version it made.
+         */
+        TILE_CHANGED,
+
+        /**
+         * Used by the server to tell all clients about usernames that were
+         * given an owner id after the client received its board.  It will
+         * contain a UserDictionary.Delta object.
+         */
+        USERS,
+
+        /**
+         * Used by the server, when it batches tile changes, to tell all
+         * clients about every tile changed during one tick.  It will contain
+         * a TileBatch with only the last change of each tile, and the clients
+         * apply it as if each change had arrived as a TILE_CHANGED.
+         */
+        TILE_BATCH,
+
+        /**
+         * A client's request to the server to change many tiles at once.  It
+         * will contain a TileBatch; only the rows, columns and colors are
+         * used.  The server applies at most a fixed number of tiles from one
+         * request and ignores the rest, and answers with the changes as if
+         * they had been sent one CHANGE_TILE at a time.
+         */
+        CHANGE_TILES,
+
+        /**
+         * Used by the server to tell a client it is changing tiles faster
+         * than it is allowed to.  It will contain the time, in milliseconds,
+         * when the client may change its next tile.  The tiles that were over
+         * the limit were not changed, and are not changed later either.
+         */
+        COOLDOWN,
+
+        /**
+         * A client's request to only hear about tiles changing in a region.
+         * It will contain a Region.  A client that never subscribed hears
+         * about the whole board; after its first SUBSCRIBE it hears about
+         * the chunks its regions overlap, which may include a few tiles
+         * outside them.
+         */
+        SUBSCRIBE,
+
+        /**
+         * A client's request to stop hearing about a region it subscribed
+         * to.  It will contain the same Region.  A client with no regions
+         * left hears about no tile changes at all.
+         */
+        UNSUBSCRIBE,
+
+        /**
+         * Used by a client that lost its connection to login again.  It will
+         * contain a ResumePoint with the username, the sequence number of the
+         * last change the client saw and how many usernames it knows.  If
+         * the server still has every change since, it answers LOGIN_SUCCESS
+         * followed by USERS and a TILE_BATCH with what the client missed,
+         * otherwise LOGIN_SUCCESS followed by the BOARD.
+         */
+        LOGIN_RESUME,
+
+        /**
+         * A client's request to change a tile only if it still has an
+         * expected color.  It will contain a ConditionalTile.  If the tile
+         * has another color by the time the server gets to it, the request
+         * is dropped and nothing is sent; otherwise it is answered like a
+         * CHANGE_TILE.  The server also drops any CHANGE_TILE, CHANGE_TILES
+         * or CHANGE_TILE_IF change that would leave a tile with the color
+         * and owner it already has.
          */
-        TILE_CHANGED
+        CHANGE_TILE_IF
     }
 
     /** The request type */
@@ -0,0 +1,584 @@
+package place.network;
+
+import place.ConditionalTile;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.Region;
+import place.ResumePoint;
+import place.TileBatch;
+import place.UserDictionary;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The binary encoding of {@link PlaceRequest}s.  On the wire every request
+ * is a frame: a 4 byte big endian length followed by that many bytes, the
+ * first of which is the request type.  The rest depends on the type:
+ * <pre>
+ *   LOGIN          magic int, protocol version byte, flags byte, username
+ *   LOGIN_SUCCESS  message
+ *   ERROR          message
+ *   BOARD          a snapshot encoded by BoardCodec
+ *   CHANGE_TILE    row int, col int, color byte
+ *   TILE_CHANGED   row int, col int, color byte, owner id int, time long,
+ *                  sequence long
+ *   USERS          first id, count, usernames
+ *   TILE_BATCH     sequence, count, then per tile: row, col, color byte, owner id,
+ *                  time as a signed delta from the tile before
+ *   CHANGE_TILES   count, then per tile: row, col, color byte
+ *   COOLDOWN       time long
+ *   SUBSCRIBE      top, left, bottom, right
+ *   UNSUBSCRIBE    top, left, bottom, right
+ *   LOGIN_RESUME   as LOGIN, then sequence, user count
+ *   CHANGE_TILE_IF row int, col int, color byte, expected color byte
+ * </pre>
+ * Counts, ids and batched coordinates are variable length ints.
+ * Strings are a variable length byte count followed by UTF-8, as written by
+ * {@link ByteWriter}.  The tile frames have a fixed layout so they can be
+ * built and parsed without any intermediate objects.
+ *
+ * A client that sets {@link #FLAG_COMPRESS} in its LOGIN flags accepts
+ * compressed frames.  A frame body of at least {@link #COMPRESS_THRESHOLD}
+ * bytes, in practice a BOARD or a large TILE_BATCH, may then be sent with
+ * {@link #COMPRESSED} set on its type byte, followed by the length of the
+ * body once inflated and the rest of the body deflated.  A frame is only
+ * sent compressed when that makes it smaller.  Only the server compresses:
+ * it refuses compressed frames from clients, and a client inflates no frame
+ * to more than {@link #MAX_FRAME}.  A compressed frame never holds another
+ * compressed frame.
+ *
+ * A Java serialization stream always starts with the byte 0xAC, while a
+ * binary stream starts with the high byte of the LOGIN frame's length,
+ * which is always 0.  The server tells the two apart from that first byte.
+ *
+ * @author Benjamin Gloger
+ */
+public class PlaceRequestCodec {
+    /** Identifies a binary LOGIN frame */
+    public static final int MAGIC = 0x504C4345;
+    /** The version of the binary protocol */
+    public static final int PROTOCOL_VERSION = 2;
+    /** The first byte of a Java serialization stream */
+    public static final int SERIALIZATION_FIRST_BYTE = 0xAC;
+    /** The largest frame a client accepts, which only a BOARD comes near */
+    public static final int MAX_FRAME = 1 << 28;
+    /** The largest frame the server accepts before the client logged in */
+    public static final int MAX_LOGIN_FRAME = 4096;
+    /** The most a CHANGE_TILES tile takes: varint row and column, color byte */
+    private static final int CHANGE_TILES_TILE_SIZE = 5 + 5 + 1;
+    /** The size of a CHANGE_TILE frame after its length */
+    public static final int CHANGE_TILE_SIZE = 1 + 4 + 4 + 1;
+    /** The size of a CHANGE_TILE_IF frame after its length */
+    public static final int CHANGE_TILE_IF_SIZE = CHANGE_TILE_SIZE + 1;
+    /** The size of a TILE_CHANGED frame after its length */
+    public static final int TILE_CHANGED_SIZE = 1 + 4 + 4 + 1 + 4 + 8 + 8;
+
+    /** The LOGIN flag asking for large frames to be compressed */
+    public static final int FLAG_COMPRESS = 1;
+    /** Set on the type byte of a frame whose body is compressed */
+    public static final int COMPRESSED = 0x80;
+    /** Frame bodies smaller than this are never compressed */
+    public static final int COMPRESS_THRESHOLD = 512;
+
+    /** The buffer a compressed body starts inflating into, unless it claims less */
+    private static final int INFLATE_BUFFER = 64 * 1024;
+
+    /** Compressors are reset and reused by each thread rather than made per frame */
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    /** The request types in wire order */
+    private static final PlaceRequest.RequestType[] TYPES = PlaceRequest.RequestType.values();
+
+    /**
+     * Encode a request as the body of a frame, without the length.
+     *
+     * @param request the request
+     * @return the frame body
+     */
+    public static byte[] encode(PlaceRequest<?> request) {
+        return encode(request, false, 0);
+    }
+
+    /**
+     * Encode a request as a whole frame, length included, ready to be
+     * written as it is.
+     *
+     * @param request the request
+     * @return the frame
+     */
+    public static byte[] encodeFrame(PlaceRequest<?> request) {
+        return encode(request, true, 0);
+    }
+
+    /**
+     * Encode a request as a whole frame for a connection with the given
+     * LOGIN flags.  The flags are written into LOGIN requests, and with
+     * {@link #FLAG_COMPRESS} a large frame is compressed.
+     *
+     * @param request the request
+     * @param flags the connection's LOGIN flags
+     * @return the frame
+     */
+    public static byte[] encodeFrame(PlaceRequest<?> request, int flags) {
+        return encodeFrame(request, flags, (flags & FLAG_COMPRESS) != 0);
+    }
+
+    /**
+     * Encode a request as a whole frame, with the given LOGIN flags written
+     * into LOGIN requests.  A client sends its flags but never compresses.
+     *
+     * @param request the request
+     * @param flags the connection's LOGIN flags
+     * @param compress whether a large frame is compressed
+     * @return the frame
+     */
+    public static byte[] encodeFrame(PlaceRequest<?> request, int flags, boolean compress) {
+        byte[] frame = encode(request, true, flags);
+        return compress ? compressFrame(frame) : frame;
+    }
+
+    /**
+     * Compress a whole frame, length included.  Frames below the threshold,
+     * and frames that deflate would not make smaller, are returned as they
+     * are.
+     *
+     * @param frame the frame
+     * @return the compressed frame, or the same frame
+     */
+    public static byte[] compressFrame(byte[] frame) {
+        int length = frame.length - 5; // the body after the type byte
+        if (length < COMPRESS_THRESHOLD || (frame[4] & COMPRESSED) != 0) {
+            return frame;
+        }
+        ByteWriter header = new ByteWriter(16);
+        header.writeInt(0);
+        header.writeByte(frame[4] | COMPRESSED);
+        header.writeVarInt(length);
+        byte[] head = header.toByteArray();
+
+        // only worth sending if it fits in the space the frame took before
+        byte[] out = new byte[frame.length];
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(frame, 5, length);
+        deflater.finish();
+        int size = head.length + deflater.deflate(out, head.length, out.length - head.length);
+        if (!deflater.finished()) {
+            return frame;
+        }
+        System.arraycopy(head, 0, out, 0, head.length);
+        int body = size - 4;
+        out[0] = (byte) (body >>> 24);
+        out[1] = (byte) (body >>> 16);
+        out[2] = (byte) (body >>> 8);
+        out[3] = (byte) body;
+        return Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Get the largest frame the server accepts from a client that logged in,
+     * which is a CHANGE_TILES holding as many tiles as the server applies
+     * from one request.  Nothing a client sends is larger than that, and
+     * nothing smaller than {@link #MAX_LOGIN_FRAME} is refused.
+     *
+     * @param maxBatch the most tiles the server applies from one CHANGE_TILES
+     * @return the length of the largest frame body
+     */
+    public static int maxRequestFrame(int maxBatch) {
+        return (int) Math.min(MAX_FRAME,
+                Math.max(MAX_LOGIN_FRAME, 1 + 5 + (long) maxBatch * CHANGE_TILES_TILE_SIZE));
+    }
+
+    /**
+     * Get the flags of a LOGIN or LOGIN_RESUME frame body without decoding
+     * it.
+     *
+     * @param frame the bytes holding the frame body
+     * @param offset the first byte of the body
+     * @param length the length of the body
+     * @return the flags, or 0 if the frame is not a login
+     */
+    public static int loginFlags(byte[] frame, int offset, int length) {
+        int type = frame[offset] & 0xFF;
+        if (length < 7 || (type != PlaceRequest.RequestType.LOGIN.ordinal()
+                && type != PlaceRequest.RequestType.LOGIN_RESUME.ordinal())) {
+            return 0;
+        }
+        return frame[offset + 6] & 0xFF; // after the type, magic and version
+    }
+
+    /**
+     * Encode a request, with or without the frame length in front of it.
+     *
+     * @param request the request
+     * @param withLength whether to start with the frame length
+     * @param flags the flags written into LOGIN requests
+     * @return the encoded request
+     */
+    private static byte[] encode(PlaceRequest<?> request, boolean withLength, int flags) {
+        int prefix = withLength ? 4 : 0;
+        ByteWriter out = new ByteWriter(prefix + size(request));
+        if (withLength) {
+            out.writeInt(0);
+        }
+        out.writeByte(request.getType().ordinal());
+        switch (request.getType()) {
+            case LOGIN:
+                out.writeInt(MAGIC);
+                out.writeByte(PROTOCOL_VERSION);
+                out.writeByte(flags);
+                out.writeString((String) request.getData());
+                break;
+            case LOGIN_RESUME:
+                ResumePoint resume = (ResumePoint) request.getData();
+                out.writeInt(MAGIC);
+                out.writeByte(PROTOCOL_VERSION);
+                out.writeByte(flags);
+                out.writeString(resume.getUsername());
+                out.writeVarLong(resume.getSequence());
+                out.writeVarInt(resume.getUserCount());
+                break;
+            case LOGIN_SUCCESS:
+            case ERROR:
+                out.writeString((String) request.getData());
+                break;
+            case BOARD:
+                byte[] board = (byte[]) request.getData();
+                out.writeBytes(board, 0, board.length);
+                break;
+            case CHANGE_TILE:
+                PlaceTile change = (PlaceTile) request.getData();
+                out.writeInt(change.getRow());
+                out.writeInt(change.getCol());
+                out.writeByte(change.getColor().getNumber());
+                break;
+            case CHANGE_TILE_IF:
+                ConditionalTile conditional = (ConditionalTile) request.getData();
+                out.writeInt(conditional.getTile().getRow());
+                out.writeInt(conditional.getTile().getCol());
+                out.writeByte(conditional.getTile().getColor().getNumber());
+                out.writeByte(conditional.getExpected().getNumber());
+                break;
+            case TILE_CHANGED:
+                PlaceTile changed = (PlaceTile) request.getData();
+                out.writeInt(changed.getRow());
+                out.writeInt(changed.getCol());
+                out.writeByte(changed.getColor().getNumber());
+                out.writeInt(changed.getOwnerId());
+                out.writeLong(changed.getTime());
+                out.writeLong(changed.getSequence());
+                break;
+            case USERS:
+                UserDictionary.Delta delta = (UserDictionary.Delta) request.getData();
+                out.writeVarInt(delta.getFirstId());
+                out.writeVarInt(delta.getNames().length);
+                for (String name : delta.getNames()) {
+                    out.writeString(name);
+                }
+                break;
+            case TILE_BATCH:
+                TileBatch batch = (TileBatch) request.getData();
+                out.writeVarLong(batch.getSequence());
+                out.writeVarInt(batch.size());
+                long previous = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    out.writeVarInt(batch.getRow(i));
+                    out.writeVarInt(batch.getCol(i));
+                    out.writeByte(batch.getColor(i));
+                    out.writeVarInt(batch.getOwner(i));
+                    out.writeSignedVarLong(batch.getTime(i) - previous);
+                    previous = batch.getTime(i);
+                }
+                break;
+            case CHANGE_TILES:
+                TileBatch changes = (TileBatch) request.getData();
+                out.writeVarInt(changes.size());
+                for (int i = 0; i < changes.size(); i++) {
+                    out.writeVarInt(changes.getRow(i));
+                    out.writeVarInt(changes.getCol(i));
+                    out.writeByte(changes.getColor(i));
+                }
+                break;
+            case COOLDOWN:
+                out.writeLong((Long) request.getData());
+                break;
+            case SUBSCRIBE:
+            case UNSUBSCRIBE:
+                Region region = (Region) request.getData();
+                out.writeVarInt(region.getTop());
+                out.writeVarInt(region.getLeft());
+                out.writeVarInt(region.getBottom());
+                out.writeVarInt(region.getRight());
+                break;
+            default:
+                throw new IllegalArgumentException("No binary encoding for " + request.getType());
+        }
+        if (withLength) {
+            out.setInt(0, out.size() - prefix);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Guess the size of a frame body, so it is usually encoded without
+     * growing the buffer.
+     *
+     * @param request the request
+     * @return the expected size
+     */
+    private static int size(PlaceRequest<?> request) {
+        switch (request.getType()) {
+            case BOARD:
+                return 1 + ((byte[]) request.getData()).length;
+            case CHANGE_TILE:
+                return CHANGE_TILE_SIZE;
+            case CHANGE_TILE_IF:
+                return CHANGE_TILE_IF_SIZE;
+            case TILE_CHANGED:
+                return TILE_CHANGED_SIZE;
+            case TILE_BATCH:
+                return 8 + 12 * ((TileBatch) request.getData()).size();
+            case CHANGE_TILES:
+                return 8 + 5 * ((TileBatch) request.getData()).size();
+            default:
+                return 32;
+        }
+    }
+
+    /**
+     * Decode the body of a frame, inflating it to at most {@link #MAX_FRAME}
+     * bytes if it is compressed.
+     *
+     * @param frame the bytes holding the frame body
+     * @param offset the first byte of the body
+     * @param length the length of the body
+     * @return the request
+     * @throws IOException if the frame is not a valid request
+     */
+    public static PlaceRequest<?> decode(byte[] frame, int offset, int length) throws IOException {
+        return decode(frame, offset, length, MAX_FRAME);
+    }
+
+    /**
+     * Decode the body of a frame.
+     *
+     * @param frame the bytes holding the frame body
+     * @param offset the first byte of the body
+     * @param length the length of the body
+     * @param maxInflated the most bytes a compressed body may inflate to, or 0 to refuse compressed frames
+     * @return the request
+     * @throws IOException if the frame is not a valid request
+     */
+    public static PlaceRequest<?> decode(byte[] frame, int offset, int length, int maxInflated) throws IOException {
+        int type = frame[offset] & 0xFF;
+        if ((type & COMPRESSED) == 0) {
+            return decodeBody(frame, offset, length);
+        }
+        if (maxInflated <= 0) {
+            throw new IOException("Compressed frames are not accepted");
+        }
+        ByteReader in = new ByteReader(frame, offset + 1, length - 1);
+        byte[] body = inflate(type & ~COMPRESSED, in, maxInflated);
+        return decodeBody(body, 0, body.length);
+    }
+
+    /**
+     * Decode the body of a frame that is not compressed.
+     *
+     * @param frame the bytes holding the frame body
+     * @param offset the first byte of the body
+     * @param length the length of the body
+     * @return the request
+     * @throws IOException if the frame is not a valid request
+     */
+    private static PlaceRequest<?> decodeBody(byte[] frame, int offset, int length) throws IOException {
+        ByteReader in = new ByteReader(frame, offset, length);
+        int type = in.readByte();
+        if ((type & COMPRESSED) != 0) {
+            throw new IOException("Compressed frame inside a compressed frame");
+        }
+        if (type >= TYPES.length) {
+            throw new IOException("Unknown request type " + type);
+        }
+        switch (TYPES[type]) {
+            case LOGIN:
+            case LOGIN_RESUME: {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a Place client");
+                }
+                if (in.readByte() != PROTOCOL_VERSION) {
+                    throw new IOException("Unsupported protocol version");
+                }
+                in.readByte(); // flags, read by the channel with loginFlags
+                String username = in.readString();
+                if (TYPES[type] == PlaceRequest.RequestType.LOGIN) {
+                    return new PlaceRequest<>(TYPES[type], username);
+                }
+                long sequence = in.readVarLong();
+                return new PlaceRequest<>(TYPES[type], new ResumePoint(username, sequence, readId(in)));
+            }
+            case LOGIN_SUCCESS:
+            case ERROR:
+                return new PlaceRequest<>(TYPES[type], in.readString());
+            case BOARD:
+                return new PlaceRequest<>(TYPES[type], in.readBytes(in.remaining()));
+            case CHANGE_TILE: {
+                int row = in.readInt();
+                int col = in.readInt();
+                return new PlaceRequest<>(TYPES[type], new PlaceTile(row, col, -1, null, color(in.readByte()), 0L));
+            }
+            case CHANGE_TILE_IF: {
+                int row = in.readInt();
+                int col = in.readInt();
+                PlaceTile change = new PlaceTile(row, col, -1, null, color(in.readByte()), 0L);
+                return new PlaceRequest<>(TYPES[type], new ConditionalTile(change, color(in.readByte())));
+            }
+            case TILE_CHANGED: {
+                int row = in.readInt();
+                int col = in.readInt();
+                PlaceColor color = color(in.readByte());
+                int owner = in.readInt();
+                PlaceTile changed = new PlaceTile(row, col, owner, null, color, in.readLong());
+                changed.setSequence(in.readLong());
+                return new PlaceRequest<>(TYPES[type], changed);
+            }
+            case USERS:
+                int firstId = readId(in);
+                int count = readCount(in);
+                String[] names = new String[count];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = in.readString();
+                }
+                return new PlaceRequest<>(TYPES[type], new UserDictionary.Delta(firstId, names));
+            case TILE_BATCH: {
+                long sequence = in.readVarLong();
+                int size = readCount(in);
+                TileBatch batch = new TileBatch(size);
+                long time = 0;
+                for (int i = 0; i < size; i++) {
+                    int row = in.readVarInt();
+                    int col = in.readVarInt();
+                    int color = in.readByte() & 0xF;
+                    int owner = in.readVarInt();
+                    time += in.readSignedVarLong();
+                    batch.add(row, col, color, owner, time);
+                }
+                batch.setSequence(sequence);
+                return new PlaceRequest<>(TYPES[type], batch);
+            }
+            case CHANGE_TILES: {
+                int size = readCount(in);
+                TileBatch changes = new TileBatch(size);
+                for (int i = 0; i < size; i++) {
+                    int row = in.readVarInt();
+                    int col = in.readVarInt();
+                    changes.add(row, col, in.readByte() & 0xF, -1, 0L);
+                }
+                return new PlaceRequest<>(TYPES[type], changes);
+            }
+            case COOLDOWN:
+                return new PlaceRequest<>(TYPES[type], in.readLong());
+            case SUBSCRIBE:
+            case UNSUBSCRIBE: {
+                int top = in.readVarInt();
+                int left = in.readVarInt();
+                int bottom = in.readVarInt();
+                return new PlaceRequest<>(TYPES[type], new Region(top, left, bottom, in.readVarInt()));
+            }
+            default:
+                throw new IOException("No binary encoding for " + TYPES[type]);
+        }
+    }
+
+    /**
+     * Inflate the rest of a compressed frame body.  The length the body
+     * claims is only trusted up to maxInflated, and the buffer grows as the
+     * body actually inflates, so a small frame claiming a large length
+     * costs no more than it holds.
+     *
+     * @param type the type byte without the compressed flag
+     * @param in the body after the type byte
+     * @param maxInflated the most bytes the body may inflate to
+     * @return the body as it was before it was compressed, type byte included
+     * @throws IOException if the body does not inflate to the length it claims
+     */
+    private static byte[] inflate(int type, ByteReader in, int maxInflated) throws IOException {
+        int length = in.readVarInt();
+        if (length <= 0 || length > maxInflated) {
+            throw new IOException("Bad compressed length " + length);
+        }
+        int compressed = in.remaining();
+        byte[] body = new byte[(int) Math.min(1L + length, Math.max(INFLATE_BUFFER, 4L * compressed))];
+        body[0] = (byte) type;
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(in.readBytes(compressed));
+        try {
+            int size = 1;
+            while (size <= length && !inflater.finished()) {
+                if (size == body.length) {
+                    body = Arrays.copyOf(body, (int) Math.min(1L + length, 2L * body.length));
+                }
+                int n = inflater.inflate(body, size, body.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != 1 + length || !inflater.finished()) {
+                throw new IOException("Compressed frame ended early");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return body;
+    }
+
+    /**
+     * Read the number of entries that follow.  Every entry takes at least
+     * a byte, so a count larger than what is left of the body, or one read
+     * back negative, cannot be right.
+     *
+     * @param in the body
+     * @return the count
+     * @throws IOException if the count is negative or larger than the body
+     */
+    private static int readCount(ByteReader in) throws IOException {
+        int count = in.readVarInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IOException("Bad count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Read an owner id, or a number of owner ids.
+     *
+     * @param in the body
+     * @return the id
+     * @throws IOException if the id is negative
+     */
+    private static int readId(ByteReader in) throws IOException {
+        int id = in.readVarInt();
+        if (id < 0) {
+            throw new IOException("Bad owner id " + id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the color a color byte stands for.
+     *
+     * @param number the color byte
+     * @return the color
+     */
+    private static PlaceColor color(int number) {
+        return PlaceColor.fromNumber(number & 0xF);
+    }
+}
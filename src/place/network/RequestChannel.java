@@ -0,0 +1,20 @@
+package place.network;
+
+import java.io.IOException;
+
+/**
+ * One end of a connection between a client and the server, sending and
+ * receiving {@link PlaceRequest}s in whichever wire format the connection
+ * uses.
+ *
+ * @author Benjamin Gloger
+ */
+public interface RequestChannel extends RequestWriter {
+    /**
+     * Block until the next request arrives.
+     *
+     * @return the request
+     * @throws IOException if the connection failed or the request could not be decoded
+     */
+    PlaceRequest<?> read() throws IOException;
+}
@@ -0,0 +1,41 @@
+package place.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The sending half of a connection between a client and the server,
+ * writing {@link PlaceRequest}s in whichever wire format the connection
+ * uses.  A connection whose requests are delivered to the server as they
+ * arrive, rather than read, only has this half.
+ *
+ * @author Benjamin Gloger
+ */
+public interface RequestWriter extends Closeable {
+    /**
+     * Write a request.  It may sit in a buffer until {@link #flush()}.
+     *
+     * @param request the request
+     * @throws IOException if the connection failed
+     */
+    void write(PlaceRequest<?> request) throws IOException;
+
+    /**
+     * Write a request that may be going to many connections.  Channels
+     * that speak the binary protocol write its shared encoding instead of
+     * encoding the request again.
+     *
+     * @param frame the frame
+     * @throws IOException if the connection failed
+     */
+    default void write(Frame frame) throws IOException {
+        write(frame.getRequest());
+    }
+
+    /**
+     * Send everything written so far.
+     *
+     * @throws IOException if the connection failed
+     */
+    void flush() throws IOException;
+}
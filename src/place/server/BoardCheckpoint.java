@@ -0,0 +1,303 @@
+package place.server;
+
+import place.BoardSnapshot;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Keeps a copy of the board on disk next to its WriteAheadLog, so a restart loads the board from the checkpoint and
+ * only replays the changes logged after it, and the log does not grow forever. Every interval a thread of its own
+ * rolls the log to a new segment, clears the dirty flags of the board's chunks, takes a snapshot of the board and
+ * writes only the chunks that were dirty. A chunk changed after its flag was cleared is dirty again and is written
+ * next time, and a chunk whose write failed is kept for the next checkpoint. Once they are on disk, the log
+ * segments before the roll hold nothing the checkpoint does not, and are deleted.
+ *
+ * The file starts with two headers, each HEADER_SIZE bytes: magic int, dim int, generation long, the first log
+ * segment to replay long, the board version long and the CRC32 of the header. A checkpoint writes its header over the
+ * older of the two, so a crash while writing it leaves the other one. Every chunk then has a slot of SLOT_SIZE bytes
+ * at a fixed offset: the chunk version long (0 for a chunk never written), the colors packed two to a byte with the
+ * even column in the low nibble, the owner ids and the times, each over a whole CHUNK_SIZE square, row major.
+ *
+ * A crash in the middle of a checkpoint can leave slots newer than the header that is read back. That is harmless:
+ * every tile that differs between the two checkpoints was changed in a segment the older header still replays, and
+ * replaying the log in order always ends at the tile's last change
+ */
+public class BoardCheckpoint implements Closeable {
+    private static final int MAGIC = 0x504C434B; //"PLCK"
+    private static final int HEADER_SIZE = 512;
+    private static final int HEADER_DATA = 4 + 4 + 8 + 8 + 8; //what the CRC covers
+    private static final int CHUNK_TILES = PlaceBoard.CHUNK_SIZE * PlaceBoard.CHUNK_SIZE;
+    private static final int SLOT_SIZE = 8 + CHUNK_TILES / 2 + CHUNK_TILES * 4 + CHUNK_TILES * 8;
+
+    private PlaceBoard board;
+    private FileChannel channel;
+    private long generation; //of the newest valid header, 0 if there is none
+    private long segment; //the first log segment the board on disk does not have
+    private long version; //the board version of the last checkpoint written, 0 before the first
+    private boolean[] unwritten; //chunks whose dirty flag was cleared but that are not on disk yet
+    private WriteAheadLog log;
+    private ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN); //the heap's own order on x86
+    private volatile boolean isActive = true;
+    private Thread checkpointer;
+
+    /**
+     * Opens the checkpoint, creating it if there is none, and loads the board it holds
+     * @param path the checkpoint file
+     * @param board the board to load into, before any change is made to it
+     * @throws IOException if the file cannot be opened or read
+     */
+    public BoardCheckpoint(String path, PlaceBoard board) throws IOException{
+        this.board = board;
+        this.unwritten = new boolean[board.getChunksPerSide() * board.getChunksPerSide()];
+        this.channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer newest = null;
+        for(int i = 0; i < 2; i++){
+            ByteBuffer header = readHeader(i);
+            if(header != null && (newest == null || header.getLong(8) > newest.getLong(8))){
+                newest = header;
+            }
+        }
+        if(newest != null){
+            generation = newest.getLong(8);
+            segment = newest.getLong(16);
+            load(newest.getInt(4));
+            version = newest.getLong(24);
+            board.skipVersionsTo(version);
+        }else {
+            channel.truncate(0); //slots of a first checkpoint that never finished
+        }
+    }
+
+    /**
+     * Reads one of the two headers
+     * @param i which header
+     * @return the header, or null if it was never written or its CRC fails
+     * @throws IOException if the file cannot be read
+     */
+    private ByteBuffer readHeader(int i) throws IOException{
+        ByteBuffer header = ByteBuffer.allocate(HEADER_DATA + 4);
+        while(header.hasRemaining()){
+            if(channel.read(header, (long) i * HEADER_SIZE + header.position()) < 0){
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_DATA);
+        if(header.getInt(0) != MAGIC || header.getInt(HEADER_DATA) != (int) crc.getValue()){
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Loads every chunk written to the file into the board, a row of chunks at a time so the store is filled in
+     * order. A checkpoint of a board of another dimension keeps the tiles that fit, and the file is started over in
+     * the board's own layout
+     * @param dim the dimension of the board the checkpoint was written from
+     * @throws IOException if the file cannot be read
+     */
+    private void load(int dim) throws IOException{
+        TileStore store = board.getStore();
+        int chunksPerSide = (dim + PlaceBoard.CHUNK_SIZE - 1) / PlaceBoard.CHUNK_SIZE;
+        int size = Math.min(dim, board.DIM);
+        ByteBuffer slots = ByteBuffer.allocate(chunksPerSide * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int[] owners = new int[chunksPerSide * CHUNK_TILES];
+        long[] times = new long[chunksPerSide * CHUNK_TILES];
+        for(int top = 0; top < size; top += PlaceBoard.CHUNK_SIZE){
+            slots.clear();
+            long offset = 2L * HEADER_SIZE + (long) (top / PlaceBoard.CHUNK_SIZE) * chunksPerSide * SLOT_SIZE;
+            while(slots.hasRemaining()){
+                if(channel.read(slots, offset + slots.position()) < 0){
+                    break; //the chunks after the last one ever written
+                }
+            }
+            int read = slots.position() / SLOT_SIZE;
+            for(int c = 0; c < read; c++){
+                slots.limit((c + 1) * SLOT_SIZE).position(c * SLOT_SIZE + 8 + CHUNK_TILES / 2);
+                slots.asIntBuffer().get(owners, c * CHUNK_TILES, CHUNK_TILES);
+                slots.position(c * SLOT_SIZE + 8 + CHUNK_TILES / 2 + CHUNK_TILES * 4);
+                slots.asLongBuffer().get(times, c * CHUNK_TILES, CHUNK_TILES);
+            }
+            int rows = Math.min(PlaceBoard.CHUNK_SIZE, size - top);
+            for(int row = 0; row < rows; row++){
+                for(int c = 0; c < read && c * PlaceBoard.CHUNK_SIZE < size; c++){
+                    if(slots.getLong(c * SLOT_SIZE) == 0){
+                        continue; //never written
+                    }
+                    int left = c * PlaceBoard.CHUNK_SIZE;
+                    int cols = Math.min(PlaceBoard.CHUNK_SIZE, size - left);
+                    int i = c * CHUNK_TILES + row * PlaceBoard.CHUNK_SIZE;
+                    int colors = c * SLOT_SIZE + 8 + row * PlaceBoard.CHUNK_SIZE / 2;
+                    if(dim == board.DIM){
+                        store.setRow(top + row, left, cols, slots.array(), colors, owners, times, i);
+                        continue;
+                    }
+                    for(int col = 0; col < cols; col++){ //setTile marks the chunk, so the next checkpoint writes it
+                        int color = (slots.get(colors + (col >> 1)) >> ((col & 1) << 2)) & 0xF;
+                        board.setTile(new PlaceTile(top + row, left + col, owners[i + col], null,
+                                PlaceColor.fromNumber(color), times[i + col]));
+                    }
+                }
+            }
+        }
+        if(dim != board.DIM){
+            channel.truncate(0);
+            generation = 0;
+        }
+    }
+
+    /**
+     * Getter method for the first log segment whose changes the loaded board does not have
+     * @return the segment, 0 if there was no checkpoint
+     */
+    public long getSegment(){
+        return segment;
+    }
+
+    /**
+     * Starts checkpointing the board in the background
+     * @param log the log the board's changes go to, whose old segments each checkpoint deletes
+     * @param seconds how often to checkpoint
+     */
+    public synchronized void start(WriteAheadLog log, int seconds){
+        this.log = log;
+        checkpointer = new Thread(() -> {
+            while(isActive){
+                try {
+                    Thread.sleep(seconds * 1000L);
+                }catch(InterruptedException e){
+                    //System.err.println(e + " @ start");
+                }
+                if(isActive){
+                    checkpoint();
+                }
+            }
+        }, "Checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    /**
+     * Writes the chunks dirty since the last checkpoint, then a header saying the board on disk has every change
+     * logged before the log was rolled, and deletes the segments that were rolled away. Nothing is done if the board
+     * did not change since the last checkpoint
+     */
+    public synchronized void checkpoint(){
+        if(generation > 0 && board.getVersion() == version){
+            return; //idle, so the log is not rolled to yet another empty segment
+        }
+        long first = log.roll();
+        for(int chunk = 0; chunk < unwritten.length; chunk++){
+            if(board.isDirty(chunk)){ //cleared before the snapshot, so a change made after it marks the chunk again
+                board.clearDirty(chunk);
+                unwritten[chunk] = true;
+            }
+        }
+        BoardSnapshot snapshot = board.snapshot();
+        try {
+            for(int chunk = 0; chunk < unwritten.length; chunk++){
+                BoardSnapshot.Chunk c = snapshot.getChunk(chunk);
+                if(unwritten[chunk] || (generation == 0 && c.getVersion() == 0 && isChanged(c))){
+                    writeSlot(chunk, c);
+                }
+            }
+            channel.force(false);
+            generation++;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_DATA + 4);
+            header.putInt(MAGIC).putInt(board.DIM).putLong(generation).putLong(first).putLong(snapshot.getVersion());
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, HEADER_DATA);
+            header.putInt((int) crc.getValue()).flip();
+            long offset = (generation & 1) * HEADER_SIZE;
+            while(header.hasRemaining()){
+                offset += channel.write(header, offset);
+            }
+            channel.force(false);
+            Arrays.fill(unwritten, false);
+            segment = first;
+            version = snapshot.getVersion();
+            log.deleteBefore(first);
+        }catch(IOException e){
+            System.out.println("The board could not be checkpointed: " + e);
+        }
+    }
+
+    /**
+     * Tells whether a chunk holds anything other than blank tiles. A board loaded from somewhere other than this
+     * checkpoint has chunks with no version that still must be written
+     * @param c the chunk
+     * @return true if any tile is owned
+     */
+    private static boolean isChanged(BoardSnapshot.Chunk c){
+        for(int row = 0; row < c.getRows(); row++){
+            for(int col = 0; col < c.getCols(); col++){
+                if(c.getOwner(row, col) != 0 || c.getTime(row, col) != 0){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a chunk to its slot
+     * @param chunk the chunk number
+     * @param c the chunk's copy in the snapshot
+     * @throws IOException if the file cannot be written
+     */
+    private void writeSlot(int chunk, BoardSnapshot.Chunk c) throws IOException{
+        slot.clear();
+        byte[] array = slot.array();
+        Arrays.fill(array, (byte) 0);
+        slot.putLong(0, Math.max(c.getVersion(), 1));
+        for(int row = 0; row < c.getRows(); row++){
+            for(int col = 0; col < c.getCols(); col++){
+                int i = row * PlaceBoard.CHUNK_SIZE + col;
+                array[8 + (i >> 1)] |= (byte) (c.getColor(row, col) << ((i & 1) << 2));
+                slot.putInt(8 + CHUNK_TILES / 2 + i * 4, c.getOwner(row, col));
+                slot.putLong(8 + CHUNK_TILES / 2 + CHUNK_TILES * 4 + i * 8, c.getTime(row, col));
+            }
+        }
+        long offset = 2L * HEADER_SIZE + (long) chunk * SLOT_SIZE;
+        while(slot.hasRemaining()){
+            offset += channel.write(slot, offset);
+        }
+    }
+
+    /**
+     * Stops checkpointing, writes one last checkpoint so the next start replays nothing, and closes the file
+     */
+    @Override
+    public void close(){
+        isActive = false;
+        Thread running;
+        synchronized (this) {
+            running = checkpointer;
+        }
+        try {
+            if(running != null){
+                running.interrupt();
+                running.join();
+                checkpoint();
+            }
+            channel.close();
+        }catch(InterruptedException | IOException e){
+            //System.err.println(e + " @ close");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package place.server;
+
+import place.PlaceTile;
+import place.TileBatch;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The most recent tile changes, kept in a ring buffer indexed by sequence number. A client that reconnects says
+ * which change it saw last, and if that is still in the history it gets only the changes after it instead of the
+ * whole board. Sequence numbers are board versions, so every change has the number one above the change before.
+ * Shards of a ShardedTileEngine add their changes at the same time, so changes may arrive out of order; a gap
+ * that is not filled yet makes since() give up, exactly as if the change had been overwritten
+ */
+public class ChangeHistory {
+    private int capacity;
+    private long[] sequences;
+    private int[] rows;
+    private int[] cols;
+    private byte[] colors;
+    private int[] owners;
+    private long[] times;
+    private long latest; //the sequence of the newest change, or where the history started
+    private long oldest; //the sequence of the oldest change still held
+
+    /**
+     * Constructor for the ChangeHistory
+     * @param capacity the most changes held
+     * @param start the board version the history starts at, the sequence before its first change
+     */
+    public ChangeHistory(int capacity, long start){
+        this.capacity = Math.max(capacity, 1);
+        this.sequences = new long[this.capacity];
+        this.rows = new int[this.capacity];
+        this.cols = new int[this.capacity];
+        this.colors = new byte[this.capacity];
+        this.owners = new int[this.capacity];
+        this.times = new long[this.capacity];
+        this.latest = start;
+        this.oldest = start + 1;
+    }
+
+    /**
+     * Adds a change, overwriting the oldest one when the history is full
+     * @param t the tile, with its sequence number
+     */
+    public synchronized void add(PlaceTile t){
+        int i = (int) Math.floorMod(t.getSequence(), (long) capacity);
+        sequences[i] = t.getSequence();
+        rows[i] = t.getRow();
+        cols[i] = t.getCol();
+        colors[i] = (byte) t.getColor().getNumber();
+        owners[i] = t.getOwnerId();
+        times[i] = t.getTime();
+        latest = Math.max(latest, t.getSequence());
+        oldest = Math.max(oldest, latest - capacity + 1);
+    }
+
+    /**
+     * Gets every change after a sequence number
+     * @param sequence the last change a client saw
+     * @return the changes in order, or null if some of them are no longer held, or the sequence number is not
+     * one this history ever reached
+     */
+    public synchronized TileBatch since(long sequence){
+        if(sequence > latest || sequence < oldest - 1){
+            return null;
+        }
+        TileBatch batch = new TileBatch((int) (latest - sequence));
+        for(long seq = sequence + 1; seq <= latest; seq++){
+            int i = (int) Math.floorMod(seq, (long) capacity);
+            if(sequences[i] != seq){
+                return null;
+            }
+            batch.add(rows[i], cols[i], colors[i], owners[i], times[i]);
+        }
+        batch.setFirstSequence(sequence + 1);
+        batch.setSequence(latest);
+        return batch;
+    }
+
+    /**
+     * Getter method for the sequence number of the newest change
+     * @return
+     */
+    public synchronized long getLatest(){
+        return latest;
+    }
+}
@@ -1,32 +1,42 @@
 package place.server;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import place.network.Frame;
+import place.network.PlaceRequest;
+import place.network.RequestWriter;
+
+import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
 
 /***
  * AUTHOR: Benjamin Gloger
  *
  * A simple class that encapsulates all the IO for the client
+ *
+ * Requests for the client go through its OutboundQueue, so sending never waits on the client's socket. They are
+ * written by the client's writer thread, or by its EventLoop when the client is served with -io nio
  */
 public class ClientConnection {
     private Socket socket;
     private String username;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private int ownerId;
+    private RequestWriter channel;
+    private OutboundQueue queue;
 
     /**
      * Constructor
      * @param s Socket
      * @param user username
-     * @param in ObjectInputStream
-     * @param out ObjectOutputStream
+     * @param ownerId the id of username in the server's UserDictionary
+     * @param channel the RequestWriter in whichever wire format the client logged in with
+     * @param queue the OutboundQueue holding the requests waiting for the client
      */
-    public ClientConnection(Socket s, String user, ObjectInputStream in, ObjectOutputStream out){
+    public ClientConnection(Socket s, String user, int ownerId, RequestWriter channel, OutboundQueue queue){
         socket = s;
         username = user;
-        this.in = in;
-        this.out = out;
+        this.ownerId = ownerId;
+        this.channel = channel;
+        this.queue = queue;
     }
 
 
@@ -47,18 +57,81 @@ public class ClientConnection {
     }
 
     /**
-     * Getter method for ObjectOutputStream
+     * Getter method for the owner id of username
+     * @return
+     */
+    public int getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Getter method for the RequestWriter
      * @return
      */
-    public ObjectOutputStream getOut() {
-        return out;
+    public RequestWriter getChannel() {
+        return channel;
     }
 
     /**
-     * Getter method for ObjectInputStream
+     * Getter method for the OutboundQueue
      * @return
      */
-    public ObjectInputStream getIn() {
-        return in;
+    public OutboundQueue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Queues a request for the client. This never blocks, however far behind the client is
+     * @param req the request
+     */
+    public void send(PlaceRequest<?> req){
+        queue.offer(new Frame(req));
+    }
+
+    /**
+     * Queues a frame for the client. A frame broadcast to every client is encoded once and its bytes are shared
+     * @param frame the frame
+     */
+    public void send(Frame frame){
+        queue.offer(frame);
+    }
+
+    /**
+     * Starts the thread that writes the queued requests to a client on a blocking socket
+     * @param threadFactory ThreadFactory making platform or virtual threads
+     */
+    public void startWriter(ThreadFactory threadFactory){
+        threadFactory.newThread(this::write).start();
+    }
+
+    /**
+     * The writer's loop. Requests are flushed once the queue runs dry, so a burst goes out in as few packets as
+     * possible. When the queue is closed the socket is closed too, which also ends the client's read loop
+     */
+    private void write(){
+        try {
+            Frame frame;
+            while((frame = queue.take()) != null){
+                channel.write(frame);
+                if(queue.getDepth() == 0){
+                    channel.flush();
+                }
+            }
+        }catch(IOException | InterruptedException e){
+            //System.err.println(e + " @ write");
+        }
+        queue.close();
+        try {
+            socket.close();
+        }catch(IOException e){
+            //System.err.println(e + " @ write");
+        }
+    }
+
+    /**
+     * Stops sending to the client
+     */
+    public void close(){
+        queue.close();
     }
 }
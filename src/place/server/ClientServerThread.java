@@ -1,27 +1,34 @@
 package place.server;
 
-import place.PlaceTile;
+import place.network.BinaryRequestChannel;
+import place.network.ObjectRequestChannel;
 import place.network.PlaceRequest;
+import place.network.PlaceRequestCodec;
+import place.network.RequestChannel;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
 import java.net.Socket;
 import java.util.Date;
+import java.util.concurrent.ThreadFactory;
 import java.sql.Timestamp;
 
 /**
  * Class that is spawned for ever new client that logs in
  *
- * This class is a Thread responsible for receiving all messages from the client
+ * This class is a Runnable responsible for receiving all messages from the client. It runs on a thread from the
+ * PlaceServer's ThreadFactory, which is either a platform thread or a virtual thread
  */
-public class ClientServerThread extends Thread{
+public class ClientServerThread implements Runnable{
+    private Thread thread;
+    private ThreadFactory threadFactory; //also makes the thread of the client's writer
     private ClientConnection clientConnection;
     private Socket client;
     private NetworkServer networkServer;
     private boolean isActive;
-    private final int SLEEP_TIME = 500;
+    private PlaceRequest<?> loginRequest; //the LOGIN or LOGIN_RESUME the client started with
 
     /**
      * Constructor for the ClientServerThread
@@ -34,93 +41,104 @@ public class ClientServerThread extends Thread{
         isActive = true;
     }
 
+    /**
+     * Starts the client's read loop on a new thread
+     * @param threadFactory ThreadFactory making platform or virtual threads
+     */
+    public void start(ThreadFactory threadFactory){
+        this.threadFactory = threadFactory;
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Waits for the client's read loop to finish
+     * @throws InterruptedException
+     */
+    public void join() throws InterruptedException{
+        thread.join();
+    }
+
     /**
      * Method called when thread is started. It calls handleLogin, the enters the mainloop
      */
     public void run(){
         try(
-                ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());
+                RequestChannel channel = openChannel(client)
                 ){
 
-            handleLogin(client, out, in);
+            handleLogin(client, channel);
             if(isActive) {
-                sendBoardToClient(clientConnection);
+                clientConnection.startWriter(threadFactory);
+                networkServer.sendStateToClient(clientConnection, loginRequest);
             }
             PlaceRequest<?> req;
             while(isActive && !client.isClosed()){
-                //while the client is active, recieve tile_changed, update board, sleep 15
+                //while the client is active, recieve tile_changed, update board
 
                 //read in the most recent object!!!
-                req = (PlaceRequest<?>) in.readUnshared();
-
-                switch (req.getType()) {
-                    case CHANGE_TILE:
-                        // send tile change to board -> send tile change to all clients
-                        networkServer.updateBoard((PlaceTile) req.getData());
-                        sleep(SLEEP_TIME);
-                        break;
-                    case ERROR:
-                        // terminate client, remove client from NetworkServer
-                        terminateClient();
-                        break;
+                req = channel.read();
+
+                //tile changes are rate limited by the NetworkServer, so the next request is read straight away
+                if(!networkServer.handleRequest(clientConnection, req)){
+                    terminateClient();
                 }
-                sleep(SLEEP_TIME);
 
             }
             //terminateClient();
         }catch(EOFException e){
-            System.out.println("Client  disconnected! : " + clientConnection.getUsername());
+            System.out.println("Client  disconnected! : " + username());
             terminateClient();
         }catch(IOException e){
-            System.out.println("Client  disconnected! : " + clientConnection.getUsername());
-            terminateClient();
-        }catch(ClassNotFoundException e){
-            System.out.println("Client  disconnected! : " + clientConnection.getUsername());
+            System.out.println("Client  disconnected! : " + username());
             terminateClient();
-        }catch (InterruptedException e){
-            System.out.println("Client  disconnected! : " + clientConnection.getUsername());
+        }catch(RuntimeException e){
+            //a request that makes the server throw, or a Java serialization client sending the wrong type
+            System.out.println("Client  disconnected! : " + username() + " " + e);
             terminateClient();
         }
     }
 
     /**
-     * Handles the login process for a client
+     * Opens the RequestChannel for the wire format the client speaks. A client using Java serialization starts
+     * with the serialization stream header, and a client using the binary protocol starts with its LOGIN frame,
+     * which may not be longer than PlaceRequestCodec.MAX_LOGIN_FRAME. Java serialization is only spoken by the first
+     * clients, so its requests are written the way the first servers wrote them
      * @param client Socket
-     * @param out ObjectOutputStream
-     * @param in ObjectInputStream
+     * @return the RequestChannel
      * @throws IOException
      */
-    public void handleLogin(Socket client, ObjectOutputStream out, ObjectInputStream in) throws IOException{
-        try {
-            Date date = new Date();
-            long time = date.getTime();
-            Timestamp ts = new Timestamp(time);
-            System.out.println(ts);
-            // recieve login request:
-            PlaceRequest<?> req = (PlaceRequest<?>) in.readUnshared();
-
-            // PlaceRequest must be type LOGIN, and username doesnt exist
-            if(req.getType() == PlaceRequest.RequestType.LOGIN &&
-                    !usernameExists((String) req.getData())){
-
-                //create the object that stores all the clients stuff
-                clientConnection = new ClientConnection(client, (String) req.getData(), in, out);
-
-
-                //write to the client that login was successful
-                networkServer.writeLoginSuccessful(clientConnection);
-                networkServer.addNewClient(clientConnection);
-
-            }else{ //if not stop thread
-                networkServer.writeLoginUnsuccessful(out);
-                isActive = false;
-                //System.exit(0);
-                System.out.println("username exists");
-            }
+    private RequestChannel openChannel(Socket client) throws IOException{
+        InputStream in = new BufferedInputStream(client.getInputStream());
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if(first == PlaceRequestCodec.SERIALIZATION_FIRST_BYTE){
+            return new LegacyRequestChannel(new ObjectRequestChannel(in, client.getOutputStream()),
+                    networkServer.getDictionary());
+        }
+        return BinaryRequestChannel.forServer(in, client.getOutputStream());
+    }
 
-        }catch(ClassNotFoundException e){
-            //System.err.println(e.getMessage() + " @ handleLogin");
+    /**
+     * Handles the login process for a client
+     * @param client Socket
+     * @param channel RequestChannel
+     * @throws IOException
+     */
+    public void handleLogin(Socket client, RequestChannel channel) throws IOException{
+        Date date = new Date();
+        long time = date.getTime();
+        Timestamp ts = new Timestamp(time);
+        System.out.println(ts);
+        // recieve login request:
+        loginRequest = channel.read();
+
+        clientConnection = networkServer.login(client, channel, loginRequest);
+        if(clientConnection == null){ //if not stop thread
+            isActive = false;
+        }else if(channel instanceof BinaryRequestChannel){
+            ((BinaryRequestChannel) channel).setMaxFrame(networkServer.getMaxRequestFrame());
         }
     }
 
@@ -130,15 +148,24 @@ public class ClientServerThread extends Thread{
     public void terminateClient(){
         //close the socket, and its streams here, tell network server to remove them from the collections
         try {
-            networkServer.terminateClient(clientConnection);
-            clientConnection.getIn().close();
-            clientConnection.getOut().close();
-            clientConnection.getSocket().close();
+            if(clientConnection != null) {
+                networkServer.terminateClient(clientConnection);
+                clientConnection.getChannel().close();
+            }
+            client.close();
         }catch(IOException e){
             //System.err.println(e + " @ terminateClient");
         }
     }
 
+    /**
+     * The username of the client, for logging
+     * @return the username, or the client's address before it logged in
+     */
+    private String username(){
+        return clientConnection != null ? clientConnection.getUsername() : client.getInetAddress().toString();
+    }
+
     /**
      * This method handles the sending of a board to a client
      * @param clientConnection ClientConnection
@@ -0,0 +1,146 @@
+package place.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * One of the NioServer's event loop threads. It owns a Selector and every connection registered with it, and does
+ * all reading and writing for those connections without ever blocking on a socket. Other threads hand it work
+ * through execute(), which is how writes from a broadcast reach a connection
+ */
+public class EventLoop extends Thread {
+    private Selector selector;
+    private NetworkServer networkServer;
+    private Executor workers; //where the requests read by this loop are handled
+    private ConcurrentLinkedQueue<Runnable> tasks; //work handed over by other threads
+    private volatile boolean isActive;
+
+    /**
+     * Constructor for the EventLoop
+     * @param name the thread's name
+     * @param networkServer NetworkServer running the game
+     * @param workers the threads the requests read by this loop are handled on
+     * @throws IOException if the Selector cannot be opened
+     */
+    public EventLoop(String name, NetworkServer networkServer, Executor workers) throws IOException{
+        super(name);
+        this.selector = Selector.open();
+        this.networkServer = networkServer;
+        this.workers = workers;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.isActive = true;
+    }
+
+    /**
+     * Getter method for the NetworkServer
+     * @return
+     */
+    public NetworkServer getNetworkServer() {
+        return networkServer;
+    }
+
+    /**
+     * Getter method for the threads the requests read by this loop are handled on
+     * @return
+     */
+    public Executor getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Hands a newly accepted connection to this loop
+     * @param channel the non-blocking SocketChannel
+     */
+    public void register(SocketChannel channel){
+        execute(() -> {
+            try {
+                NioRequestChannel connection = new NioRequestChannel(channel, this);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            }catch(IOException e){
+                //System.err.println(e + " @ register");
+            }
+        });
+    }
+
+    /**
+     * Runs a task on this loop's thread, waking the loop if it is waiting in select()
+     * @param task the task
+     */
+    public void execute(Runnable task){
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Tells whether the calling thread is this loop's thread
+     * @return
+     */
+    public boolean inLoop(){
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * The main loop. It waits for sockets to become readable or writable and for tasks from other threads. A
+     * connection that throws is closed, and the loop goes on serving the others
+     */
+    public void run(){
+        while(isActive){
+            try {
+                selector.select();
+            }catch(IOException e){
+                //System.err.println(e + " @ run");
+                break;
+            }
+            Runnable task;
+            while((task = tasks.poll()) != null){
+                try {
+                    task.run();
+                }catch(RuntimeException e){
+                    //a task that fails must not stop the loop every other connection depends on
+                    System.out.println("Event loop task failed: " + e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioRequestChannel connection = (NioRequestChannel) key.attachment();
+                try {
+                    if(key.isValid() && key.isReadable()){
+                        connection.onReadable();
+                    }
+                    if(key.isValid() && key.isWritable()){
+                        connection.onWritable();
+                    }
+                }catch(RuntimeException e){
+                    //only the connection that failed is closed, never the loop
+                    System.out.println("Client  disconnected! : " + e);
+                    connection.closeNow();
+                }
+            }
+        }
+        for(SelectionKey key: selector.keys()){
+            ((NioRequestChannel) key.attachment()).closeNow();
+        }
+        try {
+            selector.close();
+        }catch(IOException e){
+            //System.err.println(e + " @ run");
+        }
+    }
+
+    /**
+     * Stops the loop, closing every connection it owns
+     */
+    public void close(){
+        isActive = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,178 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.Region;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Keeps track of which clients want to hear about which tiles. A client that never subscribed hears about the whole
+ * board. Once it subscribes to regions, it is added to the subscribers of every chunk its regions overlap, and only
+ * hears about changes in those chunks. Routing is by chunk, so a client may also hear about tiles just outside its
+ * regions. Not thread safe, the NetworkServer guards it with its own lock
+ */
+public class InterestIndex {
+    private int DIM;
+    private int chunksPerSide;
+    private HashSet<ClientConnection> everywhere; //clients that hear about every change
+    private ArrayList<HashSet<ClientConnection>> chunks; //the subscribers of each chunk, row major
+    private HashMap<ClientConnection, ArrayList<Region>> regions; //what each subscribed client asked for
+    private HashSet<Integer> subscribedChunks; //chunks with at least one subscriber
+
+    /**
+     * Constructor for the InterestIndex
+     * @param DIM the square dimension of the board
+     */
+    public InterestIndex(int DIM){
+        this.DIM = DIM;
+        this.chunksPerSide = (DIM + PlaceBoard.CHUNK_SIZE - 1) / PlaceBoard.CHUNK_SIZE;
+        this.everywhere = new HashSet<>();
+        this.chunks = new ArrayList<>();
+        for(int i = 0; i < chunksPerSide * chunksPerSide; i++){
+            chunks.add(new HashSet<>());
+        }
+        this.regions = new HashMap<>();
+        this.subscribedChunks = new HashSet<>();
+    }
+
+    /**
+     * Adds a client that hears about the whole board until it subscribes to a region
+     * @param cc the client
+     */
+    public void add(ClientConnection cc){
+        everywhere.add(cc);
+    }
+
+    /**
+     * Removes a client entirely
+     * @param cc the client
+     */
+    public void remove(ClientConnection cc){
+        everywhere.remove(cc);
+        setRegions(cc, null);
+    }
+
+    /**
+     * Subscribes a client to a region. The first subscription stops the client hearing about the whole board
+     * @param cc the client
+     * @param region the region
+     */
+    public void subscribe(ClientConnection cc, Region region){
+        if(!region.isValid(DIM)){
+            return;
+        }
+        everywhere.remove(cc);
+        ArrayList<Region> list = new ArrayList<>(regions.getOrDefault(cc, new ArrayList<>()));
+        if(!list.contains(region)){
+            list.add(region);
+        }
+        setRegions(cc, list);
+    }
+
+    /**
+     * Unsubscribes a client from a region it subscribed to. A client with no regions left hears about nothing
+     * @param cc the client
+     * @param region the region
+     */
+    public void unsubscribe(ClientConnection cc, Region region){
+        ArrayList<Region> list = regions.get(cc);
+        if(list != null){
+            list = new ArrayList<>(list);
+            list.remove(region);
+            setRegions(cc, list);
+        }
+    }
+
+    /**
+     * Replaces the regions of a client, moving it between chunks
+     * @param cc the client
+     * @param list the new regions, or null to forget the client
+     */
+    private void setRegions(ClientConnection cc, ArrayList<Region> list){
+        ArrayList<Region> old = list == null ? regions.remove(cc) : regions.put(cc, list);
+        if(old != null){
+            forEachChunk(old, chunk -> {
+                chunks.get(chunk).remove(cc);
+                if(chunks.get(chunk).isEmpty()){
+                    subscribedChunks.remove(chunk);
+                }
+            });
+        }
+        if(list != null){
+            forEachChunk(list, chunk -> {
+                chunks.get(chunk).add(cc);
+                subscribedChunks.add(chunk);
+            });
+        }
+    }
+
+    /**
+     * Runs an action for every chunk that any of the regions overlap
+     * @param list the regions
+     * @param action takes the chunk number
+     */
+    private void forEachChunk(ArrayList<Region> list, IntConsumer action){
+        for(Region region: list){
+            int top = Math.max(region.getTop(), 0) / PlaceBoard.CHUNK_SIZE;
+            int left = Math.max(region.getLeft(), 0) / PlaceBoard.CHUNK_SIZE;
+            int bottom = Math.min(region.getBottom(), DIM - 1) / PlaceBoard.CHUNK_SIZE;
+            int right = Math.min(region.getRight(), DIM - 1) / PlaceBoard.CHUNK_SIZE;
+            for(int r = top; r <= bottom; r++){
+                for(int c = left; c <= right; c++){
+                    action.accept(r * chunksPerSide + c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the chunk a tile is in
+     * @param row the row
+     * @param col the column
+     * @return the chunk number
+     */
+    public int chunkOf(int row, int col){
+        return (row / PlaceBoard.CHUNK_SIZE) * chunksPerSide + col / PlaceBoard.CHUNK_SIZE;
+    }
+
+    /**
+     * Gets the clients that hear about the whole board
+     * @return
+     */
+    public Set<ClientConnection> getEverywhere(){
+        return Collections.unmodifiableSet(everywhere);
+    }
+
+    /**
+     * Gets the clients subscribed to a chunk
+     * @param chunk the chunk number
+     * @return
+     */
+    public Set<ClientConnection> getSubscribers(int chunk){
+        return Collections.unmodifiableSet(chunks.get(chunk));
+    }
+
+    /**
+     * Tells whether any client subscribed to a chunk
+     * @param chunk the chunk number
+     * @return
+     */
+    public boolean isSubscribed(int chunk){
+        return subscribedChunks.contains(chunk);
+    }
+
+    /**
+     * Tells whether any client subscribed to a region at all
+     * @return
+     */
+    public boolean hasSubscribers(){
+        return !subscribedChunks.isEmpty();
+    }
+}
@@ -0,0 +1,94 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceTile;
+import place.TileBatch;
+import place.UserDictionary;
+import place.network.BoardCodec;
+import place.network.Frame;
+import place.network.ObjectRequestChannel;
+import place.network.PlaceRequest;
+import place.network.RequestChannel;
+
+import java.io.IOException;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The server's end of a connection that speaks Java serialization, which only the first clients do. Requests are
+ * written the way the first servers wrote them: the BOARD as a PlaceBoard, every change as a TILE_CHANGED whose tile
+ * names its owner, and nothing of a type those clients would fail to read. USERS and COOLDOWN are left out, and a
+ * TILE_BATCH goes out one TILE_CHANGED at a time. Those clients ignore a BOARD after login, so NetworkServer
+ * disconnects them when their queue overflows rather than resyncing them
+ */
+public class LegacyRequestChannel implements RequestChannel {
+    private ObjectRequestChannel channel;
+    private UserDictionary dictionary; //the server's, which names the owner ids of every change
+
+    /**
+     * Constructor for the LegacyRequestChannel
+     * @param channel the channel to the client
+     * @param dictionary the server's UserDictionary
+     */
+    public LegacyRequestChannel(ObjectRequestChannel channel, UserDictionary dictionary){
+        this.channel = channel;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public PlaceRequest<?> read() throws IOException{
+        return channel.read();
+    }
+
+    @Override
+    public void write(PlaceRequest<?> request) throws IOException{
+        switch(request.getType()){
+            case LOGIN_SUCCESS:
+            case ERROR:
+                channel.write(request);
+                break;
+            case BOARD:
+                PlaceBoard board = new PlaceBoard(BoardCodec.decode((byte[]) request.getData()));
+                channel.write(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board));
+                break;
+            case TILE_CHANGED:
+                channel.write(changed((PlaceTile) request.getData()));
+                break;
+            case TILE_BATCH:
+                TileBatch batch = (TileBatch) request.getData();
+                for(int i = 0; i < batch.size(); i++){
+                    channel.write(changed(batch.getTile(i)));
+                }
+                break;
+            default:
+                break; //the first clients have no such request
+        }
+    }
+
+    /**
+     * Makes the TILE_CHANGED of a change the way the first servers sent it, with the owner's name and no owner id
+     * or sequence number, which would mean nothing to the client
+     * @param t the change
+     * @return the request
+     */
+    private PlaceRequest<PlaceTile> changed(PlaceTile t){
+        PlaceTile named = new PlaceTile(t.getRow(), t.getCol(), -1, dictionary.getName(t.getOwnerId()), t.getColor(),
+                t.getTime());
+        return new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, named);
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException{
+        write(frame.getRequest());
+    }
+
+    @Override
+    public void flush() throws IOException{
+        channel.flush();
+    }
+
+    @Override
+    public void close() throws IOException{
+        channel.close();
+    }
+}
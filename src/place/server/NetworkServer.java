@@ -1,16 +1,32 @@
 package place.server;
 
+import place.ArrayTileStore;
+import place.ConcurrentPlaceBoard;
+import place.ConditionalTile;
 import place.PlaceBoard;
+import place.PlaceColor;
 import place.PlaceTile;
+import place.Region;
+import place.ResumePoint;
+import place.TileBatch;
+import place.UserDictionary;
+import place.network.Frame;
 import place.network.PlaceRequest;
+import place.network.PlaceRequestCodec;
+import place.network.RequestWriter;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * AUTHOR: BENJAMIN GLOGER
@@ -18,16 +34,298 @@ import java.util.HashSet;
  * This is the Network server class. It is a thread, that is responsible for sending messages to the clients
  */
 public class NetworkServer {
+    private static final int SNAPSHOT_DELTA = 4096; //the most changes sent after the cached BOARD before a new one
+    //users and interests are guarded by this, and are only changed while also holding the write lock of routes
     private HashMap<String, ClientConnection> users; //HashMap of all users
+    private InterestIndex interests; //which users hear about which tiles
     private PlaceBoard board;
+    private UserDictionary dictionary; //owner ids of every user that ever logged in
+    private UserJournal journal; //keeps the dictionary of a board that outlives the server, may be null
+    private int queueCapacity = 4096; //the most requests waiting for one client
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.RESYNC;
+    private volatile TileBatcher batcher; //null when every change is sent on its own
+    private int tick; //milliseconds changes are batched over, 0 when every change is sent on its own
+    private volatile TileEngine engine; //null when changes are applied on the thread that read them
+    private ReadWriteLock routes = new ReentrantReadWriteLock(); //lets shards read users and interests at once
+    private ReentrantLock[] stripes; //one per chunk, held while a change to it is applied and sent without an engine
+    private AtomicLong published = new AtomicLong(); //the highest sequence number sent to clients so far
+    private AtomicLong disorder = new AtomicLong(); //the furthest behind published a change was ever sent
+    private ConcurrentHashMap<Object, Long> unpublished = new ConcurrentHashMap<>(); //changes being applied or
+    //waiting in a batcher, by whatever carries them, with the lowest sequence number they can have
+    private int maxBatch = 256; //the most tiles applied from one CHANGE_TILES
+    private RateLimiter rateLimiter = new RateLimiter(1, 10); //how fast each user may change tiles
+    private ChangeHistory history; //the latest changes, for clients that reconnect
+    private SnapshotCache snapshots; //the BOARD frame shared by clients that log in at about the same time
+    private volatile WriteAheadLog log; //null when changes are not logged
+    private BoardCheckpoint checkpoint; //null when the board is not checkpointed
 
     /**
      * Constructor for NetworkServer
      * @param DIM
      */
     public NetworkServer(int DIM){
+        this(new ConcurrentPlaceBoard(new ArrayTileStore(DIM), new UserDictionary()), null);
+    }
+
+    /**
+     * Constructor for a NetworkServer running an existing board
+     * @param board the board, whose dictionary holds every owner id on it
+     * @param journal where new usernames are written, or null if the board does not outlive the server
+     */
+    public NetworkServer(PlaceBoard board, UserJournal journal){
         users = new HashMap<>();
-        board = new PlaceBoard(DIM);
+        interests = new InterestIndex(board.DIM);
+        //sequence numbers are board versions. Starting them from the clock means a client that saw an earlier
+        //run of the server can never mistake this run's changes for the ones it missed
+        board.skipVersionsTo(System.currentTimeMillis() << 16);
+        history = new ChangeHistory(65536, board.getVersion());
+        snapshots = new SnapshotCache(board);
+        stripes = new ReentrantLock[board.getChunksPerSide() * board.getChunksPerSide()];
+        for(int i = 0; i < stripes.length; i++){
+            stripes[i] = new ReentrantLock();
+        }
+        this.board = board;
+        this.dictionary = board.getDictionary();
+        this.journal = journal;
+    }
+
+    /**
+     * Setter method for how the OutboundQueues of clients that log in from now on behave. Clients speaking Java
+     * serialization are always disconnected on overflow
+     * @param capacity the most requests waiting for one client
+     * @param policy what to do with a client whose queue is full
+     */
+    public void setQueuePolicy(int capacity, OutboundQueue.OverflowPolicy policy){
+        this.queueCapacity = capacity;
+        this.overflowPolicy = policy;
+    }
+
+    /**
+     * Setter method for the most tiles applied from one CHANGE_TILES request. The rest of a bigger batch is ignored,
+     * so no client holds the board for longer than any other
+     * @param maxBatch the number of tiles
+     */
+    public void setMaxBatch(int maxBatch){
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Getter method for the largest frame a client that logged in may send, a CHANGE_TILES of maxBatch tiles
+     * @return the length of the largest frame body
+     */
+    public int getMaxRequestFrame(){
+        return PlaceRequestCodec.maxRequestFrame(maxBatch);
+    }
+
+    /**
+     * Getter method for the UserDictionary naming the owner ids of every change
+     * @return the dictionary
+     */
+    public UserDictionary getDictionary(){
+        return dictionary;
+    }
+
+    /**
+     * Setter method for how fast each user may change tiles
+     * @param rateLimiter the RateLimiter
+     */
+    public void setRateLimiter(RateLimiter rateLimiter){
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Setter method for how many of the latest changes are kept for clients that reconnect
+     * @param capacity the number of changes
+     */
+    public synchronized void setHistory(int capacity){
+        history = new ChangeHistory(capacity, board.getVersion());
+    }
+
+    /**
+     * Setter method for the log every tile change is appended to from now on. The board must already hold what
+     * the log replayed
+     * @param log the WriteAheadLog, or null to stop logging changes
+     */
+    public void setLog(WriteAheadLog log){
+        this.log = log;
+    }
+
+    /**
+     * Setter method for the checkpoint of the board, which is closed with the server, before the log it rolls
+     * @param checkpoint the BoardCheckpoint
+     */
+    public synchronized void setCheckpoint(BoardCheckpoint checkpoint){
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Setter method for the tick tile changes are batched over. With a tick, clients get one TILE_BATCH per tick
+     * instead of a TILE_CHANGED per change. A TileEngine set up afterwards batches over the same tick
+     * @param tick milliseconds, or 0 to send every change on its own
+     */
+    public synchronized void setTick(int tick){
+        this.tick = tick;
+        if(batcher != null){
+            batcher.close();
+            batcher = null;
+        }
+        if(tick > 0){
+            batcher = new TileBatcher(this, tick);
+            batcher.start();
+        }
+    }
+
+    /**
+     * Setter method for the number of shards tile changes are applied by. With shards, changes are handed to the
+     * ShardedTileEngine and applied and sent on its threads, each with its own chunks, instead of on the threads
+     * that read them
+     * @param shards the number of shards, or 0 to apply changes on the threads that read them
+     */
+    public synchronized void setShards(int shards){
+        setEngine(shards > 0 ? new ShardedTileEngine(this, board, shards, tick) : null);
+    }
+
+    /**
+     * Setter method for the size of the ring buffer tile changes are applied through. With a ring, the threads that
+     * read changes publish them into the RingTileEngine's ring, and one thread applies them all while others send
+     * them on
+     * @param size the number of slots, rounded up to a power of two, or 0 to apply changes on the threads that read
+     * them
+     */
+    public synchronized void setRing(int size){
+        setEngine(size > 0 ? new RingTileEngine(this, size, tick) : null);
+    }
+
+    /**
+     * Replaces the TileEngine, stopping the one before
+     * @param engine the new engine, or null to apply changes on the threads that read them
+     */
+    private void setEngine(TileEngine engine){
+        if(this.engine != null){
+            this.engine.close();
+        }
+        this.engine = engine;
+    }
+
+    /**
+     * This method gives a username its owner id. A user that is new to the server gets the next id,
+     * and every connected client is told about it before it can own any tile. The journal has the name on disk
+     * before the id is given out, so no change to the board can be logged with an id it lacks
+     * @param username
+     * @return the owner id
+     * @throws IOException if the journal could not keep the name, in which case no id is given out
+     */
+    public synchronized int ownerId(String username) throws IOException{
+        int id = dictionary.getId(username);
+        if(id < 0){
+            if(journal != null){
+                journal.append(username);
+            }
+            id = dictionary.intern(username);
+            UserDictionary.Delta delta = dictionary.getDelta(id);
+            Frame joined = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.USERS, delta));
+            users.forEach((String name, ClientConnection cc) -> cc.send(joined));
+        }
+        return id;
+    }
+
+    /**
+     * This method handles a client's LOGIN or LOGIN_RESUME request, for whichever server engine read it. If the
+     * request is a login and the username is free, the client is told the login succeeded and is added to the
+     * connected users, otherwise the client is told it failed
+     * @param socket the client's Socket
+     * @param channel the client's RequestWriter
+     * @param req the first request the client sent
+     * @return the new ClientConnection, or null if the login failed
+     */
+    public ClientConnection login(Socket socket, RequestWriter channel, PlaceRequest<?> req){
+        // PlaceRequest must be type LOGIN or LOGIN_RESUME, and username doesnt exist
+        String username = null;
+        if(req.getType() == PlaceRequest.RequestType.LOGIN){
+            username = (String) req.getData();
+        }else if(req.getType() == PlaceRequest.RequestType.LOGIN_RESUME){
+            username = ((ResumePoint) req.getData()).getUsername();
+        }
+        if(isValidUsername(username) && !usernameExists(username)){
+            int id;
+            try {
+                id = ownerId(username);
+            }catch(IOException e){
+                System.out.println("The username " + username + " could not be journaled: " + e);
+                writeLoginUnsuccessful(channel);
+                return null;
+            }
+
+            //create the object that stores all the clients stuff. The first clients only read the BOARD sent at
+            //login, so a resync would leave them showing a stale board: they are disconnected instead
+            OutboundQueue.OverflowPolicy policy = channel instanceof LegacyRequestChannel ?
+                    OutboundQueue.OverflowPolicy.DISCONNECT : overflowPolicy;
+            OutboundQueue queue = new OutboundQueue(queueCapacity, policy, this::boardFrame);
+            ClientConnection clientConnection = new ClientConnection(socket, username, id, channel, queue);
+
+            //write to the client that login was successful, then keep back every change from the moment the client
+            //is added until sendStateToClient has what it needs to catch up
+            writeLoginSuccessful(clientConnection);
+            queue.hold();
+            addNewClient(clientConnection);
+            return clientConnection;
+        }
+        writeLoginUnsuccessful(channel);
+        System.out.println("username exists");
+        return null;
+    }
+
+    /**
+     * This method handles a request from a client that is logged in, for whichever server engine read it. Tile
+     * changes over the client's rate limit are answered with a COOLDOWN instead of being applied, so the thread
+     * reading the client never waits
+     * @param clientConnection the client
+     * @param req the request
+     * @return false if the client asked to be disconnected
+     */
+    public boolean handleRequest(ClientConnection clientConnection, PlaceRequest<?> req){
+        switch (req.getType()) {
+            case CHANGE_TILE:
+                // send tile change to board -> send tile change to all clients
+                if(rateLimiter.acquire(clientConnection.getUsername(), 1) == 1){
+                    updateBoard(clientConnection, (PlaceTile) req.getData(), null);
+                }else {
+                    sendCooldown(clientConnection);
+                }
+                return true;
+            case CHANGE_TILE_IF:
+                // the same, but only while the tile still has the color the client expects
+                if(rateLimiter.acquire(clientConnection.getUsername(), 1) == 1){
+                    ConditionalTile conditional = (ConditionalTile) req.getData();
+                    updateBoard(clientConnection, conditional.getTile(), conditional.getExpected());
+                }else {
+                    sendCooldown(clientConnection);
+                }
+                return true;
+            case CHANGE_TILES:
+                // apply every tile allowed in one pass -> send the changes to all clients at once
+                TileBatch changes = (TileBatch) req.getData();
+                int wanted = Math.min(changes.size(), maxBatch);
+                int granted = rateLimiter.acquire(clientConnection.getUsername(), wanted);
+                if(granted > 0){
+                    updateBoard(clientConnection, changes, granted);
+                }
+                if(granted < wanted){
+                    sendCooldown(clientConnection);
+                }
+                return true;
+            case SUBSCRIBE:
+                subscribe(clientConnection, (Region) req.getData());
+                return true;
+            case UNSUBSCRIBE:
+                unsubscribe(clientConnection, (Region) req.getData());
+                return true;
+            case ERROR:
+                // terminate client, remove client from NetworkServer
+                return false;
+            default:
+                return true;
+        }
     }
 
     /**
@@ -35,61 +333,484 @@ public class NetworkServer {
      * @param clientConnection
      */
     public void writeLoginSuccessful(ClientConnection clientConnection){
-        try {
-            clientConnection.getOut().writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, "LOGIN_SUCCESS"));
-            System.out.println("New Client: " + clientConnection.getUsername() +" "+clientConnection.getSocket().getInetAddress()+ "!");
-        }catch(IOException e) {
-            //System.err.println(e + " @ writeLoginSuccessful");
-        }
+        clientConnection.send(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, "LOGIN_SUCCESS"));
+        System.out.println("New Client: " + clientConnection.getUsername() +" "+clientConnection.getSocket().getInetAddress()+ "!");
+    }
+
+    /**
+     * This method tells the client when it may change its next tile, after it went over its rate limit
+     * @param clientConnection
+     */
+    public void sendCooldown(ClientConnection clientConnection){
+        long next = rateLimiter.nextAllowed(clientConnection.getUsername());
+        clientConnection.send(new PlaceRequest<>(PlaceRequest.RequestType.COOLDOWN, next));
     }
 
     /**
      * This method writes to the client that their login was unsuccessful, and is called by ClientServerThread
-     * @param out
+     * @param channel
      */
-    public void writeLoginUnsuccessful(ObjectOutputStream out){
+    public void writeLoginUnsuccessful(RequestWriter channel){
         try {
-            out.writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "LOGIN_FAILURE"));
+            channel.write(new PlaceRequest<>(PlaceRequest.RequestType.ERROR, "LOGIN_FAILURE"));
+            channel.flush();
         }catch(IOException e) {
             //System.err.println(e + " @ writeLoginUnsuccessful");
         }
     }
 
     /**
-     * This method writes the Server's current PlaceBoard to the client
+     * This method writes a fresh BOARD to a client that is already logged in
      * @param clientConnection ClientConnection
-     * @throws IOException
      */
-    public void sendBoardToClient(ClientConnection clientConnection) throws IOException{
-        clientConnection.getOut().writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, board));
+    public void sendBoardToClient(ClientConnection clientConnection){
+        clientConnection.send(boardFrame());
+    }
+
+    /**
+     * This method brings a client that just logged in up to date, and then lets through the changes that were kept
+     * back since it was added. A client resuming from a change still in the history gets the usernames and changes
+     * it missed; any other client gets the whole board. The NetworkServer is only locked to read the history, never
+     * while the board is encoded or written, so other clients keep changing tiles during a login
+     * @param clientConnection the client
+     * @param login the request the client logged in with
+     */
+    public void sendStateToClient(ClientConnection clientConnection, PlaceRequest<?> login){
+        ArrayList<Frame> state = new ArrayList<>();
+        long version = -1;
+        if(login.getType() == PlaceRequest.RequestType.LOGIN_RESUME){
+            ResumePoint resume = (ResumePoint) login.getData();
+            //a change sent out of order may not have reached the client even though a later one did, and a change
+            //recorded but not sent yet is kept back as covered by the version the client catches up to
+            long sequence = Math.min(resume.getSequence() - disorder.get(), watermark() - 1);
+            version = catchUp(sequence, resume.getUserCount(), Integer.MAX_VALUE, state);
+            if(version >= 0){
+                System.out.println(clientConnection.getUsername() + " resumed at " + resume.getSequence());
+            }
+        }
+        if(version < 0){
+            version = boardState(state);
+        }
+        clientConnection.getQueue().release(state, version);
+    }
+
+    /**
+     * This method makes the frames that bring a client from a board version to the latest one: the usernames it
+     * does not know yet, and the changes it missed
+     * @param sequence the last change the client has
+     * @param userCount the number of usernames the client knows
+     * @param maxChanges the most changes worth sending
+     * @param state the list the frames are added to
+     * @return the version the frames bring the client to, or -1 if the history no longer has the changes or there
+     * are too many of them
+     */
+    private synchronized long catchUp(long sequence, int userCount, int maxChanges, List<Frame> state){
+        TileBatch missed = history.since(sequence);
+        if(missed == null || missed.size() > maxChanges || userCount > dictionary.size()){
+            return -1;
+        }
+        if(userCount < dictionary.size()){
+            state.add(new Frame(new PlaceRequest<>(PlaceRequest.RequestType.USERS, dictionary.getDelta(userCount))));
+        }
+        if(missed.size() > 0){
+            state.add(new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_BATCH, missed)));
+        }
+        return history.getLatest();
+    }
+
+    /**
+     * This method makes the frames that give a client the whole board. Clients that log in at about the same time
+     * share one encoded BOARD: while the cached one is at most SNAPSHOT_DELTA changes old, a client gets it followed
+     * by the changes since, from the history, and only after that is the board encoded again
+     * @param state the list the frames are added to
+     * @return the version the frames bring the client to
+     */
+    private long boardState(List<Frame> state){
+        synchronized (snapshots) {
+            Frame frame = snapshots.getFrame();
+            if(frame != null){
+                state.add(frame);
+                long version = catchUp(snapshots.getVersion(), snapshots.getUserCount(), SNAPSHOT_DELTA, state);
+                if(version >= 0){
+                    return version;
+                }
+                state.clear();
+            }
+            //the client was added before this snapshot, so any username added since is in what was kept back
+            state.add(snapshots.refresh());
+            return snapshots.getVersion();
+        }
+    }
+
+    /**
+     * This method makes a BOARD frame of the board as it is now, re-encoding only the chunks that changed since the
+     * cached one. It is what a client that fell too far behind is resynced with
+     * @return the BOARD frame
+     */
+    private Frame boardFrame(){
+        return snapshots.refresh();
     }
 
     /**
-     * This method updates the board, after having been called by ClientServerThread after receiving a TILE_CHANGE
+     * This method updates the board, after having been called by ClientServerThread after receiving a TILE_CHANGE.
+     * The tile is owned by the client that sent it, whatever owner the tile claims. Without a TileEngine, the
+     * change is applied and sent on while holding the stripe of its chunk, so changes to different chunks go
+     * through at once, and changes to one tile reach clients in the order they were applied. A change that would
+     * leave the tile as it is, or whose tile no longer has the expected color, is dropped without being sent
+     * @param clientConnection the client that changed the tile
      * @param t
+     * @param expected the color the tile must have when the change is applied, or null for any color
      */
-    public synchronized void updateBoard(PlaceTile t){
-        if(board.isValid(t)){
-            t.setTime(System.currentTimeMillis());
-            board.setTile(t);
-            System.out.println("A tile was changed!");
-            sendTileChangeToAllClients(t);
+    public void updateBoard(ClientConnection clientConnection, PlaceTile t, PlaceColor expected){
+        TileEngine engine = this.engine;
+        if(engine != null){
+            engine.submit(clientConnection, t, expected);
+            return;
+        }
+        ReentrantLock stripe = stripes[stripeOf(t.getRow(), t.getCol())];
+        stripe.lock();
+        try {
+            applyTile(clientConnection, t, expected, batcher);
+        }finally {
+            stripe.unlock();
         }
     }
 
     /**
-     * This method sends a TILE_CHANGED request to all clients after the board has been updated
+     * Gets the stripe of the chunk a tile falls in
+     * @param row row
+     * @param col column
+     * @return the index of the stripe
+     */
+    private int stripeOf(int row, int col){
+        if(row < 0 || col < 0 || row >= board.DIM || col >= board.DIM){
+            return 0; //the tile is only found to be off the board
+        }
+        return board.getChunk(row, col);
+    }
+
+    /**
+     * This method applies a tile change and sends it on, or adds it to a batcher, once the log has it on disk if the
+     * log's durability asks for that. The NetworkServer does not lock
+     * anything for it but the board and the history, so the caller must be the only one changing the tile: either
+     * it holds the stripe of the tile's chunk, or it is the tile's shard or the ring's applier
+     * @param clientConnection the client that changed the tile
+     * @param t the tile
+     * @param expected the color the tile must have, or null for any color
+     * @param batcher the batcher the change joins, or null to send it on its own
+     * @return false if the tile was not on the board, or was left as it was
+     */
+    boolean applyTile(ClientConnection clientConnection, PlaceTile t, PlaceColor expected, TileBatcher batcher){
+        holdUnpublished(t, board.getVersion() + 1);
+        try {
+            if(!recordTile(clientConnection, t, expected) || !awaitLogged()){
+                return false;
+            }
+            if(batcher != null){
+                batcher.add(t);
+            }else {
+                sendTileChangeToAllClients(t);
+            }
+            return true;
+        }finally {
+            releaseUnpublished(t);
+        }
+    }
+
+    /**
+     * This method updates the board with many tiles at once, after a CHANGE_TILES. Only the first count tiles are
+     * applied, and the ones that are on the board go out to all clients as one TILE_BATCH, or join the tick's
+     * batch when changes are batched per tick
+     * @param clientConnection the client that changed the tiles
+     * @param changes the rows, columns and colors of the tiles
+     * @param count the number of tiles the client is allowed, at most maxBatch
+     */
+    public void updateBoard(ClientConnection clientConnection, TileBatch changes, int count){
+        count = Math.min(count, changes.size());
+        if(count < changes.size()){
+            System.out.println(clientConnection.getUsername() + " sent " + changes.size() + " tiles, only " + count + " were used");
+        }
+        TileEngine engine = this.engine;
+        if(engine != null){
+            engine.submit(clientConnection, changes, count);
+            return;
+        }
+        //stripes are always taken in chunk order, so two batches sharing chunks can never deadlock
+        BitSet chunks = new BitSet(stripes.length);
+        for(int i = 0; i < count; i++){
+            chunks.set(stripeOf(changes.getRow(i), changes.getCol(i)));
+        }
+        for(int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)){
+            stripes[i].lock();
+        }
+        try {
+            applyTiles(clientConnection, changes, count, batcher);
+        }finally {
+            for(int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)){
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * This method changes a tile on the board and in the history, without sending it on. The tile gets its owner,
+     * time and sequence number, and is appended to the log. A change that would leave the tile with the color and
+     * owner it has, or whose tile no longer has the expected color, is not made. As with applyTile, the caller must
+     * be the only one changing the tile, and must call awaitLogged before sending it on
+     * @param clientConnection the client that changed the tile
+     * @param t the tile
+     * @param expected the color the tile must have, or null for any color
+     * @return false if the tile was not on the board, or was left as it was
+     */
+    boolean recordTile(ClientConnection clientConnection, PlaceTile t, PlaceColor expected){
+        WriteAheadLog log = this.log;
+        if(!board.isValid(t) || (log != null && !log.isWorking())){
+            return false; //once the log failed, no change is made that would be lost on a restart
+        }
+        t.setOwnerId(clientConnection.getOwnerId());
+        t.setTime(System.currentTimeMillis());
+        long sequence = board.setTileIf(t, expected);
+        if(sequence == 0){
+            return false;
+        }
+        t.setSequence(sequence);
+        if(log != null){
+            try {
+                log.append(t);
+            }catch(IllegalStateException e){
+                return false; //the log failed since it was checked, and the change is never sent
+            }
+        }
+        history.add(t);
+        return true;
+    }
+
+    /**
+     * This method waits until every change appended to the log so far is on disk, when the log's durability asks
+     * for changes to be on disk before anyone sees them. Changes other threads appended meanwhile go to disk in the
+     * same write
+     * @return false if the log failed, and the changes must not be sent
+     */
+    boolean awaitLogged(){
+        WriteAheadLog log = this.log;
+        if(log != null){
+            try {
+                log.awaitDurable();
+            }catch(IllegalStateException e){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method applies the first count tiles of a CHANGE_TILES and sends the ones that changed the board on as
+     * one TILE_BATCH, or adds them to a batcher. Tiles off the board, and tiles that already had the color and
+     * owner, are skipped. As with applyTile, the caller must be the only one changing the tiles
+     * @param clientConnection the client that changed the tiles
+     * @param changes the rows, columns and colors of the tiles
+     * @param count the number of tiles to apply
+     * @param batcher the batcher the changes join, or null to send them at once
+     * @return the number of tiles changed
+     */
+    int applyTiles(ClientConnection clientConnection, TileBatch changes, int count, TileBatcher batcher){
+        WriteAheadLog log = this.log;
+        TileBatch applied = new TileBatch(count);
+        holdUnpublished(applied, board.getVersion() + 1);
+        try {
+            ArrayList<PlaceTile> batched = new ArrayList<>(); //the changes for the batcher, once they are logged
+            long time = System.currentTimeMillis();
+            if(log != null && !log.isWorking()){
+                return 0; //as in recordTile
+            }
+            for(int i = 0; i < count; i++){
+                PlaceTile t = new PlaceTile(changes.getRow(i), changes.getCol(i), clientConnection.getOwnerId(),
+                        clientConnection.getUsername(), PlaceColor.fromNumber(changes.getColor(i)), time);
+                if(board.isValid(t)){
+                    long sequence = board.setTileIf(t, null);
+                    if(sequence == 0){
+                        continue; //the tile already looks like this
+                    }
+                    t.setSequence(sequence);
+                    if(log != null){
+                        try {
+                            log.append(t);
+                        }catch(IllegalStateException e){
+                            break; //the log failed, and awaitLogged keeps the changes so far from being sent
+                        }
+                    }
+                    history.add(t);
+                    if(applied.getFirstSequence() == 0){
+                        applied.setFirstSequence(t.getSequence());
+                    }
+                    applied.setSequence(t.getSequence());
+                    if(batcher != null){
+                        batched.add(t);
+                    }else {
+                        applied.add(t);
+                    }
+                }
+            }
+            int changed = applied.size() + batched.size();
+            if(changed > 0 && !awaitLogged()){
+                return 0;
+            }
+            for(PlaceTile t : batched){
+                batcher.add(t);
+            }
+            if(applied.size() > 0){
+                sendTileBatchToAllClients(applied);
+            }
+            return changed;
+        }finally {
+            releaseUnpublished(applied);
+        }
+    }
+
+    /**
+     * This method sends a TILE_CHANGED request to all clients after the board has been updated. It only queues the
+     * request for each client, so a client that is slow to read holds up nobody else. The request is encoded once,
+     * by the first binary client's writer to reach it, and every other binary client writes the same bytes
      * @param t
      */
-    public synchronized void sendTileChangeToAllClients(PlaceTile t){
-        users.forEach((String username, ClientConnection cc) -> {
-                try {
-                    cc.getOut().writeUnshared(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, t));
-                    cc.getOut().flush();
-                }catch(IOException e){
-                    //System.err.println(e + " @ sendTileChangeToAllClients "+ username);
+    public void sendTileChangeToAllClients(PlaceTile t){
+        Frame changed = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, t));
+        routes.readLock().lock();
+        try {
+            published(t.getSequence(), t.getSequence());
+            for(ClientConnection cc: interests.getEverywhere()){
+                cc.send(changed);
+            }
+            for(ClientConnection cc: interests.getSubscribers(interests.chunkOf(t.getRow(), t.getCol()))){
+                cc.send(changed);
+            }
+        }finally {
+            routes.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method sends the changes of one tick to all clients, as a single TILE_BATCH encoded once
+     * @param batch the changes
+     */
+    public void sendTileBatchToAllClients(TileBatch batch){
+        routes.readLock().lock();
+        try {
+            published(batch.getFirstSequence(), batch.getSequence());
+            sendTileBatch(batch);
+        }finally {
+            routes.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method notes that changes were sent to clients, and how far out of order. Once a client has a change, it
+     * has every change sent before it, so a change it is missing was sent later; disorder is the most sequence
+     * numbers any change was ever sent behind the highest one sent before it. It stays 0 while changes are applied
+     * one at a time, and grows when stripes or shards apply them on several threads at once
+     * @param first the sequence number of the first change sent
+     * @param last the sequence number of the last change sent
+     */
+    private void published(long first, long last){
+        long before = published.getAndAccumulate(last, Math::max);
+        if(first > 0 && first <= before){
+            disorder.accumulateAndGet(before - first + 1, Math::max);
+        }
+    }
+
+    /**
+     * This method notes that changes are on their way to clients, before they are recorded, so a client resuming
+     * meanwhile catches up from before them. Whatever carries the changes is the key: the tile, the batch of a
+     * CHANGE_TILES, or a batcher's batch, which is held before the change it takes over is released. The ring of a
+     * RingTileEngine needs none of this, as it sends changes in sequence order
+     * @param key what carries the changes
+     * @param floor the lowest sequence number they can have, more than the board version before they are recorded
+     */
+    void holdUnpublished(Object key, long floor){
+        unpublished.merge(key, floor, Math::min);
+    }
+
+    /**
+     * This method notes that changes held by holdUnpublished were sent to clients, or were not made at all
+     * @param key what carries the changes
+     */
+    void releaseUnpublished(Object key){
+        unpublished.remove(key);
+    }
+
+    /**
+     * This method finds the lowest sequence number a change that was recorded but not yet sent can have
+     * @return the sequence number, or Long.MAX_VALUE if no change is on its way
+     */
+    private long watermark(){
+        long watermark = Long.MAX_VALUE;
+        for(long floor : unpublished.values()){
+            watermark = Math.min(watermark, floor);
+        }
+        return watermark;
+    }
+
+    /**
+     * This method sends a TILE_BATCH to every client that hears about any of its tiles
+     * @param batch the changes
+     */
+    private void sendTileBatch(TileBatch batch){
+        if(!interests.getEverywhere().isEmpty()){
+            Frame changed = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_BATCH, batch));
+            for(ClientConnection cc: interests.getEverywhere()){
+                cc.send(changed);
+            }
+        }
+        if(interests.hasSubscribers()){
+            //clients subscribed to regions get a batch for each of their chunks, each encoded once
+            HashMap<Integer, TileBatch> byChunk = new HashMap<>();
+            for(int i = 0; i < batch.size(); i++){
+                int chunk = interests.chunkOf(batch.getRow(i), batch.getCol(i));
+                if(interests.isSubscribed(chunk)){
+                    TileBatch changes = byChunk.computeIfAbsent(chunk, c -> new TileBatch());
+                    changes.add(batch.getRow(i), batch.getCol(i), batch.getColor(i), batch.getOwner(i), batch.getTime(i));
+                    changes.setFirstSequence(batch.getFirstSequence());
+                    changes.setSequence(batch.getSequence());
                 }
-        });
+            }
+            byChunk.forEach((Integer chunk, TileBatch changes) -> {
+                Frame changed = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_BATCH, changes));
+                for(ClientConnection cc: interests.getSubscribers(chunk)){
+                    cc.send(changed);
+                }
+            });
+        }
+    }
+
+    /**
+     * This method subscribes a client to a region. From its first subscription on, the client only hears about
+     * tiles changing in the chunks its regions overlap
+     * @param clientConnection the client
+     * @param region the region
+     */
+    public synchronized void subscribe(ClientConnection clientConnection, Region region){
+        if(users.get(clientConnection.getUsername()) == clientConnection){
+            routes.writeLock().lock();
+            try {
+                interests.subscribe(clientConnection, region);
+            }finally {
+                routes.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * This method unsubscribes a client from a region it subscribed to
+     * @param clientConnection the client
+     * @param region the region
+     */
+    public synchronized void unsubscribe(ClientConnection clientConnection, Region region){
+        routes.writeLock().lock();
+        try {
+            interests.unsubscribe(clientConnection, region);
+        }finally {
+            routes.writeLock().unlock();
+        }
     }
 
     /**
@@ -97,7 +818,15 @@ public class NetworkServer {
      * @param clientConnection
      */
     public synchronized void terminateClient(ClientConnection clientConnection){
-        users.remove(clientConnection.getUsername());
+        routes.writeLock().lock();
+        try {
+            if(users.remove(clientConnection.getUsername(), clientConnection)){
+                interests.remove(clientConnection);
+            }
+        }finally {
+            routes.writeLock().unlock();
+        }
+        clientConnection.close();
     }
 
     /**
@@ -105,7 +834,13 @@ public class NetworkServer {
      * @param clientConnection
      */
     public synchronized void addNewClient(ClientConnection clientConnection){
-        users.put(clientConnection.getUsername(), clientConnection);
+        routes.writeLock().lock();
+        try {
+            users.put(clientConnection.getUsername(), clientConnection);
+            interests.add(clientConnection);
+        }finally {
+            routes.writeLock().unlock();
+        }
     }
 
     /**
@@ -116,4 +851,60 @@ public class NetworkServer {
     public synchronized boolean usernameExists(String s){
         return users.containsKey(s);
     }
+
+    /**
+     * This method checks that a username can be given an owner id. The UserJournal keeps one username per line,
+     * so a name that holds a line break would give every later user the wrong owner id after a restart
+     * @param s username
+     * @return false if there is no username or it holds a line break
+     */
+    public static boolean isValidUsername(String s){
+        return s != null && s.indexOf('\n') < 0 && s.indexOf('\r') < 0;
+    }
+
+    /**
+     * This method describes the OutboundQueue of every connected client
+     * @return one line per client: username, requests waiting, most ever waiting, and times the queue was full
+     */
+    public synchronized String queueDepths(){
+        StringBuilder sb = new StringBuilder();
+        users.forEach((String username, ClientConnection cc) -> {
+            OutboundQueue queue = cc.getQueue();
+            sb.append(username).append(" depth=").append(queue.getDepth()).append(" max=").append(queue.getMaxDepth())
+                    .append(" overflows=").append(queue.getOverflows()).append("\n");
+        });
+        if(engine != null){
+            sb.append(engine.describe()).append("\n");
+        }
+        if(log != null){
+            sb.append(log.describe()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This method closes the board's storage, the change log and the user journal when the server shuts down
+     */
+    public synchronized void close(){
+        if(batcher != null){
+            batcher.close();
+        }
+        if(engine != null){
+            engine.close();
+        }
+        if(checkpoint != null){
+            checkpoint.close();
+        }
+        if(log != null){
+            log.close();
+        }
+        try {
+            board.getStore().close();
+        }catch(IOException e){
+            System.err.println(e + " @ close");
+        }
+        if(journal != null){
+            journal.close();
+        }
+    }
 }
@@ -0,0 +1,406 @@
+package place.server;
+
+import place.network.Frame;
+import place.network.PlaceRequest;
+import place.network.PlaceRequestCodec;
+import place.network.RequestWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * A client connection served by an EventLoop. Incoming bytes are collected until they hold whole binary frames,
+ * which are handed to the NetworkServer on one of the loop's worker threads, one request at a time and in the order
+ * they arrived. While MAX_INBOX requests are waiting to be handled the connection is not read. Once the client has
+ * logged in, the loop takes requests from its ClientConnection's OutboundQueue and writes them out as the socket
+ * accepts them. A broadcast frame is a read only view of bytes shared with every other client, and several frames go
+ * out in one gathering write. A frame that is costly to encode, the BOARD of a resync or a big frame to compress, is
+ * encoded by a worker, and the loop only writes the bytes it made.
+ *
+ * Only the binary protocol is spoken here; a client sending a Java serialization stream is disconnected. So is a
+ * client sending a frame longer than PlaceRequestCodec.MAX_LOGIN_FRAME before it logged in, or longer than the
+ * NetworkServer's largest request after, or a compressed frame.
+ */
+public class NioRequestChannel implements RequestWriter {
+    private static final int INITIAL_BUFFER = 4096;
+    private static final int GATHER = 64; //the most frames handed to one gathering write
+    private static final int MAX_INBOX = 64; //the most requests decoded but not yet handled
+
+    private SocketChannel channel;
+    private EventLoop loop;
+    private SelectionKey key;
+    private NetworkServer networkServer;
+    private Executor workers;
+    private volatile ClientConnection clientConnection; //null until the client logs in, set under this
+    private ByteBuffer in; //bytes read but not yet decoded, in write mode
+    private ArrayDeque<PlaceRequest<?>> inbox; //requests decoded but not yet handled, guarded by itself
+    private boolean isHandling; //a worker is handling the inbox, guarded by inbox
+    private boolean isLoginRead; //the first frame was decoded
+    private boolean isReadPaused; //the inbox is full
+    private boolean isWriting; //the socket did not take everything, so the loop waits until it is writable
+    private boolean isPreparing; //a worker is encoding the next frame, so nothing after it is taken from the queue
+    private ArrayDeque<ByteBuffer> pending; //encoded frames waiting for the socket, guarded by this
+    private ByteBuffer[] gather = new ByteBuffer[0]; //reused array for gathering writes
+    private int flags; //the LOGIN flags the client sent
+    private volatile boolean closeWhenWritten;
+    private boolean isClosed;
+
+    /**
+     * Constructor for the NioRequestChannel
+     * @param channel the non-blocking SocketChannel
+     * @param loop the EventLoop that owns the connection
+     */
+    public NioRequestChannel(SocketChannel channel, EventLoop loop){
+        this.channel = channel;
+        this.loop = loop;
+        this.networkServer = loop.getNetworkServer();
+        this.workers = loop.getWorkers();
+        this.in = ByteBuffer.allocate(INITIAL_BUFFER);
+        this.inbox = new ArrayDeque<>();
+        this.pending = new ArrayDeque<>();
+    }
+
+    /**
+     * Setter method for the SelectionKey, called once the channel is registered
+     * @param key
+     */
+    public void setKey(SelectionKey key){
+        this.key = key;
+    }
+
+    /**
+     * Queues a request to be written by the event loop, ahead of anything in the OutboundQueue. Only used before
+     * the client has logged in
+     * @param request the request
+     */
+    @Override
+    public void write(PlaceRequest<?> request){
+        ByteBuffer buf = frame(request);
+        boolean wasEmpty;
+        synchronized (this) {
+            if(isClosed){
+                return;
+            }
+            wasEmpty = pending.isEmpty();
+            pending.add(buf);
+        }
+        if(wasEmpty){
+            loop.execute(this::onWritable);
+        }
+    }
+
+    /**
+     * Encodes a request as a frame ready to be written, compressed if the client asked for it
+     * @param request the request
+     * @return the frame, with its length
+     */
+    private ByteBuffer frame(PlaceRequest<?> request){
+        return ByteBuffer.wrap(PlaceRequestCodec.encodeFrame(request, flags));
+    }
+
+    /**
+     * Writes are sent as soon as the socket takes them, so there is nothing to flush
+     */
+    @Override
+    public void flush(){
+    }
+
+    /**
+     * Closes the connection from any thread
+     */
+    @Override
+    public void close(){
+        loop.execute(this::closeNow);
+    }
+
+    /**
+     * Called by the event loop when the socket has bytes to read. Every whole frame is decoded and handed to a
+     * worker, until the inbox is full
+     */
+    public void onReadable(){
+        try {
+            if(channel.read(in) < 0){
+                closeNow();
+                return;
+            }
+            in.flip();
+            while(in.remaining() >= 4 && !isClosed && !isReadPaused){
+                if(!isLoginRead && in.get(in.position()) == (byte) PlaceRequestCodec.SERIALIZATION_FIRST_BYTE){
+                    System.out.println("Java serialization client refused, use -io blocking to serve it");
+                    closeNow();
+                    return;
+                }
+                int length = in.getInt(in.position());
+                //checked before the buffer grows to hold the frame, so a client cannot make the server allocate it
+                int maxFrame = !isLoginRead ? PlaceRequestCodec.MAX_LOGIN_FRAME : networkServer.getMaxRequestFrame();
+                if(length <= 0 || length > maxFrame){
+                    throw new IOException("Bad frame length " + length);
+                }
+                if(in.remaining() < 4 + length){
+                    if(in.capacity() < 4 + length){
+                        in = ByteBuffer.allocate(4 + length).put(in);
+                        return;
+                    }
+                    break;
+                }
+                int offset = in.arrayOffset() + in.position() + 4;
+                if(!isLoginRead){
+                    flags = PlaceRequestCodec.loginFlags(in.array(), offset, length);
+                    isLoginRead = true;
+                }
+                PlaceRequest<?> req = PlaceRequestCodec.decode(in.array(), offset, length, 0);
+                in.position(in.position() + 4 + length);
+                if(!deliver(req)){
+                    isReadPaused = true;
+                    setInterest();
+                }
+            }
+            in.compact();
+        }catch(IOException e){
+            System.out.println("Client  disconnected! : " + username());
+            closeNow();
+        }
+    }
+
+    /**
+     * Adds a request to the inbox, starting a worker on it if none is handling it
+     * @param req the request
+     * @return false if the inbox is full
+     */
+    private boolean deliver(PlaceRequest<?> req){
+        synchronized (inbox) {
+            inbox.add(req);
+            if(!isHandling){
+                isHandling = true;
+                workers.execute(this::handleInbox);
+            }
+            return inbox.size() < MAX_INBOX;
+        }
+    }
+
+    /**
+     * Handles the requests in the inbox in order, on a worker thread, until it is empty. The loop is asked to read
+     * again once the inbox has room
+     */
+    private void handleInbox(){
+        while(true){
+            PlaceRequest<?> req;
+            synchronized (inbox) {
+                if(inbox.size() == MAX_INBOX){
+                    loop.execute(this::resumeReading);
+                }
+                req = inbox.poll();
+                if(req == null){
+                    isHandling = false;
+                    return;
+                }
+            }
+            try {
+                handle(req);
+            }catch(RuntimeException e){
+                //a request that makes the server throw closes its own connection, and the worker goes on
+                System.out.println("Client  disconnected! : " + username() + " " + e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Reads the connection again after the inbox was full, starting with the frames already in the buffer. Must be
+     * called on the event loop's thread
+     */
+    private void resumeReading(){
+        if(isClosed || !isReadPaused){
+            return;
+        }
+        isReadPaused = false;
+        setInterest();
+        onReadable();
+    }
+
+    /**
+     * Passes a request to the NetworkServer, on a worker thread
+     * @param req the request
+     */
+    private void handle(PlaceRequest<?> req){
+        if(closeWhenWritten){
+            return; //the rest of what a client whose login failed sent
+        }
+        ClientConnection cc = clientConnection;
+        if(cc == null){
+            cc = networkServer.login(channel.socket(), this, req);
+            if(cc == null){
+                closeWhenWritten = true;
+                loop.execute(this::onWritable); //closes once the LOGIN_FAILURE is written
+                return;
+            }
+            synchronized (this) {
+                if(!isClosed){
+                    clientConnection = cc;
+                }
+            }
+            if(clientConnection == null){
+                networkServer.terminateClient(cc); //the connection closed while the client was logging in
+                return;
+            }
+            cc.getQueue().setListener(() -> loop.execute(this::onWritable));
+            networkServer.sendStateToClient(cc, req);
+        }else if(!networkServer.handleRequest(cc, req)){
+            close();
+        }
+    }
+
+    /**
+     * Sets what the event loop waits for on the socket. Must be called on the event loop's thread
+     */
+    private void setInterest(){
+        if(key.isValid()){
+            key.interestOps((isReadPaused ? 0 : SelectionKey.OP_READ) | (isWriting ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /**
+     * Called by the event loop when the socket can take more bytes, or when new requests were queued
+     */
+    public void onWritable(){
+        if(isClosed){
+            return;
+        }
+        if(clientConnection != null && clientConnection.getQueue().isClosed()){
+            closeNow();
+            return;
+        }
+        try {
+            synchronized (this) {
+                while(true){
+                    //gather up to GATHER frames and hand them to the socket in one write
+                    Frame frame;
+                    while(pending.size() < GATHER && clientConnection != null && !isPreparing
+                            && (frame = clientConnection.getQueue().poll()) != null){
+                        if(OutboundQueue.isResync(frame) || frame.isCostly(isCompressed())){
+                            prepare(frame);
+                            break;
+                        }
+                        pending.add(frame.buffer(isCompressed()));
+                    }
+                    if(pending.isEmpty()){
+                        break;
+                    }
+                    int count = pending.size();
+                    gather = pending.toArray(gather);
+                    channel.write(gather, 0, count);
+                    Arrays.fill(gather, 0, count, null);
+                    while(!pending.isEmpty() && !pending.peek().hasRemaining()){
+                        pending.poll();
+                    }
+                    if(!pending.isEmpty()){
+                        isWriting = true;
+                        setInterest();
+                        return;
+                    }
+                }
+            }
+            isWriting = false;
+            setInterest();
+            if(closeWhenWritten){
+                closeNow();
+            }
+        }catch(IOException e){
+            System.out.println("Client  disconnected! : " + username());
+            closeNow();
+        }
+    }
+
+    /**
+     * Has a worker make the bytes of a frame that may take long to encode, such as the BOARD of a resync or a big
+     * frame to compress, so the loop goes on serving its other connections meanwhile. Nothing more is taken from
+     * the client's queue until the bytes are queued behind what is already waiting. Must be called on the event
+     * loop's thread
+     * @param frame the frame, or the resync standing in for a BOARD
+     */
+    private void prepare(Frame frame){
+        isPreparing = true;
+        OutboundQueue queue = clientConnection.getQueue();
+        boolean compressed = isCompressed();
+        workers.execute(() -> {
+            ByteBuffer buf = null;
+            try {
+                buf = (OutboundQueue.isResync(frame) ? queue.makeResync() : frame).buffer(compressed);
+            }catch(RuntimeException e){
+                System.out.println("Client  disconnected! : " + username() + " " + e);
+                close();
+            }
+            ByteBuffer prepared = buf;
+            loop.execute(() -> prepared(prepared));
+        });
+    }
+
+    /**
+     * Queues the bytes a worker made for the next frame and goes on writing. Must be called on the event loop's
+     * thread
+     * @param buf the frame, or null if it could not be made
+     */
+    private void prepared(ByteBuffer buf){
+        isPreparing = false;
+        if(buf == null){
+            return;
+        }
+        synchronized (this) {
+            if(isClosed){
+                return;
+            }
+            pending.add(buf);
+        }
+        onWritable();
+    }
+
+    /**
+     * Tells whether the client asked for compressed frames
+     * @return
+     */
+    private boolean isCompressed(){
+        return (flags & PlaceRequestCodec.FLAG_COMPRESS) != 0;
+    }
+
+    /**
+     * Closes the connection. Must be called on the event loop's thread
+     */
+    public void closeNow(){
+        ClientConnection cc;
+        synchronized (this) {
+            if(isClosed){
+                return;
+            }
+            isClosed = true;
+            pending.clear();
+            cc = clientConnection;
+        }
+        if(cc != null){
+            networkServer.terminateClient(cc);
+        }
+        if(key != null){
+            key.cancel();
+        }
+        try {
+            channel.close();
+        }catch(IOException e){
+            //System.err.println(e + " @ closeNow");
+        }
+    }
+
+    /**
+     * The username of the client, for logging
+     * @return the username, or the client's address before it logged in
+     */
+    private String username(){
+        ClientConnection cc = clientConnection;
+        return cc != null ? cc.getUsername() : String.valueOf(channel.socket().getInetAddress());
+    }
+}
@@ -0,0 +1,79 @@
+package place.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The non-blocking server engine. Instead of a ClientServerThread per client, a handful of EventLoop threads, one
+ * per core by default, each serve thousands of connections. Accepted connections are dealt to the loops in turn,
+ * and all game logic still goes through the same NetworkServer. The loops only move bytes: the requests they decode
+ * are handled on worker threads, so a request that waits, for the change log or to encode a whole board, never holds
+ * up every other connection on its loop.
+ */
+public class NioServer implements Closeable {
+    private ServerSocketChannel server;
+    private EventLoop[] loops;
+    private ExecutorService workers; //handle the requests the loops decode
+    private boolean isActive;
+
+    /**
+     * Constructor for the NioServer. The event loops are started right away
+     * @param port int
+     * @param networkServer NetworkServer running the game
+     * @param loopCount the number of event loop threads
+     * @throws IOException if the port cannot be bound
+     */
+    public NioServer(int port, NetworkServer networkServer, int loopCount) throws IOException{
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        workers = Executors.newCachedThreadPool(ServerThreads.platform("NioWorker-"));
+        loops = new EventLoop[loopCount];
+        for(int i = 0; i < loopCount; i++){
+            loops[i] = new EventLoop("EventLoop-" + i, networkServer, workers);
+            loops[i].start();
+        }
+        isActive = true;
+    }
+
+    /**
+     * The accept loop. Every new connection is made non-blocking and handed to the next event loop
+     */
+    public void run(){
+        int next = 0;
+        try {
+            while(isActive){
+                SocketChannel client = server.accept();
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                loops[next].register(client);
+                next = (next + 1) % loops.length;
+            }
+        }catch(IOException e){
+            //System.err.println(e + " @ run");
+        }
+    }
+
+    /**
+     * Stops accepting, and stops the event loops and their workers
+     */
+    @Override
+    public void close(){
+        isActive = false;
+        try {
+            server.close();
+        }catch(IOException e){
+            //System.err.println(e + " @ close");
+        }
+        for(EventLoop loop: loops){
+            loop.close();
+        }
+        workers.shutdown();
+    }
+}
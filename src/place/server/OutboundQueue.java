@@ -0,0 +1,291 @@
+package place.server;
+
+import place.PlaceTile;
+import place.TileBatch;
+import place.network.Frame;
+import place.network.PlaceRequest;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The frames waiting to be written to one client. The NetworkServer only ever adds to the queue, which never
+ * blocks, and the client's writer takes from it at whatever pace the client's socket allows. The queue is bounded,
+ * and what happens when a client falls that far behind is decided by the OverflowPolicy.
+ *
+ * While a client is logging in its queue is held: frames offered meanwhile are kept back until the client's board
+ * is ready, and then go out after it, minus the changes the board already has
+ */
+public class OutboundQueue {
+
+    /**
+     * What to do with a client whose queue is full
+     */
+    public enum OverflowPolicy {
+        /** Drop everything queued and send the client a fresh BOARD instead */
+        RESYNC,
+        /** Disconnect the client */
+        DISCONNECT,
+        /** Drop queued TILE_CHANGEDs that a later one overwrites, and resync if that frees nothing */
+        COALESCE
+    }
+
+    //stands in for the BOARD that is only made when the writer gets to it
+    private static final Frame RESYNC_MARKER = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, null));
+
+    private int capacity;
+    private OverflowPolicy policy;
+    private Supplier<Frame> resync; //makes the BOARD a resync sends
+    private ArrayDeque<Frame> frames;
+    private ArrayDeque<Frame> held; //frames kept back until release, null when the queue is not held
+    private Runnable listener; //told when the queue stops being empty or closes, may be null
+    private boolean isClosed;
+    private int maxDepth;
+    private long overflows;
+
+    /**
+     * Constructor for the OutboundQueue
+     * @param capacity the most frames the queue holds
+     * @param policy what to do when the queue is full
+     * @param resync makes the BOARD sent to a client that is resynced
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, Supplier<Frame> resync){
+        this.capacity = capacity;
+        this.policy = policy;
+        this.resync = resync;
+        this.frames = new ArrayDeque<>();
+    }
+
+    /**
+     * Adds a frame to the queue, without ever blocking. The same frame may be in the queues of many clients
+     * @param frame the frame
+     * @return false if the queue is closed, or was closed because it overflowed
+     */
+    public synchronized boolean offer(Frame frame){
+        if(isClosed){
+            return false;
+        }
+        if(held != null){
+            //a client that is still logging in is never disconnected for it, a resync costs it nothing
+            if(held.size() >= capacity){
+                overflows++;
+                held.clear();
+                held.add(RESYNC_MARKER);
+            }
+            held.add(frame);
+            return true;
+        }
+        if(frames.size() >= capacity){
+            overflows++;
+            switch (policy){
+                case DISCONNECT:
+                    close();
+                    return false;
+                case COALESCE:
+                    coalesce();
+                    break;
+                case RESYNC:
+                    break;
+            }
+            if(frames.size() >= capacity){
+                //a resync, or nothing to coalesce and so a resync after all
+                frames.clear();
+                frames.add(RESYNC_MARKER);
+            }
+        }
+        frames.add(frame);
+        maxDepth = Math.max(maxDepth, frames.size());
+        if(frames.size() == 1){
+            notifyAll();
+            if(listener != null){
+                listener.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts keeping back the frames offered from now on. Frames already queued still go out
+     */
+    public synchronized void hold(){
+        if(held == null){
+            held = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Queues the frames that bring a client up to date, then the frames kept back since hold() in the order they
+     * were offered. Tile changes the client already has, up to the version it was brought to, are dropped
+     * @param state the frames bringing the client up to date
+     * @param version the sequence number of the last change the state holds
+     */
+    public synchronized void release(List<Frame> state, long version){
+        if(isClosed || held == null){
+            return;
+        }
+        boolean wasEmpty = frames.isEmpty();
+        frames.addAll(state);
+        for(Frame frame : held){
+            if(!isCovered(frame.getRequest(), version)){
+                frames.add(frame);
+            }
+        }
+        held = null;
+        maxDepth = Math.max(maxDepth, frames.size());
+        if(wasEmpty && !frames.isEmpty()){
+            notifyAll();
+            if(listener != null){
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Tells whether a client that is at a version already has a change. A TILE_BATCH covers every change up to its
+     * sequence number, so one that ends after the version is kept whole; its earlier tiles are not overwritten by
+     * anything up to the version, so applying them again changes nothing
+     * @param req the request
+     * @param version the version the client is at
+     * @return
+     */
+    private static boolean isCovered(PlaceRequest<?> req, long version){
+        switch (req.getType()){
+            case TILE_CHANGED:
+                return ((PlaceTile) req.getData()).getSequence() <= version;
+            case TILE_BATCH:
+                return ((TileBatch) req.getData()).getSequence() <= version;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Drops every queued TILE_CHANGED for a tile that a later TILE_CHANGED in the queue changes again. Everything
+     * else keeps its order, so a USERS still arrives before the first tile its users own
+     */
+    private void coalesce(){
+        HashSet<Long> changed = new HashSet<>();
+        Iterator<Frame> it = frames.descendingIterator();
+        while(it.hasNext()){
+            PlaceRequest<?> req = it.next().getRequest();
+            if(req.getType() == PlaceRequest.RequestType.TILE_CHANGED){
+                PlaceTile t = (PlaceTile) req.getData();
+                if(!changed.add((long) t.getRow() << 32 | t.getCol())){
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the next frame
+     * @return the frame, or null once the queue is closed
+     * @throws InterruptedException
+     */
+    public Frame take() throws InterruptedException{
+        Frame frame;
+        synchronized (this) {
+            while(frames.isEmpty() && !isClosed){
+                wait();
+            }
+            if(isClosed){
+                return null;
+            }
+            frame = frames.poll();
+        }
+        return frame == RESYNC_MARKER ? resync.get() : frame;
+    }
+
+    /**
+     * Gets the next frame without waiting. A resync is not made here: it comes back as a frame for which isResync is
+     * true, so the caller can make the BOARD with makeResync on a thread that serves no other client
+     * @return the frame, or null if the queue is empty or closed
+     */
+    public synchronized Frame poll(){
+        if(isClosed){
+            return null;
+        }
+        return frames.poll();
+    }
+
+    /**
+     * Tells whether a frame from poll stands for a resync
+     * @param frame the frame
+     * @return true if the BOARD of a resync must be sent in its place
+     */
+    public static boolean isResync(Frame frame){
+        return frame == RESYNC_MARKER;
+    }
+
+    /**
+     * Makes the BOARD a resync sends, which takes a snapshot of the board and may encode it
+     * @return the BOARD frame
+     */
+    public Frame makeResync(){
+        return resync.get();
+    }
+
+    /**
+     * Setter method for the listener, which is run when the queue stops being empty or is closed. It runs on the
+     * thread that offered the request, so it must not block
+     * @param listener
+     */
+    public synchronized void setListener(Runnable listener){
+        this.listener = listener;
+        if(!frames.isEmpty() || isClosed){
+            listener.run();
+        }
+    }
+
+    /**
+     * Closes the queue, dropping whatever it holds and waking the writer
+     */
+    public synchronized void close(){
+        if(isClosed){
+            return;
+        }
+        isClosed = true;
+        frames.clear();
+        notifyAll();
+        if(listener != null){
+            listener.run();
+        }
+    }
+
+    /**
+     * Tells whether the queue is closed
+     * @return
+     */
+    public synchronized boolean isClosed(){
+        return isClosed;
+    }
+
+    /**
+     * Getter method for the number of frames waiting
+     * @return
+     */
+    public synchronized int getDepth(){
+        return frames.size() + (held != null ? held.size() : 0);
+    }
+
+    /**
+     * Getter method for the most frames that were ever waiting at once
+     * @return
+     */
+    public synchronized int getMaxDepth(){
+        return maxDepth;
+    }
+
+    /**
+     * Getter method for the number of times the queue was full
+     * @return
+     */
+    public synchronized long getOverflows(){
+        return overflows;
+    }
+}
@@ -1,12 +1,19 @@
 package place.server;
 
+import place.ArrayTileStore;
+import place.ConcurrentPlaceBoard;
+import place.MappedTileStore;
+import place.PlaceBoard;
 import place.PlaceException;
+import place.TileStore;
+import place.UserDictionary;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -15,12 +22,15 @@ import java.util.ArrayList;
  * The class starts up a NetworkServer Thread on creation, and then listens for new connections
  * After a new client connects, the PlaceServer generates a new ClientServerThread for that user, and
  * passes the users information to both the ClientServerThread and the NetworkServer.
+ * With -io nio the connections are instead handed to the event loops of a NioServer.
  */
 public class PlaceServer implements Closeable {
-    private ServerSocket server;
+    private ServerSocket server; //null when serving with the NioServer
+    private NioServer nioServer; //null when serving with ClientServerThreads
     private boolean isActive;
     private NetworkServer networkServer;
     private ArrayList<ClientServerThread> clientServerThreads;
+    private ThreadFactory threadFactory; //makes the threads ClientServerThreads run on
 
 
     /**
@@ -30,15 +40,132 @@ public class PlaceServer implements Closeable {
      * @throws PlaceException
      */
     public PlaceServer(int port, int DIM) throws PlaceException{
+        this(new ServerConfig(port, DIM));
+    }
+
+    /**
+     * Constructor for the PlaceServer with startup options. This is where the board and NetworkServer are created.
+     * @param config the settings
+     * @throws PlaceException
+     */
+    public PlaceServer(ServerConfig config) throws PlaceException{
         //create new PlaceServer, make ServerSocket on port, and set isActive to true
+        networkServer = createNetworkServer(config);
+        networkServer.setQueuePolicy(config.getQueueCapacity(), config.getOverflowPolicy());
+        networkServer.setTick(config.getTick());
+        if(config.getRing() > 0){
+            networkServer.setRing(config.getRing());
+        }else {
+            networkServer.setShards(config.getShards());
+        }
+        networkServer.setMaxBatch(config.getMaxBatch());
+        networkServer.setHistory(config.getHistory());
+        networkServer.setRateLimiter(new RateLimiter(config.getRate(), config.getBurst()));
         try{
-            server = new ServerSocket(port);
+            if(config.getIo() == ServerConfig.IoMode.NIO){
+                nioServer = new NioServer(config.getPort(), networkServer, config.getLoops());
+            }else {
+                server = new ServerSocket(config.getPort());
+            }
         }catch(IOException e){
+            this.close();
             throw new PlaceException(e + " @ PlaceServer constructor");
         }
         isActive = true;
-        networkServer = new NetworkServer(DIM);
         clientServerThreads = new ArrayList<>();
+        threadFactory = config.getIo() == ServerConfig.IoMode.VIRTUAL ?
+                ServerThreads.virtual("ClientServerThread-") : ServerThreads.platform("ClientServerThread-");
+        if(config.getStatsInterval() > 0){
+            startStats(config.getStatsInterval());
+        }
+    }
+
+    /**
+     * Starts a thread that prints the queue depth of every client, for as long as the server runs
+     * @param seconds how often to print
+     */
+    private void startStats(int seconds){
+        Thread stats = new Thread(() -> {
+            try {
+                NetworkServer current;
+                while((current = networkServer) != null){
+                    Thread.sleep(seconds * 1000L);
+                    System.out.print(current.queueDepths());
+                }
+            }catch(InterruptedException e){
+                //System.err.println(e + " @ startStats");
+            }
+        }, "QueueStats");
+        stats.setDaemon(true);
+        stats.start();
+    }
+
+    /**
+     * Creates the board the config asks for, and the NetworkServer that runs it. A board with a change log is loaded
+     * from its last checkpoint, if it has one, and gets every change logged since replayed into it first
+     * @param config the settings
+     * @return the NetworkServer
+     * @throws PlaceException if a memory mapped board or the change log cannot be opened
+     */
+    private NetworkServer createNetworkServer(ServerConfig config) throws PlaceException{
+        if(config.getMappedFile() == null && config.getLogFile() == null){
+            return new NetworkServer(config.getDIM());
+        }
+        UserJournal journal = null;
+        TileStore store = null;
+        BoardCheckpoint checkpoint = null;
+        try{
+            UserDictionary dictionary = new UserDictionary();
+            String kept = config.getMappedFile() != null ? config.getMappedFile() : config.getLogFile();
+            journal = new UserJournal(kept + ".users", dictionary);
+            store = config.getMappedFile() != null ?
+                    new MappedTileStore(config.getMappedFile(), config.getDIM()) : new ArrayTileStore(config.getDIM());
+            PlaceBoard board = new ConcurrentPlaceBoard(store, dictionary);
+            WriteAheadLog log = null;
+            if(config.getLogFile() != null){
+                long start = System.currentTimeMillis();
+                long firstSegment = 0;
+                if(config.getCheckpointSeconds() > 0){
+                    checkpoint = new BoardCheckpoint(config.getLogFile() + ".checkpoint", board);
+                    firstSegment = checkpoint.getSegment();
+                    System.out.println("Loaded " + config.getLogFile() + ".checkpoint in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                }
+                log = new WriteAheadLog(config.getLogFile(), board, firstSegment, config.getDurability(),
+                        config.getCommitMillis(), config.getCommitRecords());
+                System.out.println("Replayed " + config.getLogFile() + " to version " + board.getVersion() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+            NetworkServer networkServer = new NetworkServer(board, journal);
+            networkServer.setLog(log);
+            if(checkpoint != null){
+                networkServer.setCheckpoint(checkpoint);
+                checkpoint.start(log, config.getCheckpointSeconds());
+            }
+            return networkServer;
+        }catch(IOException e){
+            //nothing owns what was opened yet, so it is closed here, the last opened first
+            closeOpened(checkpoint, store, journal);
+            this.close();
+            throw new PlaceException(e + " @ createNetworkServer");
+        }
+    }
+
+    /**
+     * Closes what createNetworkServer opened before it failed
+     * @param opened the checkpoint, store and journal, any of which may be null
+     */
+    private static void closeOpened(Closeable... opened){
+        for(Closeable c : opened){
+            if(c == null){
+                continue;
+            }
+            try {
+                c.close();
+            }catch(IOException e){
+                //System.err.println(e + " @ closeOpened");
+            }
+        }
     }
 
     /**
@@ -46,6 +173,10 @@ public class PlaceServer implements Closeable {
      * For each new connection, it will start a ClientServerThread, and pass the clients info to the NetworkServer.
      */
     public void run(){
+        if(nioServer != null){
+            nioServer.run();
+            return;
+        }
         //begin accepting new clients, and creating a new ClientServerThread for each
         try {
             ClientServerThread temp;
@@ -55,7 +186,7 @@ public class PlaceServer implements Closeable {
                 Socket client = server.accept();
                 temp = new ClientServerThread(client, networkServer);
                 clientServerThreads.add(temp);
-                temp.start();
+                temp.start(threadFactory);
             }
 
             //terminate all the clients
@@ -82,18 +213,21 @@ public class PlaceServer implements Closeable {
      * @param args
      */
     public static void main(String[] args) {
-        //args- port DIM
-        if(args.length != 2){
-            System.err.println("Usage: java PlaceServer port DIM");
+        //args- port DIM [options]
+        ServerConfig config = null;
+        try{
+            config = ServerConfig.parse(args);
+        }catch(PlaceException e){
+            System.err.println(e.getMessage());
             System.exit(1);
         }
-        int port = Integer.parseInt(args[0]);
-        int DIM = Integer.parseInt(args[1]);
 
         // create new PlaceServer adn run it
         try(
-                PlaceServer placeServer = new PlaceServer(port, DIM);
+                PlaceServer placeServer = new PlaceServer(config);
                 ){
+            //a board that outlives the server has to be written back even when the server is killed
+            Runtime.getRuntime().addShutdownHook(new Thread(placeServer::close));
             placeServer.run();
 
         }catch (PlaceException e){
@@ -104,14 +238,23 @@ public class PlaceServer implements Closeable {
     }
 
     /**
-     * Closes the client {@link Socket}.
+     * Closes the client {@link Socket} and the board.
      */
     @Override
-    public void close() {
+    public synchronized void close() {
         try {
-            this.server.close();
+            if(this.server != null) {
+                this.server.close();
+            }
         } catch (IOException e) {
             //System.err.println(e + " @ close");
         }
+        if(nioServer != null){
+            nioServer.close();
+        }
+        if(networkServer != null){
+            networkServer.close();
+            networkServer = null;
+        }
     }
 }
@@ -0,0 +1,91 @@
+package place.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Limits how fast each user may change tiles, with a token bucket per username. A bucket refills at a steady rate up
+ * to its burst, and every tile changed takes one token. Nothing ever waits: a request finds out at once how many of
+ * its tiles are allowed, and when the next one will be. Buckets are kept by username, not by connection, so logging
+ * in again does not refill them
+ */
+public class RateLimiter {
+    private double rate; //tokens per millisecond
+    private double burst; //the most tokens a bucket holds
+    private ConcurrentHashMap<String, Bucket> buckets;
+
+    /**
+     * Constructor for the RateLimiter
+     * @param rate tiles per second, above 0
+     * @param burst the most tiles that can be changed at once after waiting long enough
+     */
+    public RateLimiter(double rate, int burst){
+        if(!(rate > 0 && rate < Double.POSITIVE_INFINITY)){
+            throw new IllegalArgumentException("The rate must be a number above 0, not " + rate);
+        }
+        this.rate = rate / 1000;
+        this.burst = Math.max(burst, 1);
+        this.buckets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Takes as many tokens as a user has, up to the number wanted
+     * @param username the user
+     * @param wanted the number of tiles the user wants to change
+     * @return the number of tiles the user may change now
+     */
+    public int acquire(String username, int wanted){
+        return buckets.computeIfAbsent(username, name -> new Bucket()).acquire(wanted, System.currentTimeMillis());
+    }
+
+    /**
+     * Tells when a user will next be allowed to change a tile
+     * @param username the user
+     * @return the time in milliseconds, which may be now
+     */
+    public long nextAllowed(String username){
+        Bucket bucket = buckets.get(username);
+        return bucket == null ? System.currentTimeMillis() : bucket.nextAllowed(System.currentTimeMillis());
+    }
+
+    /**
+     * The tokens of one user
+     */
+    private class Bucket {
+        private double tokens = burst;
+        private long last = System.currentTimeMillis(); //when tokens was last refilled
+
+        /**
+         * Adds the tokens earned since the last refill
+         * @param now the time in milliseconds
+         */
+        private void refill(long now){
+            tokens = Math.min(burst, tokens + (now - last) * rate);
+            last = now;
+        }
+
+        /**
+         * Takes up to wanted whole tokens
+         * @param wanted the number of tokens wanted
+         * @param now the time in milliseconds
+         * @return the number taken
+         */
+        synchronized int acquire(int wanted, long now){
+            refill(now);
+            int granted = (int) Math.min(wanted, Math.floor(tokens));
+            tokens -= granted;
+            return granted;
+        }
+
+        /**
+         * Tells when the bucket will next hold a whole token
+         * @param now the time in milliseconds
+         * @return the time in milliseconds
+         */
+        synchronized long nextAllowed(long now){
+            refill(now);
+            return tokens >= 1 ? now : now + (long) Math.ceil((1 - tokens) / rate);
+        }
+    }
+}
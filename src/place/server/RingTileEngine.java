@@ -0,0 +1,450 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Applies tile changes through a ring buffer of preallocated events, in the style of the LMAX Disruptor. The threads
+ * reading clients claim slots in the ring and publish their changes into them without taking any lock. One applier
+ * thread takes the published events in ring order, validates them, stamps their owner, time and sequence number and
+ * changes the board, so every change gets its place in one total order. Consumers then read the same events behind
+ * the applier, each on its own thread and at its own pace: a broadcaster sending the changes to the clients, a
+ * metrics counter, and whatever is added with addConsumer before start(). A slot is only reused once every consumer
+ * is done with it, so a slow consumer holds up the readers rather than losing changes.
+ *
+ * Each stage hands over whole runs of events, so when changes come in faster than one at a time the broadcaster sends
+ * everything the applier got through as one TILE_BATCH.
+ *
+ * Closing the ring stops new claims, lets the applier and every consumer get through what was already claimed, and
+ * only then stops their threads. A publisher still waiting for room at that point gives up instead of writing over
+ * a slot nobody read
+ */
+public class RingTileEngine implements TileEngine {
+    private static final int MAX_SEND = 4096; //the most changes the broadcaster puts in one TILE_BATCH
+
+    private NetworkServer networkServer;
+    private Event[] ring;
+    private int mask;
+    private int shift; //log2 of the ring size, so a sequence's lap around the ring is sequence >>> shift
+    private AtomicLong claimed = new AtomicLong(-1); //the last sequence handed to a publisher
+    private AtomicIntegerArray available; //the lap each slot was last published for
+    private AtomicLong applied = new AtomicLong(-1); //the last sequence the applier is done with
+    private ArrayList<Stage> consumers = new ArrayList<>();
+    private Stage[] gating; //the consumers publishers wait for, fixed by start()
+    private Metrics metrics = new Metrics();
+    private Broadcaster broadcaster; //null if the ring was made without its default consumers
+    private Thread applier;
+    private volatile boolean isClosing; //set by close(), after which nothing more is claimed
+    private volatile boolean isActive = true;
+
+    /**
+     * One change in the ring. Events are made once, when the ring is, and are filled in again every lap
+     */
+    public static class Event {
+        private ClientConnection clientConnection;
+        private int row;
+        private int col;
+        private int color;
+        private int expected; //the color number the tile must still have, -1 for any
+        private int owner;
+        private long time;
+        private long sequence; //the change's board version, 0 if the applier rejected it
+
+        /**
+         * Makes the tile the event changed, with its owner, time and sequence number
+         * @return a new tile
+         */
+        public PlaceTile getTile(){
+            PlaceTile t = new PlaceTile(row, col, owner, clientConnection.getUsername(), PlaceColor.fromNumber(color), time);
+            t.setSequence(sequence);
+            return t;
+        }
+
+        /**
+         * Tells whether the applier changed the board
+         * @return false if the tile was not on the board, or the change would have left it as it was
+         */
+        public boolean isApplied(){
+            return sequence != 0;
+        }
+
+        public int getRow(){
+            return row;
+        }
+
+        public int getCol(){
+            return col;
+        }
+
+        public int getColor(){
+            return color;
+        }
+
+        public int getOwner(){
+            return owner;
+        }
+
+        public long getTime(){
+            return time;
+        }
+
+        public long getSequence(){
+            return sequence;
+        }
+    }
+
+    /**
+     * Something that reads every event after the applier is done with it
+     */
+    public interface Consumer {
+        /**
+         * Called for every event in ring order, on the consumer's own thread
+         * @param event the event, which must not be kept after the call
+         * @param endOfRun true for the last event the applier had got through when the run was taken
+         */
+        void onEvent(Event event, boolean endOfRun);
+    }
+
+    /**
+     * Constructor for the RingTileEngine, which starts it with its broadcaster and metrics consumers
+     * @param networkServer the NetworkServer whose board the changes go to
+     * @param size the number of slots, rounded up to a power of two
+     * @param tick milliseconds the broadcaster batches changes over, or 0 to send them as soon as they are applied
+     */
+    public RingTileEngine(NetworkServer networkServer, int size, int tick){
+        this(networkServer, size);
+        broadcaster = new Broadcaster(tick);
+        addConsumer("Broadcaster", broadcaster);
+        addConsumer("Metrics", metrics);
+        start();
+    }
+
+    /**
+     * Constructor for a RingTileEngine with no consumers yet. Add them, then start it
+     * @param networkServer the NetworkServer whose board the changes go to
+     * @param size the number of slots, rounded up to a power of two
+     */
+    public RingTileEngine(NetworkServer networkServer, int size){
+        this.networkServer = networkServer;
+        int slots = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+        this.ring = new Event[slots];
+        for(int i = 0; i < slots; i++){
+            ring[i] = new Event();
+        }
+        this.mask = slots - 1;
+        this.shift = Integer.numberOfTrailingZeros(slots);
+        this.available = new AtomicIntegerArray(slots);
+        for(int i = 0; i < slots; i++){
+            available.set(i, -1);
+        }
+    }
+
+    /**
+     * Adds a consumer, which reads every event after the applier. Only allowed before start()
+     * @param name the name of the consumer's thread
+     * @param consumer the consumer
+     */
+    public synchronized void addConsumer(String name, Consumer consumer){
+        if(gating != null){
+            throw new IllegalStateException("The ring is already started");
+        }
+        consumers.add(new Stage(name, consumer));
+    }
+
+    /**
+     * Starts the applier and the consumers
+     */
+    public synchronized void start(){
+        gating = consumers.toArray(new Stage[0]);
+        applier = new Thread(this::apply, "RingApplier");
+        applier.setDaemon(true);
+        applier.start();
+        for(Stage stage : gating){
+            stage.start();
+        }
+    }
+
+    @Override
+    public void submit(ClientConnection clientConnection, PlaceTile t, PlaceColor expected){
+        long sequence = claim(1);
+        if(sequence < 0){
+            return;
+        }
+        fill(sequence, clientConnection, t.getRow(), t.getCol(), t.getColor().getNumber(),
+                expected == null ? -1 : expected.getNumber());
+        publish(sequence);
+    }
+
+    @Override
+    public void submit(ClientConnection clientConnection, TileBatch changes, int count){
+        for(int from = 0; from < count; from += ring.length){
+            int n = Math.min(count - from, ring.length);
+            long last = claim(n);
+            if(last < 0){
+                return;
+            }
+            for(int i = 0; i < n; i++){
+                fill(last - n + 1 + i, clientConnection, changes.getRow(from + i), changes.getCol(from + i),
+                        changes.getColor(from + i), -1);
+            }
+            for(int i = 0; i < n; i++){
+                publish(last - n + 1 + i);
+            }
+        }
+    }
+
+    /**
+     * Claims the next slots, waiting while the ring is full
+     * @param n the number of slots, at most the ring size
+     * @return the sequence of the last slot claimed, or -1 if the ring is closed and the changes are dropped
+     */
+    private long claim(int n){
+        if(isClosing){
+            return -1;
+        }
+        long last = claimed.addAndGet(n);
+        while(last - ring.length > minimumGate()){
+            if(!isActive){
+                return -1; //the slots are still unread, and nothing will read them now
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        return last;
+    }
+
+    /**
+     * Fills in a claimed slot
+     */
+    private void fill(long sequence, ClientConnection clientConnection, int row, int col, int color, int expected){
+        Event event = ring[(int) sequence & mask];
+        event.clientConnection = clientConnection;
+        event.row = row;
+        event.col = col;
+        event.color = color;
+        event.expected = expected;
+        event.sequence = 0;
+    }
+
+    /**
+     * Makes a filled in slot visible to the applier
+     * @param sequence the slot's sequence
+     */
+    private void publish(long sequence){
+        available.set((int) sequence & mask, (int) (sequence >>> shift));
+    }
+
+    /**
+     * Tells whether a slot was published for a sequence
+     * @param sequence the sequence
+     * @return
+     */
+    private boolean isPublished(long sequence){
+        return available.get((int) sequence & mask) == (int) (sequence >>> shift);
+    }
+
+    /**
+     * Gets the last sequence every consumer is done with, which publishers may not lap
+     * @return the sequence
+     */
+    private long minimumGate(){
+        long min = applied.get();
+        for(Stage stage : gating){
+            min = Math.min(min, stage.sequence.get());
+        }
+        return min;
+    }
+
+    /**
+     * The applier loop. It takes every run of published events there is and applies them in order
+     */
+    private void apply(){
+        long next = 0;
+        while(isActive){
+            if(!isPublished(next)){
+                idle();
+                continue;
+            }
+            long last = next;
+            while(last - next < ring.length - 1 && isPublished(last + 1)){
+                last++;
+            }
+            for(long sequence = next; sequence <= last; sequence++){
+                Event event = ring[(int) sequence & mask];
+                PlaceTile t = new PlaceTile(event.row, event.col, -1, event.clientConnection.getUsername(),
+                        PlaceColor.fromNumber(event.color), 0L);
+                PlaceColor expected = event.expected < 0 ? null : PlaceColor.fromNumber(event.expected);
+                if(networkServer.recordTile(event.clientConnection, t, expected)){
+                    event.owner = t.getOwnerId();
+                    event.time = t.getTime();
+                    event.sequence = t.getSequence();
+                }
+            }
+            if(!networkServer.awaitLogged()){ //one wait for the whole run, which goes to disk as one block
+                for(long sequence = next; sequence <= last; sequence++){
+                    ring[(int) sequence & mask].sequence = 0; //the log failed, so none of the run is sent
+                }
+            }
+            applied.set(last);
+            next = last + 1;
+        }
+    }
+
+    /**
+     * Waits a little for more events
+     */
+    private static void idle(){
+        LockSupport.parkNanos(50_000);
+    }
+
+    @Override
+    public String describe(){
+        long done = applied.get();
+        StringBuilder sb = new StringBuilder("ring applied=").append(metrics.applied)
+                .append(" rejected=").append(metrics.rejected)
+                .append(" waiting=").append(claimed.get() - done);
+        for(Stage stage : gating){
+            sb.append(' ').append(stage.getName()).append(" behind=").append(done - stage.sequence.get());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops claims, waits for the applier and every consumer to get through what was already claimed, then stops
+     * their threads and waits for them
+     */
+    @Override
+    public void close(){
+        isClosing = true;
+        synchronized (this) {
+            if(gating == null){
+                isActive = false;
+                return; //never started
+            }
+        }
+        long target = claimed.get();
+        while(minimumGate() < target && applier.isAlive()){
+            idle();
+        }
+        isActive = false;
+        try {
+            applier.join();
+            for(Stage stage : gating){
+                stage.join();
+            }
+        }catch(InterruptedException e){
+            //System.err.println(e + " @ close");
+        }
+        if(broadcaster != null){
+            broadcaster.close();
+        }
+    }
+
+    /**
+     * A consumer's thread, with the sequence it is done with
+     */
+    private class Stage extends Thread {
+        private Consumer consumer;
+        private AtomicLong sequence = new AtomicLong(-1);
+
+        Stage(String name, Consumer consumer){
+            super(name);
+            setDaemon(true);
+            this.consumer = consumer;
+        }
+
+        public void run(){
+            long next = 0;
+            while(isActive){
+                long last = applied.get();
+                if(last < next){
+                    idle();
+                    continue;
+                }
+                for(long s = next; s <= last; s++){
+                    consumer.onEvent(ring[(int) s & mask], s == last);
+                }
+                sequence.set(last);
+                next = last + 1;
+            }
+        }
+    }
+
+    /**
+     * Sends the changes to the clients. Without a tick, each run the applier got through goes out as one
+     * TILE_CHANGED or TILE_BATCH; with a tick, the changes join a TileBatcher
+     */
+    private class Broadcaster implements Consumer {
+        private TileBatcher batcher; //null when changes are sent as soon as they are applied
+        private TileBatch run = new TileBatch();
+        private PlaceTile single; //the only change of the run so far, sent as a TILE_CHANGED if no other follows
+
+        Broadcaster(int tick){
+            if(tick > 0){
+                batcher = new TileBatcher(networkServer, tick);
+                batcher.start();
+            }
+        }
+
+        @Override
+        public void onEvent(Event event, boolean endOfRun){
+            if(event.isApplied()){
+                if(batcher != null){
+                    batcher.add(event.getTile());
+                }else if(single == null && run.size() == 0){
+                    single = event.getTile();
+                }else {
+                    if(single != null){
+                        run.add(single);
+                        run.setFirstSequence(single.getSequence());
+                        single = null;
+                    }
+                    run.add(event.getRow(), event.getCol(), event.getColor(), event.getOwner(), event.getTime());
+                    run.setSequence(event.getSequence());
+                }
+            }
+            if(endOfRun || run.size() >= MAX_SEND){
+                if(single != null){
+                    networkServer.sendTileChangeToAllClients(single);
+                    single = null;
+                }else if(run.size() > 0){
+                    networkServer.sendTileBatchToAllClients(run);
+                    run = new TileBatch();
+                }
+            }
+        }
+
+        /**
+         * Stops the batcher, which sends the changes of its last tick
+         */
+        void close(){
+            if(batcher != null){
+                batcher.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the changes that went through the ring
+     */
+    private static class Metrics implements Consumer {
+        private volatile long applied;
+        private volatile long rejected;
+
+        @Override
+        public void onEvent(Event event, boolean endOfRun){
+            if(event.isApplied()){
+                applied++;
+            }else {
+                rejected++;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package place.server;
+
+import place.PlaceException;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The settings the PlaceServer is started with. They are parsed from the command line in the form
+ *
+ *     port DIM [options]
+ *
+ * where the options are:
+ *
+ *     -mmap file      keep the board off the heap in a memory mapped file, which also keeps it across restarts
+ *     -wal file       append every tile change to a log, and replay it on startup, so a board on the heap is also
+ *                     kept across restarts
+ *     -durability d   when logged changes are forced to disk: none (never, the OS writes them back), batched (every
+ *                     commit interval, the default) or write (before any client is sent the change)
+ *     -commit ms      the most milliseconds logged changes wait to be written, 5 by default
+ *     -commitrecords n  write the logged changes at once when n of them are waiting, 1024 by default
+ *     -checkpoint s   with -wal, write the chunks changed since the last checkpoint every s seconds and delete the
+ *                     log before it, so a restart only replays the changes since; 60 by default, 0 to never
+ *     -io mode        how connections are served: blocking (a platform thread per client, the default),
+ *                     virtual (a virtual thread per client) or nio (event loops)
+ *     -loops n        the number of event loop threads for -io nio, one per core by default
+ *     -queue n        the most requests waiting to be written to one client, 4096 by default
+ *     -overflow p     what to do with a client whose queue is full: resync (send a fresh board, the default),
+ *                     disconnect, or coalesce (drop tile changes that were overwritten since)
+ *     -tick ms        send tile changes in one TILE_BATCH per tick, keeping only the last change of each tile
+ *                     (16 to 50 works well), instead of a TILE_CHANGED per change
+ *     -shards n       apply tile changes on n threads, each owning some of the board's chunks, instead of one at
+ *                     a time on the threads that read them (about one per core for boards changed all over)
+ *     -ring n         apply tile changes through a ring buffer of n slots: the threads reading clients publish
+ *                     into it, one thread applies every change and others send them on (65536 works well)
+ *     -maxbatch n     the most tiles the server applies from one CHANGE_TILES request, 256 by default
+ *     -rate r         the tiles per second each user may change, 1 by default
+ *     -burst n        the most tiles a user may change at once after waiting, 10 by default
+ *     -history n      the number of latest changes kept for clients that reconnect, 65536 by default
+ *     -stats n        print every client's queue depth every n seconds
+ */
+public class ServerConfig {
+    public static final String USAGE = "Usage: java PlaceServer port DIM [-mmap file] [-io blocking|virtual|nio] [-loops n]\n" +
+            "       [-wal file] [-durability none|batched|write] [-commit ms] [-commitrecords n]\n" +
+            "       [-checkpoint seconds]\n" +
+            "       [-queue n] [-overflow resync|disconnect|coalesce] [-tick ms] [-shards n | -ring n]\n" +
+            "       [-maxbatch n] [-rate tiles/second] [-burst n] [-history n] [-stats seconds]";
+
+    /**
+     * The ways the PlaceServer can serve connections
+     */
+    public enum IoMode {
+        /** A ClientServerThread blocking on each client's socket */
+        BLOCKING,
+        /** A ClientServerThread per client, on virtual threads */
+        VIRTUAL,
+        /** A few EventLoops multiplexing non-blocking sockets, binary protocol only */
+        NIO
+    }
+
+    private int port;
+    private int DIM;
+    private String mappedFile;
+    private String logFile; //null for no change log
+    private WriteAheadLog.Durability durability = WriteAheadLog.Durability.BATCHED;
+    private int commitMillis = 5;
+    private int commitRecords = 1024;
+    private int checkpointSeconds = 60;
+    private IoMode io = IoMode.BLOCKING;
+    private int loops = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 4096;
+    private OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.RESYNC;
+    private int tick; //milliseconds, 0 for no batching
+    private int shards; //0 to apply changes on the threads that read them
+    private int ring; //0 for no ring buffer
+    private int maxBatch = 256;
+    private double rate = 1;
+    private int burst = 10;
+    private int history = 65536;
+    private int statsInterval; //seconds, 0 for no stats
+
+    /**
+     * Constructor for the default settings
+     * @param port int
+     * @param DIM int, dimension of board
+     */
+    public ServerConfig(int port, int DIM){
+        this.port = port;
+        this.DIM = DIM;
+    }
+
+    /**
+     * Parses the command line arguments of the PlaceServer
+     * @param args the arguments
+     * @return the settings
+     * @throws PlaceException if the arguments are not valid
+     */
+    public static ServerConfig parse(String[] args) throws PlaceException{
+        if(args.length < 2){
+            throw new PlaceException(USAGE);
+        }
+        ServerConfig config;
+        try {
+            config = new ServerConfig(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-mmap":
+                        config.mappedFile = value(args, ++i);
+                        break;
+                    case "-wal":
+                        config.logFile = value(args, ++i);
+                        break;
+                    case "-durability":
+                        config.durability = WriteAheadLog.Durability.valueOf(value(args, ++i).toUpperCase());
+                        break;
+                    case "-commit":
+                        config.commitMillis = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-commitrecords":
+                        config.commitRecords = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-checkpoint":
+                        config.checkpointSeconds = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-io":
+                        config.io = IoMode.valueOf(value(args, ++i).toUpperCase());
+                        break;
+                    case "-loops":
+                        config.loops = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-queue":
+                        config.queueCapacity = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-overflow":
+                        config.overflowPolicy = OutboundQueue.OverflowPolicy.valueOf(value(args, ++i).toUpperCase());
+                        break;
+                    case "-tick":
+                        config.tick = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-shards":
+                        config.shards = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-ring":
+                        config.ring = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-maxbatch":
+                        config.maxBatch = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-rate":
+                        config.rate = Double.parseDouble(value(args, ++i));
+                        break;
+                    case "-burst":
+                        config.burst = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-history":
+                        config.history = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "-stats":
+                        config.statsInterval = Integer.parseInt(value(args, ++i));
+                        break;
+                    default:
+                        throw new PlaceException("Unknown option " + args[i] + "\n" + USAGE);
+                }
+            }
+        }catch(IllegalArgumentException e){
+            throw new PlaceException(e.getMessage() + "\n" + USAGE);
+        }
+        if(config.shards > 0 && config.ring > 0){
+            throw new PlaceException("-shards and -ring cannot be used together\n" + USAGE);
+        }
+        require(config.port >= 0 && config.port <= 65535, "port must be between 0 and 65535");
+        require(config.DIM > 0, "DIM must be at least 1");
+        require(config.commitMillis > 0, "-commit must be at least 1");
+        require(config.commitRecords > 0, "-commitrecords must be at least 1");
+        require(config.checkpointSeconds >= 0, "-checkpoint must not be negative");
+        require(config.loops > 0, "-loops must be at least 1");
+        require(config.queueCapacity > 0, "-queue must be at least 1");
+        require(config.tick >= 0, "-tick must not be negative");
+        require(config.shards >= 0, "-shards must not be negative");
+        require(config.ring >= 0 && config.ring <= 1 << 30, "-ring must be between 0 and " + (1 << 30));
+        require(config.maxBatch > 0, "-maxbatch must be at least 1");
+        require(config.rate > 0 && config.rate < Double.POSITIVE_INFINITY, "-rate must be a number above 0"); //not NaN
+        require(config.burst > 0, "-burst must be at least 1");
+        require(config.history >= 0, "-history must not be negative");
+        require(config.statsInterval >= 0, "-stats must not be negative");
+        return config;
+    }
+
+    /**
+     * Checks a setting after parsing
+     * @param condition whether the setting is valid
+     * @param message what is wrong with it if not
+     * @throws PlaceException if the setting is not valid
+     */
+    private static void require(boolean condition, String message) throws PlaceException{
+        if(!condition){
+            throw new PlaceException(message + "\n" + USAGE);
+        }
+    }
+
+    /**
+     * Gets the value that follows an option
+     * @param args the arguments
+     * @param i the index of the value
+     * @return the value
+     * @throws PlaceException if the option is the last argument
+     */
+    private static String value(String[] args, int i) throws PlaceException{
+        if(i >= args.length){
+            throw new PlaceException(args[i - 1] + " needs a value\n" + USAGE);
+        }
+        return args[i];
+    }
+
+    /**
+     * Getter method for the port
+     * @return
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Getter method for the dimension of the board
+     * @return
+     */
+    public int getDIM() {
+        return DIM;
+    }
+
+    /**
+     * Getter method for the memory mapped board file
+     * @return the file, or null to keep the board on the heap
+     */
+    public String getMappedFile() {
+        return mappedFile;
+    }
+
+    /**
+     * Getter method for the change log file
+     * @return the file, or null to not log changes
+     */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Getter method for when logged changes are forced to disk
+     * @return
+     */
+    public WriteAheadLog.Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Getter method for the most milliseconds logged changes wait to be written
+     * @return
+     */
+    public int getCommitMillis() {
+        return commitMillis;
+    }
+
+    /**
+     * Getter method for the number of waiting changes that makes the log write them at once
+     * @return
+     */
+    public int getCommitRecords() {
+        return commitRecords;
+    }
+
+    /**
+     * Getter method for how often the board is checkpointed next to the change log
+     * @return seconds, or 0 to never checkpoint
+     */
+    public int getCheckpointSeconds() {
+        return checkpointSeconds;
+    }
+
+    /**
+     * Getter method for the way connections are served
+     * @return
+     */
+    public IoMode getIo() {
+        return io;
+    }
+
+    /**
+     * Getter method for the number of event loop threads
+     * @return
+     */
+    public int getLoops() {
+        return loops;
+    }
+
+    /**
+     * Getter method for the most requests waiting to be written to one client
+     * @return
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Getter method for what to do with a client whose queue is full
+     * @return
+     */
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Getter method for the tick tile changes are batched over
+     * @return milliseconds, or 0 to send every change on its own
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    /**
+     * Getter method for the number of shards tile changes are applied by
+     * @return the number of shards, or 0 to apply changes on the threads that read them
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * Getter method for the size of the ring buffer tile changes are applied through
+     * @return the number of slots, or 0 for no ring buffer
+     */
+    public int getRing() {
+        return ring;
+    }
+
+    /**
+     * Getter method for the most tiles applied from one CHANGE_TILES request
+     * @return
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Getter method for the tiles per second each user may change
+     * @return
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Getter method for the most tiles a user may change at once
+     * @return
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Getter method for the number of latest changes kept for clients that reconnect
+     * @return
+     */
+    public int getHistory() {
+        return history;
+    }
+
+    /**
+     * Getter method for how often queue depths are printed
+     * @return seconds, or 0 to never print them
+     */
+    public int getStatsInterval() {
+        return statsInterval;
+    }
+}
@@ -0,0 +1,56 @@
+package place.server;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Creates the threads that run ClientServerThreads. Virtual threads are looked up reflectively, so the server still
+ * builds and runs on a JDK without them and falls back to platform threads there.
+ */
+public class ServerThreads {
+
+    /**
+     * Makes a factory for named platform threads
+     * @param prefix the start of every thread's name
+     * @return the ThreadFactory
+     */
+    public static ThreadFactory platform(String prefix){
+        AtomicInteger count = new AtomicInteger();
+        return (Runnable r) -> new Thread(r, prefix + count.getAndIncrement());
+    }
+
+    /**
+     * Makes a factory for named virtual threads. On a virtual thread a blocking socket read or a sleep parks the
+     * virtual thread and frees its carrier, so an idle connection costs a few hundred bytes of heap instead of
+     * a platform thread and its stack
+     * @param prefix the start of every thread's name
+     * @return the ThreadFactory, or a platform thread factory if this JDK has no virtual threads
+     */
+    public static ThreadFactory virtual(String prefix){
+        try {
+            // Thread.ofVirtual().name(prefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        }catch(ReflectiveOperationException | UnsupportedOperationException e){
+            System.err.println("Virtual threads need Java 21, using platform threads");
+            return platform(prefix);
+        }
+    }
+
+    /**
+     * Tells whether a factory makes virtual threads
+     * @param threadFactory the ThreadFactory
+     * @return
+     */
+    public static boolean isVirtual(ThreadFactory threadFactory){
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(threadFactory.newThread(() -> {}));
+        }catch(ReflectiveOperationException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Applies tile changes on several threads at once. The board's chunks are dealt out to a number of shards, and each
+ * shard is a thread with its own inbox that is the only one to ever change the tiles of its chunks. A change is
+ * routed to the shard of the chunk it falls in, and the shard applies it and sends it to the clients itself, with
+ * its own TileBatcher when changes are batched per tick. Shards never wait for each other, so changes spread over
+ * the board are applied and sent on as many cores as there are shards.
+ *
+ * Changes to one tile are always applied and sent in the order they arrive. Changes to tiles of different shards
+ * may reach a client in a different order from their sequence numbers, which the NetworkServer allows for when a
+ * client resumes
+ */
+public class ShardedTileEngine implements TileEngine {
+    private NetworkServer networkServer;
+    private PlaceBoard board;
+    private Shard[] shards;
+
+    /**
+     * Constructor for the ShardedTileEngine, which starts the shards
+     * @param networkServer the NetworkServer that applies and sends the changes
+     * @param board the board, whose chunks the shards split
+     * @param count the number of shards
+     * @param tick milliseconds each shard batches changes over, or 0 to send every change on its own
+     */
+    public ShardedTileEngine(NetworkServer networkServer, PlaceBoard board, int count, int tick){
+        this.networkServer = networkServer;
+        this.board = board;
+        this.shards = new Shard[Math.max(count, 1)];
+        for(int i = 0; i < shards.length; i++){
+            shards[i] = new Shard(i, tick);
+            shards[i].start();
+        }
+    }
+
+    /**
+     * Gets the shard a tile belongs to. Chunks are dealt out in turn, so a busy region of the board is still spread
+     * over the shards
+     * @param row row
+     * @param col column
+     * @return the shard
+     */
+    private Shard shardOf(int row, int col){
+        if(row < 0 || col < 0 || row >= board.DIM || col >= board.DIM){
+            return shards[0]; //the shard only has to find out it is not on the board
+        }
+        return shards[board.getChunk(row, col) % shards.length];
+    }
+
+    /**
+     * Hands a CHANGE_TILE or CHANGE_TILE_IF to the shard of its tile
+     * @param clientConnection the client that changed the tile
+     * @param t the tile
+     * @param expected the color the tile must have when the change is applied, or null for any color
+     */
+    @Override
+    public void submit(ClientConnection clientConnection, PlaceTile t, PlaceColor expected){
+        Change change = new Change(clientConnection, t, null);
+        change.expected = expected;
+        shardOf(t.getRow(), t.getCol()).inbox.add(change);
+    }
+
+    /**
+     * Splits a CHANGE_TILES between the shards of its tiles. Each shard gets its tiles in the order they were sent
+     * @param clientConnection the client that changed the tiles
+     * @param changes the rows, columns and colors of the tiles
+     * @param count the number of tiles to apply
+     */
+    @Override
+    public void submit(ClientConnection clientConnection, TileBatch changes, int count){
+        TileBatch[] split = new TileBatch[shards.length];
+        for(int i = 0; i < count; i++){
+            Shard shard = shardOf(changes.getRow(i), changes.getCol(i));
+            if(split[shard.number] == null){
+                split[shard.number] = new TileBatch();
+            }
+            split[shard.number].add(changes.getRow(i), changes.getCol(i), changes.getColor(i), -1, 0L);
+        }
+        for(int i = 0; i < shards.length; i++){
+            if(split[i] != null){
+                shards[i].inbox.add(new Change(clientConnection, null, split[i]));
+            }
+        }
+    }
+
+    /**
+     * Describes the number of changes waiting in each shard's inbox
+     * @return the inbox sizes, one per shard
+     */
+    @Override
+    public String describe(){
+        StringBuilder sb = new StringBuilder("shards");
+        for(Shard shard : shards){
+            sb.append(' ').append(shard.inbox.size());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops the shards once they applied what is already in their inboxes, and waits for them and their batchers
+     */
+    @Override
+    public void close(){
+        for(Shard shard : shards){
+            shard.inbox.add(Change.STOP);
+        }
+        try {
+            for(Shard shard : shards){
+                shard.join();
+            }
+        }catch(InterruptedException e){
+            //System.err.println(e + " @ close");
+        }
+    }
+
+    /**
+     * A CHANGE_TILE or CHANGE_TILE_IF, or the part of a CHANGE_TILES that falls in one shard
+     */
+    private static class Change {
+        static final Change STOP = new Change(null, null, null);
+
+        ClientConnection clientConnection;
+        PlaceTile tile;
+        TileBatch tiles;
+        PlaceColor expected; //the color the tile must still have, null for any
+
+        Change(ClientConnection clientConnection, PlaceTile tile, TileBatch tiles){
+            this.clientConnection = clientConnection;
+            this.tile = tile;
+            this.tiles = tiles;
+        }
+    }
+
+    /**
+     * One shard: a thread taking changes from its inbox and applying them, one at a time
+     */
+    private class Shard extends Thread {
+        private int number;
+        private LinkedBlockingQueue<Change> inbox = new LinkedBlockingQueue<>();
+        private TileBatcher batcher; //null when every change is sent on its own
+
+        Shard(int number, int tick){
+            super("Shard-" + number);
+            setDaemon(true);
+            this.number = number;
+            if(tick > 0){
+                batcher = new TileBatcher(networkServer, tick);
+                batcher.start();
+            }
+        }
+
+        public void run(){
+            while(true){
+                Change change;
+                try {
+                    change = inbox.take();
+                }catch(InterruptedException e){
+                    //System.err.println(e + " @ run");
+                    continue;
+                }
+                if(change == Change.STOP){
+                    break;
+                }
+                if(change.tile != null){
+                    networkServer.applyTile(change.clientConnection, change.tile, change.expected, batcher);
+                }else {
+                    networkServer.applyTiles(change.clientConnection, change.tiles, change.tiles.size(), batcher);
+                }
+            }
+            if(batcher != null){
+                batcher.close();
+            }
+        }
+    }
+}
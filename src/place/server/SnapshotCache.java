@@ -0,0 +1,84 @@
+package place.server;
+
+import place.BoardSnapshot;
+import place.PlaceBoard;
+import place.network.BoardCodec;
+import place.network.Frame;
+import place.network.PlaceRequest;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * The last BOARD frame the server encoded, shared by every client that logs in while it is recent enough. Each chunk
+ * is encoded on its own and kept with the chunk version it was encoded at, so encoding the board again only encodes
+ * the chunks that changed since, and the rest of the frame is copied from the old encodings. Only the encodings are
+ * kept, never the snapshot they were made from
+ */
+public class SnapshotCache {
+    private PlaceBoard board;
+    private byte[][] chunks; //the encoded chunks, row major
+    private long[] chunkVersions; //the chunk version each encoding was made at
+    private long version; //the board version the frame was made at
+    private int userCount; //the usernames the frame holds
+    private Frame frame;
+
+    /**
+     * Constructor for the SnapshotCache
+     * @param board the board
+     */
+    public SnapshotCache(PlaceBoard board){
+        this.board = board;
+    }
+
+    /**
+     * Encodes the board at its current version, unless the cached frame already is
+     * @return the BOARD frame
+     */
+    public synchronized Frame refresh(){
+        BoardSnapshot current = board.snapshot();
+        if(frame != null && version == current.getVersion() && userCount == current.getUserCount()){
+            return frame;
+        }
+        int count = current.getChunksPerSide() * current.getChunksPerSide();
+        if(chunks == null){
+            chunks = new byte[count][];
+            chunkVersions = new long[count];
+        }
+        for(int chunk = 0; chunk < count; chunk++){
+            BoardSnapshot.Chunk c = current.getChunk(chunk);
+            if(chunks[chunk] == null || chunkVersions[chunk] != c.getVersion()){
+                chunks[chunk] = BoardCodec.encodeChunk(c);
+                chunkVersions[chunk] = c.getVersion();
+            }
+        }
+        version = current.getVersion();
+        userCount = current.getUserCount();
+        frame = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, BoardCodec.encode(current, chunks)));
+        return frame;
+    }
+
+    /**
+     * Getter method for the cached frame, whatever version it is at. Callers that also need its version or user
+     * count must hold the cache's lock across the calls
+     * @return the BOARD frame, or null if nothing was encoded yet
+     */
+    public synchronized Frame getFrame(){
+        return frame;
+    }
+
+    /**
+     * Getter method for the board version of the cached frame
+     * @return the version
+     */
+    public synchronized long getVersion(){
+        return version;
+    }
+
+    /**
+     * Getter method for the number of usernames the cached frame holds
+     * @return the user count
+     */
+    public synchronized int getUserCount(){
+        return userCount;
+    }
+}
@@ -0,0 +1,108 @@
+package place.server;
+
+import place.PlaceTile;
+import place.TileBatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Collects the tile changes of one tick and hands them to the NetworkServer as a single TILE_BATCH. A tile changed
+ * more than once in a tick is only sent with its last change, in the place of its first, so clients fighting over
+ * the same tiles cost one entry per tile per tick however often they change them
+ */
+public class TileBatcher extends Thread {
+    private NetworkServer networkServer;
+    private int tick; //milliseconds between batches
+    private TileBatch batch; //the changes of the current tick, guarded by this
+    private HashMap<Long, Integer> index; //where each tile changed this tick is in batch, guarded by this
+    private long[] sequences; //the sequence number of each change in batch, guarded by this
+    private volatile boolean isActive;
+
+    /**
+     * Constructor for the TileBatcher
+     * @param networkServer NetworkServer that sends the batches
+     * @param tick milliseconds between batches
+     */
+    public TileBatcher(NetworkServer networkServer, int tick){
+        super("TileBatcher");
+        setDaemon(true);
+        this.networkServer = networkServer;
+        this.tick = tick;
+        this.batch = new TileBatch();
+        this.index = new HashMap<>();
+        this.sequences = new long[16];
+        this.isActive = true;
+    }
+
+    /**
+     * Adds a change that was made to the board
+     * @param t the tile, with its owner id and time
+     */
+    public synchronized void add(PlaceTile t){
+        Long key = (long) t.getRow() << 32 | t.getCol();
+        Integer i = index.get(key);
+        if(i == null){
+            i = batch.add(t);
+            index.put(key, i);
+            if(i == sequences.length){
+                sequences = Arrays.copyOf(sequences, i * 2);
+            }
+            sequences[i] = t.getSequence();
+        }else if(t.getSequence() > sequences[i]){
+            batch.set(i, t.getColor().getNumber(), t.getOwnerId(), t.getTime());
+            sequences[i] = t.getSequence();
+        }
+        if(batch.getFirstSequence() == 0 || t.getSequence() < batch.getFirstSequence()){
+            batch.setFirstSequence(t.getSequence());
+            networkServer.holdUnpublished(batch, t.getSequence());
+        }
+        batch.setSequence(Math.max(batch.getSequence(), t.getSequence()));
+    }
+
+    /**
+     * Takes the changes of the tick that just ended, and starts a new tick
+     * @return the changes, which may be empty
+     */
+    private synchronized TileBatch swap(){
+        TileBatch ended = batch;
+        if(ended.size() > 0){
+            batch = new TileBatch(ended.size());
+            index.clear();
+        }
+        return ended;
+    }
+
+    /**
+     * The tick loop. Every tick the changes collected are sent to every client
+     */
+    public void run(){
+        while(isActive){
+            try {
+                Thread.sleep(tick);
+            }catch(InterruptedException e){
+                //System.err.println(e + " @ run");
+            }
+            TileBatch ended = swap();
+            if(ended.size() > 0){
+                networkServer.sendTileBatchToAllClients(ended);
+                networkServer.releaseUnpublished(ended);
+            }
+        }
+    }
+
+    /**
+     * Stops the tick loop, and waits for it to send whatever was collected
+     */
+    public void close(){
+        isActive = false;
+        interrupt();
+        try {
+            join();
+        }catch(InterruptedException e){
+            //System.err.println(e + " @ close");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Applies the tile changes clients send, on threads of its own, instead of the NetworkServer applying them one at a
+ * time on the threads that read them. Rate limiting and the cap on CHANGE_TILES are done before a change gets here
+ */
+public interface TileEngine {
+
+    /**
+     * Hands over a CHANGE_TILE, or a CHANGE_TILE_IF with the color its tile must still have
+     * @param clientConnection the client that changed the tile
+     * @param t the tile
+     * @param expected the color the tile must have when the change is applied, or null for any color
+     */
+    void submit(ClientConnection clientConnection, PlaceTile t, PlaceColor expected);
+
+    /**
+     * Hands over the tiles of a CHANGE_TILES
+     * @param clientConnection the client that changed the tiles
+     * @param changes the rows, columns and colors of the tiles
+     * @param count the number of tiles to apply
+     */
+    void submit(ClientConnection clientConnection, TileBatch changes, int count);
+
+    /**
+     * Describes how far behind the engine is, for the server's stats
+     * @return one line
+     */
+    String describe();
+
+    /**
+     * Stops the engine once it applied and sent what it was already handed, and waits for its threads to finish, so
+     * nothing is appended to the log after the engine is closed
+     */
+    void close();
+}
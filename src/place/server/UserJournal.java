@@ -0,0 +1,95 @@
+package place.server;
+
+import place.UserDictionary;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * A text file with one username per line, in owner id order. A board that outlives the server (a memory mapped
+ * board) only stores owner ids, so the usernames behind them are kept here and read back on startup. Every username
+ * is forced to disk before its id is given out, so no change in the log can name an id the journal does not have
+ */
+public class UserJournal implements Closeable {
+    private FileChannel channel;
+
+    /**
+     * Opens the journal, reading the usernames it already holds into the dictionary. A last line cut short by a
+     * crash was never given out as an id, and is dropped
+     * @param path the journal file
+     * @param dictionary the dictionary to fill, which must only hold the empty owner
+     * @throws IOException
+     */
+    public UserJournal(String path, UserDictionary dictionary) throws IOException{
+        File file = new File(path);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if(bytes.length == 0){
+            write("\n"); //id 0, the empty owner
+            return;
+        }
+        int start = 0;
+        for(int i = 0; i < bytes.length; i++){
+            if(bytes[i] == '\n'){
+                dictionary.intern(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        channel.truncate(start);
+    }
+
+    /**
+     * Writes a username that is about to be given the next owner id, and forces it to disk
+     * @param username a name without line breaks, as NetworkServer.isValidUsername checks
+     * @throws IOException if the name could not be written, in which case the journal is left as it was
+     */
+    public synchronized void append(String username) throws IOException{
+        if(!NetworkServer.isValidUsername(username)){
+            throw new IllegalArgumentException("A username with a line break cannot be journaled");
+        }
+        write(username + "\n");
+    }
+
+    /**
+     * Writes a line at the end of the file and forces it to disk, cutting the file back if that fails part way
+     * @param line the line, with its line break
+     * @throws IOException if the line could not be written
+     */
+    private void write(String line) throws IOException{
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        long end = channel.size();
+        try {
+            while(bytes.hasRemaining()){
+                channel.write(bytes, end + bytes.position());
+            }
+            channel.force(false);
+        }catch(IOException e){
+            try {
+                channel.truncate(end);
+            }catch(IOException t){
+                //System.err.println(t + " @ write");
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the journal file
+     */
+    @Override
+    public synchronized void close(){
+        try {
+            channel.close();
+        }catch(IOException e){
+            //System.err.println(e + " @ close");
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * An append-only binary log of every tile change, so a board kept on the heap survives a restart of the server. The
+ * threads applying changes only copy them into a buffer; a writer thread of its own takes everything buffered at
+ * once and writes it as one block, so a single write and a single fsync cover every change made in the meantime
+ * (group commit). How long a change may sit before it is safe on disk is the log's Durability.
+ *
+ * The log is a run of segment files: segment 0 is the path itself and segment n is the path followed by "." and n.
+ * Changes go to the last segment until roll() starts the next one, which lets a BoardCheckpoint delete the segments
+ * its checkpoint made unnecessary. Each segment is a magic int followed by blocks, each a length int, the CRC32 of
+ * the block's records and the records, every one RECORD_SIZE bytes: row int, col int, color byte, owner id int,
+ * time long, sequence long. A crash in the middle of a write leaves a last block that is short or fails its CRC;
+ * reading the segment stops there, and the block is cut off before anything else is written.
+ *
+ * A write that fails stops the log: whatever part of the block got written is cut off, the changes in it never count
+ * as durable, and from then on append and awaitDurable throw an IllegalStateException. So does append once the log
+ * is closed
+ */
+public class WriteAheadLog implements Closeable {
+    public static final int RECORD_SIZE = 4 + 4 + 1 + 4 + 8 + 8;
+    private static final int MAGIC = 0x504C574C; //"PLWL"
+    private static final int BLOCK_HEADER = 4 + 4; //length and CRC
+    private static final int MAX_BLOCK = 65536; //the most records buffered before appenders wait for the writer
+
+    /**
+     * How long a change may be buffered before it is safe on disk
+     */
+    public enum Durability {
+        /** Changes are written every commit interval but never forced to disk; the OS decides when they get there */
+        NONE,
+        /** Changes are written and forced to disk every commit interval, or sooner once enough of them are buffered */
+        BATCHED,
+        /** Every change is forced to disk before it is sent to any client. Changes made while the writer is forcing
+         * a block go to disk together in the next one */
+        WRITE
+    }
+
+    private String path;
+    private FileChannel channel; //the last segment, which changes are appended to
+    private long segment; //the number of the last segment
+    private boolean isRolling; //set by roll() until the writer has started the next segment
+    private Durability durability;
+    private int commitMillis;
+    private int commitRecords;
+    private ByteBuffer pending; //the records appended since the writer last took them, after room for the header
+    private ByteBuffer writing; //the block the writer is writing
+    private int pendingRecords;
+    private long appended; //records appended since the log was opened
+    private long durable; //records written, and forced unless the durability is NONE
+    private long blocks; //blocks written
+    private boolean isActive = true;
+    private boolean isStopped; //set once the writer is gone, after a failed write or once closed and drained
+    private IOException failure; //the write that stopped the log, null while it works
+    private Thread writer;
+
+    /**
+     * Opens the log, creating its first segment if there is none, and replays every change it holds into a board
+     * @param path the log file
+     * @param board the board to replay into, or null to only open the log
+     * @param durability how long a change may be buffered before it is safe on disk
+     * @param commitMillis the most milliseconds between two writes
+     * @param commitRecords the records buffered that make the writer write at once, without waiting for the interval
+     * @throws IOException if the file cannot be opened, or is not a log
+     */
+    public WriteAheadLog(String path, PlaceBoard board, Durability durability, int commitMillis, int commitRecords)
+            throws IOException{
+        this(path, board, 0, durability, commitMillis, commitRecords);
+    }
+
+    /**
+     * Opens the log, creating its first segment if there is none, and replays the changes of the segments from a
+     * checkpoint's segment on into a board. Older segments are deleted
+     * @param path the log file
+     * @param board the board to replay into, or null to only open the log
+     * @param firstSegment the first segment whose changes the board does not have yet
+     * @param durability how long a change may be buffered before it is safe on disk
+     * @param commitMillis the most milliseconds between two writes
+     * @param commitRecords the records buffered that make the writer write at once, without waiting for the interval
+     * @throws IOException if the file cannot be opened, or is not a log
+     */
+    public WriteAheadLog(String path, PlaceBoard board, long firstSegment, Durability durability, int commitMillis,
+                         int commitRecords) throws IOException{
+        this.path = path;
+        this.durability = durability;
+        this.commitMillis = Math.max(commitMillis, 1);
+        this.commitRecords = Math.max(1, Math.min(commitRecords, MAX_BLOCK));
+        segment = firstSegment;
+        deleteBefore(firstSegment);
+        long end = 0;
+        for(long n : segments()){
+            if(n >= firstSegment){
+                end = replay(segmentPath(n), board);
+                segment = n;
+            }
+        }
+        channel = open(segment);
+        if(end > 0){
+            channel.truncate(end); //whatever follows the last good block is a write that never finished
+            channel.position(end);
+        }
+        pending = ByteBuffer.allocate(BLOCK_HEADER + MAX_BLOCK * RECORD_SIZE);
+        writing = ByteBuffer.allocate(BLOCK_HEADER + MAX_BLOCK * RECORD_SIZE);
+        pending.position(BLOCK_HEADER);
+        writer = new Thread(this::write, "LogWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Gets the file of a segment
+     * @param n the segment number
+     * @return the path of the segment
+     */
+    private String segmentPath(long n){
+        return n == 0 ? path : path + "." + n;
+    }
+
+    /**
+     * Finds the segments there are files for
+     * @return the segment numbers, in order
+     */
+    private long[] segments(){
+        File file = new File(path).getAbsoluteFile();
+        String prefix = file.getName() + ".";
+        String[] names = file.getParentFile().list();
+        ArrayList<Long> found = new ArrayList<>();
+        if(file.exists()){
+            found.add(0L);
+        }
+        if(names != null){
+            for(String name : names){
+                if(name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit)){
+                    found.add(Long.parseLong(name.substring(prefix.length())));
+                }
+            }
+        }
+        return found.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * Opens a segment for appending, writing its magic if the segment is new
+     * @param n the segment number
+     * @return the file, positioned at its end
+     * @throws IOException if the file cannot be opened
+     */
+    private FileChannel open(long n) throws IOException{
+        FileChannel file = FileChannel.open(new File(segmentPath(n)).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(file.size() < 4){
+            file.truncate(0);
+            file.write(ByteBuffer.allocate(4).putInt(0, MAGIC));
+        }
+        file.position(file.size());
+        return file;
+    }
+
+    /**
+     * Reads every whole block of a log segment into a board
+     * @param path the segment file
+     * @param board the board, or null to only find where the last whole block ends
+     * @return the offset the last whole block ends at, or 0 if the file is empty
+     * @throws IOException if the file cannot be read, or is not a log
+     */
+    private static long replay(String path, PlaceBoard board) throws IOException{
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))){
+            int magic;
+            try {
+                magic = in.readInt();
+            }catch(EOFException e){
+                return 0;
+            }
+            if(magic != MAGIC){
+                throw new IOException(path + " is not a change log");
+            }
+            long end = 4;
+            CRC32 crc = new CRC32();
+            byte[] records = new byte[RECORD_SIZE];
+            while(true){
+                try {
+                    int length = in.readInt();
+                    int expected = in.readInt();
+                    if(length <= 0 || length % RECORD_SIZE != 0 || length > MAX_BLOCK * RECORD_SIZE){
+                        break;
+                    }
+                    if(records.length < length){
+                        records = new byte[length];
+                    }
+                    in.readFully(records, 0, length);
+                    crc.reset();
+                    crc.update(records, 0, length);
+                    if((int) crc.getValue() != expected){
+                        break;
+                    }
+                    if(board != null){
+                        ByteBuffer block = ByteBuffer.wrap(records, 0, length);
+                        while(block.hasRemaining()){
+                            int row = block.getInt();
+                            int col = block.getInt();
+                            PlaceColor color = PlaceColor.fromNumber(block.get() & 0xF);
+                            int owner = block.getInt();
+                            long time = block.getLong();
+                            block.getLong(); //the sequence, which only meant something to the server that wrote it
+                            PlaceTile t = new PlaceTile(row, col, owner, null, color, time);
+                            if(board.isValid(t)){ //a board of another dimension keeps the tiles that fit
+                                board.setTile(t);
+                            }
+                        }
+                    }
+                    end += BLOCK_HEADER + length;
+                }catch(EOFException e){
+                    break;
+                }
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Adds a change to the log. It is only buffered; use awaitDurable before letting anyone see it
+     * @param t the tile, with its owner id, time and sequence number
+     * @throws IllegalStateException if the log is closed, or a write failed
+     */
+    public synchronized void append(PlaceTile t){
+        while(pendingRecords == MAX_BLOCK && isActive){
+            try {
+                wait(); //the writer is behind, so the appenders slow down to its pace
+            }catch(InterruptedException e){
+                //System.err.println(e + " @ append");
+            }
+        }
+        if(!isActive){
+            throw stopped();
+        }
+        pending.putInt(t.getRow());
+        pending.putInt(t.getCol());
+        pending.put((byte) t.getColor().getNumber());
+        pending.putInt(t.getOwnerId());
+        pending.putLong(t.getTime());
+        pending.putLong(t.getSequence());
+        pendingRecords++;
+        appended++;
+        if(durability == Durability.WRITE ? pendingRecords == 1 : pendingRecords == commitRecords){
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every change appended so far is on disk, if the durability asks for it. With any other
+     * durability it returns at once, unless the changes can no longer get to disk at all
+     * @throws IllegalStateException if a write failed, or the log was closed before the changes were written
+     */
+    public synchronized void awaitDurable(){
+        long target = appended;
+        while(durability == Durability.WRITE && durable < target && !isStopped){
+            try {
+                wait();
+            }catch(InterruptedException e){
+                //System.err.println(e + " @ awaitDurable");
+            }
+        }
+        if(failure != null || (isStopped && durable < target)){
+            throw stopped();
+        }
+    }
+
+    /**
+     * Makes the exception for a change the log can no longer take or write
+     * @return the exception, caused by the failed write if there was one
+     */
+    private IllegalStateException stopped(){
+        return new IllegalStateException(failure != null ? "The change log could not be written"
+                : "The change log is closed", failure);
+    }
+
+    /**
+     * Tells whether the log still takes changes
+     * @return false once a write failed
+     */
+    public synchronized boolean isWorking(){
+        return failure == null;
+    }
+
+    /**
+     * The writer loop. It takes whatever is buffered as one block, writes it, and forces it to disk unless the
+     * durability is NONE. When the log is rolled, the block goes to the old segment and the writer then starts the
+     * next one. A failed write cuts off what it wrote and stops the writer
+     */
+    private void write(){
+        try {
+            writeBlocks();
+        }finally {
+            synchronized (this) {
+                isStopped = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The body of the writer loop, which returns once the log is closed and drained, or a write failed
+     */
+    private void writeBlocks(){
+        while(true){
+            long end;
+            boolean rolling;
+            synchronized (this) {
+                if(durability == Durability.WRITE){
+                    while(pendingRecords == 0 && isActive && !isRolling){
+                        waitQuietly(0);
+                    }
+                }else if(pendingRecords < commitRecords && isActive && !isRolling){
+                    waitQuietly(commitMillis);
+                }
+                if(pendingRecords == 0 && !isRolling){
+                    if(!isActive){
+                        break;
+                    }
+                    continue;
+                }
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                pending.clear().position(BLOCK_HEADER);
+                pendingRecords = 0;
+                end = appended;
+                rolling = isRolling;
+                notifyAll(); //appenders waiting for room
+            }
+            long next = segment;
+            long start = -1; //where the block being written starts, until it is all written
+            try {
+                int length = writing.position() - BLOCK_HEADER;
+                if(length > 0){
+                    CRC32 crc = new CRC32();
+                    crc.update(writing.array(), BLOCK_HEADER, length);
+                    writing.putInt(0, length).putInt(4, (int) crc.getValue()).flip();
+                    start = channel.position();
+                    while(writing.hasRemaining()){
+                        channel.write(writing);
+                    }
+                    if(durability != Durability.NONE){
+                        channel.force(false);
+                    }
+                    start = -1;
+                }
+                if(rolling){
+                    FileChannel opened = open(segment + 1);
+                    channel.close();
+                    channel = opened;
+                    next = segment + 1;
+                }
+            }catch(IOException e){
+                System.out.println("The change log could not be written, no more changes are logged: " + e);
+                try {
+                    if(start >= 0){
+                        channel.truncate(start); //the torn block
+                        channel.position(start);
+                    }
+                }catch(IOException truncate){
+                    //System.err.println(truncate + " @ write");
+                }
+                synchronized (this) {
+                    failure = e;
+                    isActive = false;
+                    isRolling = false;
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = end;
+                if(writing.limit() > BLOCK_HEADER){
+                    blocks++;
+                }
+                segment = next;
+                if(rolling){
+                    isRolling = false;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts a new segment. Every change appended before the call is in an older segment, and every change appended
+     * after it returns is in the new one or a later one
+     * @return the number of the new segment, or the last segment if the log is closed
+     */
+    public synchronized long roll(){
+        isRolling = true;
+        notifyAll();
+        while(isRolling && writer.isAlive()){
+            waitQuietly(100);
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes the segments before a segment, once a checkpoint holds everything they do. The last segment is
+     * never deleted
+     * @param firstSegment the first segment to keep
+     */
+    public void deleteBefore(long firstSegment){
+        for(long n : segments()){
+            if(n < firstSegment && n != segment){
+                new File(segmentPath(n)).delete();
+            }
+        }
+    }
+
+    /**
+     * Waits on the log's lock, which the caller holds
+     * @param millis the most milliseconds to wait, or 0 to wait until notified
+     */
+    private void waitQuietly(long millis){
+        try {
+            wait(millis);
+        }catch(InterruptedException e){
+            //System.err.println(e + " @ waitQuietly");
+        }
+    }
+
+    /**
+     * Getter method for the number of changes appended since the log was opened
+     * @return
+     */
+    public synchronized long getAppended(){
+        return appended;
+    }
+
+    /**
+     * Getter method for the number of blocks written since the log was opened. Each is one write and, unless the
+     * durability is NONE, one fsync
+     * @return
+     */
+    public synchronized long getBlocks(){
+        return blocks;
+    }
+
+    /**
+     * Describes how far behind the writer is, for the server's stats
+     * @return one line
+     */
+    public synchronized String describe(){
+        return "log " + durability.name().toLowerCase() + " appended=" + appended + " waiting=" + (appended - durable)
+                + " blocks=" + blocks;
+    }
+
+    /**
+     * Writes whatever is still buffered, forces it to disk and closes the file
+     */
+    @Override
+    public void close(){
+        synchronized (this) {
+            isActive = false;
+            notifyAll();
+        }
+        try {
+            writer.join();
+            channel.force(false);
+            channel.close();
+        }catch(InterruptedException | IOException e){
+            //System.err.println(e + " @ close");
+        }
+    }
+}
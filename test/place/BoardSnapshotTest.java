@@ -0,0 +1,66 @@
+package place;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that a snapshot keeps showing the board as it was when it was taken, while the board changes under it,
+ * with a plain board and with a ConcurrentPlaceBoard changed by another thread as the snapshot is read
+ */
+public class BoardSnapshotTest {
+    public static void main(String[] args) throws InterruptedException{
+        for(PlaceBoard board : new PlaceBoard[]{new PlaceBoard(100), new ConcurrentPlaceBoard(100)}){
+            String name = board.getClass().getSimpleName();
+            board.setTile(new PlaceTile(1, 1, -1, "ann", PlaceColor.RED, 10L));
+            BoardSnapshot before = board.snapshot();
+            board.setTile(new PlaceTile(1, 1, -1, "bob", PlaceColor.BLUE, 20L));
+            board.setTile(new PlaceTile(99, 99, -1, "bob", PlaceColor.GREEN, 30L));
+            BoardSnapshot after = board.snapshot();
+
+            check(before.getColor(1, 1) == PlaceColor.RED.getNumber(), name + " snapshot saw a later change");
+            check("ann".equals(before.getDictionary().getName(before.getOwner(1, 1))), name + " owner changed");
+            check(before.getTime(1, 1) == 10L, name + " time changed");
+            check(before.getColor(99, 99) == PlaceColor.WHITE.getNumber(), name + " snapshot saw a later tile");
+            check(after.getColor(1, 1) == PlaceColor.BLUE.getNumber(), name + " new snapshot missed a change");
+            check(after.getColor(99, 99) == PlaceColor.GREEN.getNumber(), name + " new snapshot missed a tile");
+            check(before.getVersion() < after.getVersion(), name + " versions");
+            //a chunk that did not change between the snapshots is shared by both
+            check(before.getChunk(1) == after.getChunk(1), name + " unchanged chunk was not shared");
+            check(before.getChunk(0) != after.getChunk(0), name + " changed chunk was shared");
+        }
+
+        ConcurrentPlaceBoard board = new ConcurrentPlaceBoard(256);
+        BoardSnapshot blank = board.snapshot();
+        Thread writer = new Thread(() -> {
+            for(int pass = 0; pass < 4; pass++){
+                for(int row = 0; row < 256; row++){
+                    for(int col = 0; col < 256; col++){
+                        board.setTile(new PlaceTile(row, col, -1, "ann", PlaceColor.values()[pass + 4], pass + 1));
+                    }
+                }
+            }
+        });
+        writer.start();
+        while(writer.isAlive()){
+            for(int row = 0; row < 256; row += 3){
+                for(int col = 0; col < 256; col += 5){
+                    check(blank.getColor(row, col) == PlaceColor.WHITE.getNumber() && blank.getOwner(row, col) == 0
+                            && blank.getTime(row, col) == 0, "snapshot saw a change made while it was read");
+                }
+            }
+        }
+        writer.join();
+        check(board.snapshot().getColor(255, 255) == PlaceColor.values()[7].getNumber(), "last change");
+        System.out.println("BoardSnapshotTest passed");
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package place.network;
+
+import place.ArrayTileStore;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+import place.UserDictionary;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that the PlaceRequestCodec and BoardCodec read back what they wrote, and that a frame with a truncated,
+ * negative or oversized length is refused with an IOException rather than any other exception
+ */
+public class PlaceRequestCodecTest {
+    public static void main(String[] args) throws IOException{
+        roundTrips();
+        badLengths();
+        truncated();
+        fuzz();
+        badBoards();
+        System.out.println("PlaceRequestCodecTest passed");
+    }
+
+    /**
+     * Every request with a length field decodes to what was encoded
+     */
+    private static void roundTrips() throws IOException{
+        UserDictionary.Delta users = new UserDictionary.Delta(3, new String[]{"ann", "bob"});
+        UserDictionary.Delta decodedUsers = (UserDictionary.Delta) decode(encode(PlaceRequest.RequestType.USERS, users)).getData();
+        check(decodedUsers.getFirstId() == 3 && decodedUsers.getNames().length == 2
+                && decodedUsers.getNames()[1].equals("bob"), "USERS");
+
+        TileBatch batch = new TileBatch();
+        batch.add(1, 2, PlaceColor.RED.getNumber(), 4, 1000L);
+        batch.add(5, 6, PlaceColor.BLUE.getNumber(), 7, 900L);
+        batch.setSequence(42);
+        TileBatch decodedBatch = (TileBatch) decode(encode(PlaceRequest.RequestType.TILE_BATCH, batch)).getData();
+        check(decodedBatch.size() == 2 && decodedBatch.getSequence() == 42 && decodedBatch.getTime(1) == 900L
+                && decodedBatch.getOwner(1) == 7, "TILE_BATCH");
+
+        TileBatch changes = new TileBatch();
+        changes.add(3, 4, PlaceColor.GREEN.getNumber(), -1, 0L);
+        TileBatch decodedChanges = (TileBatch) decode(encode(PlaceRequest.RequestType.CHANGE_TILES, changes)).getData();
+        check(decodedChanges.size() == 1 && decodedChanges.getCol(0) == 4, "CHANGE_TILES");
+    }
+
+    /**
+     * A count or id read back negative (the varint 0xFFFFFFFF), or larger than the rest of the frame, is refused
+     */
+    private static void badLengths(){
+        int users = typeOf(PlaceRequest.RequestType.USERS);
+        int tileBatch = typeOf(PlaceRequest.RequestType.TILE_BATCH);
+        int changeTiles = typeOf(PlaceRequest.RequestType.CHANGE_TILES);
+
+        ByteWriter out = new ByteWriter(16);
+        out.writeByte(users);
+        out.writeVarInt(0);
+        out.writeVarInt(-1);
+        refused(out.toByteArray(), "USERS with a negative count");
+
+        out = new ByteWriter(16);
+        out.writeByte(users);
+        out.writeVarInt(-1);
+        out.writeVarInt(0);
+        refused(out.toByteArray(), "USERS with a negative first id");
+
+        out = new ByteWriter(16);
+        out.writeByte(users);
+        out.writeVarInt(0);
+        out.writeVarInt(1000);
+        out.writeByte(0);
+        refused(out.toByteArray(), "USERS with more names than bytes");
+
+        out = new ByteWriter(16);
+        out.writeByte(tileBatch);
+        out.writeVarLong(1);
+        out.writeVarInt(-1);
+        refused(out.toByteArray(), "TILE_BATCH with a negative size");
+
+        out = new ByteWriter(16);
+        out.writeByte(tileBatch);
+        out.writeVarLong(1);
+        out.writeVarInt(Integer.MAX_VALUE);
+        refused(out.toByteArray(), "TILE_BATCH with more tiles than bytes");
+
+        out = new ByteWriter(16);
+        out.writeByte(changeTiles);
+        out.writeVarInt(-1);
+        refused(out.toByteArray(), "CHANGE_TILES with a negative size");
+
+        out = new ByteWriter(16);
+        out.writeByte(changeTiles);
+        out.writeVarInt(1 << 20);
+        refused(out.toByteArray(), "CHANGE_TILES with more tiles than bytes");
+
+        out = new ByteWriter(16);
+        out.writeByte(typeOf(PlaceRequest.RequestType.ERROR));
+        out.writeVarInt(-1);
+        refused(out.toByteArray(), "a string with a negative length");
+    }
+
+    /**
+     * Every frame cut short is refused
+     */
+    private static void truncated(){
+        TileBatch batch = new TileBatch();
+        batch.add(1, 2, PlaceColor.RED.getNumber(), 4, 1000L);
+        byte[][] bodies = {
+                encode(PlaceRequest.RequestType.USERS, new UserDictionary.Delta(1, new String[]{"ann", "bob"})),
+                encode(PlaceRequest.RequestType.TILE_BATCH, batch),
+                encode(PlaceRequest.RequestType.CHANGE_TILES, batch),
+                encode(PlaceRequest.RequestType.TILE_CHANGED, tile()),
+                encode(PlaceRequest.RequestType.LOGIN, "ann"),
+        };
+        for(byte[] body : bodies){
+            for(int length = 0; length < body.length; length++){
+                try {
+                    PlaceRequestCodec.decode(body, 0, length);
+                    throw new AssertionError("a " + length + " byte prefix of a " + body.length + " byte frame decoded");
+                }catch(IOException e){
+                    //refused, as it should be
+                }
+            }
+        }
+    }
+
+    /**
+     * Random frames of every type either decode or are refused with an IOException
+     */
+    private static void fuzz(){
+        Random random = new Random(1);
+        byte[] body = new byte[24];
+        for(int i = 0; i < 200000; i++){
+            random.nextBytes(body);
+            body[0] &= 0x7F; //compressed frames are refused by the server before their length is read
+            int length = 1 + random.nextInt(body.length);
+            try {
+                PlaceRequestCodec.decode(body, 0, length);
+            }catch(IOException e){
+                //refused, as it should be
+            }catch(RuntimeException e){
+                throw new AssertionError("a random frame threw " + e, e);
+            }
+        }
+    }
+
+    /**
+     * An encoded board reads back, and one with a bad dimension or cut short is refused
+     */
+    private static void badBoards() throws IOException{
+        PlaceBoard board = new PlaceBoard(new ArrayTileStore(40), new UserDictionary());
+        board.setTile(new PlaceTile(39, 39, -1, "ann", PlaceColor.PURPLE, 5L));
+        byte[] bytes = BoardCodec.encode(board.snapshot());
+        PlaceBoard decoded = new PlaceBoard(BoardCodec.decode(bytes));
+        check(decoded.getTile(39, 39).getColor() == PlaceColor.PURPLE
+                && "ann".equals(decoded.getTile(39, 39).getOwner()), "board round trip");
+
+        for(int length = 0; length < bytes.length; length++){
+            try {
+                BoardCodec.decode(Arrays.copyOf(bytes, length));
+                throw new AssertionError("a " + length + " byte prefix of a board decoded");
+            }catch(IOException e){
+                //refused, as it should be
+            }
+        }
+
+        ByteWriter out = new ByteWriter(16);
+        out.writeByte(bytes[0]);
+        out.writeVarInt(-1);
+        out.writeVarLong(0);
+        out.writeVarInt(PlaceBoard.CHUNK_SIZE);
+        refusedBoard(out.toByteArray(), "a board with a negative dimension");
+
+        out = new ByteWriter(16);
+        out.writeByte(bytes[0]);
+        out.writeVarInt(1 << 30);
+        out.writeVarLong(0);
+        out.writeVarInt(PlaceBoard.CHUNK_SIZE);
+        out.writeVarInt(1);
+        refusedBoard(out.toByteArray(), "a board bigger than its bytes");
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Fails the test unless a frame body is refused with an IOException
+     * @param body the frame body
+     * @param what the frame, for the message
+     */
+    private static void refused(byte[] body, String what){
+        try {
+            PlaceRequestCodec.decode(body, 0, body.length);
+        }catch(IOException e){
+            return;
+        }catch(RuntimeException e){
+            throw new AssertionError(what + " threw " + e, e);
+        }
+        throw new AssertionError(what + " decoded");
+    }
+
+    /**
+     * Fails the test unless an encoded board is refused with an IOException
+     * @param bytes the encoded board
+     * @param what the board, for the message
+     */
+    private static void refusedBoard(byte[] bytes, String what){
+        try {
+            BoardCodec.decode(bytes);
+        }catch(IOException e){
+            return;
+        }catch(RuntimeException e){
+            throw new AssertionError(what + " threw " + e, e);
+        }
+        throw new AssertionError(what + " decoded");
+    }
+
+    /**
+     * Encodes a request as a frame body
+     * @param type the request type
+     * @param data the request data
+     * @return the body, without its length
+     */
+    private static byte[] encode(PlaceRequest.RequestType type, Serializable data){
+        return PlaceRequestCodec.encode(new PlaceRequest<>(type, data));
+    }
+
+    /**
+     * Decodes a whole frame body
+     * @param body the body
+     * @return the request
+     * @throws IOException if the body is refused
+     */
+    private static PlaceRequest<?> decode(byte[] body) throws IOException{
+        return PlaceRequestCodec.decode(body, 0, body.length);
+    }
+
+    /**
+     * The type byte of a request type
+     * @param type the request type
+     * @return the first byte of its frame body
+     */
+    private static int typeOf(PlaceRequest.RequestType type){
+        Serializable data = type == PlaceRequest.RequestType.ERROR ? "" : null;
+        if(type == PlaceRequest.RequestType.USERS){
+            data = new UserDictionary.Delta(1, new String[0]);
+        }else if(type == PlaceRequest.RequestType.TILE_BATCH || type == PlaceRequest.RequestType.CHANGE_TILES){
+            data = new TileBatch();
+        }
+        return encode(type, data)[0];
+    }
+
+    /**
+     * Makes a change the way the server sends it
+     * @return the tile
+     */
+    private static PlaceTile tile(){
+        PlaceTile t = new PlaceTile(1, 2, 3, null, PlaceColor.RED, 4L);
+        t.setSequence(5);
+        return t;
+    }
+}
@@ -0,0 +1,144 @@
+package place.server;
+
+import place.ConcurrentPlaceBoard;
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that a board reloaded from a BoardCheckpoint and the log segments after it is the board that was
+ * checkpointed, that a checkpoint clears the dirty flags of the chunks it writes and deletes the segments it makes
+ * unnecessary, and that an idle board is not checkpointed again
+ */
+public class BoardCheckpointTest {
+    private static final int DIM = 100; //four chunks, the last ones smaller
+
+    public static void main(String[] args) throws IOException{
+        File dir = Files.createTempDirectory("checkpoint").toFile();
+        String path = new File(dir, "log").getPath();
+        try {
+            checkpointAndReload(path);
+        }finally {
+            for(File file : dir.listFiles()){
+                file.delete();
+            }
+            dir.delete();
+        }
+        System.out.println("BoardCheckpointTest passed");
+    }
+
+    /**
+     * Checkpoints a board, changes it again, and reloads it the way the PlaceServer does after a crash and after a
+     * clean shutdown
+     * @param path the log file
+     * @throws IOException if a file cannot be opened
+     */
+    private static void checkpointAndReload(String path) throws IOException{
+        PlaceBoard board = new ConcurrentPlaceBoard(DIM);
+        BoardCheckpoint checkpoint = new BoardCheckpoint(path + ".checkpoint", board);
+        WriteAheadLog log = new WriteAheadLog(path, board, checkpoint.getSegment(), WriteAheadLog.Durability.WRITE,
+                5, 1024);
+        checkpoint.start(log, 3600); //checkpointed by hand below
+        change(board, log, 1, 1, PlaceColor.RED);
+        change(board, log, 99, 99, PlaceColor.BLUE); //the last, smaller chunk
+        change(board, log, 1, 1, PlaceColor.GREEN);
+
+        checkpoint.checkpoint();
+        for(int chunk = 0; chunk < board.getChunksPerSide() * board.getChunksPerSide(); chunk++){
+            check(!board.isDirty(chunk), "chunk " + chunk + " is still dirty after a checkpoint");
+        }
+        check(!new File(path).exists() && new File(path + ".1").exists(), "the checkpointed segment was kept");
+        checkpoint.checkpoint();
+        check(!new File(path + ".2").exists(), "an idle board was checkpointed again");
+
+        change(board, log, 70, 2, PlaceColor.YELLOW); //a chunk the checkpoint did not have
+        change(board, log, 99, 99, PlaceColor.BLACK); //a tile it did have
+        check(board.isDirty(board.getChunk(70, 2)), "a change did not mark its chunk dirty");
+        log.close(); //a crash: the checkpointer never writes these
+
+        PlaceBoard crashed = reload(path);
+        check(same(board, crashed), "the board reloaded after a crash differs");
+
+        board = new ConcurrentPlaceBoard(DIM);
+        checkpoint = new BoardCheckpoint(path + ".checkpoint", board);
+        log = new WriteAheadLog(path, board, checkpoint.getSegment(), WriteAheadLog.Durability.WRITE, 5, 1024);
+        checkpoint.start(log, 3600);
+        checkpoint.close(); //a clean shutdown writes one last checkpoint
+        log.close();
+        check(new File(path).getParentFile().list((d, name) -> name.startsWith("log.")
+                && !name.endsWith(".checkpoint")).length == 1, "a clean shutdown left old segments");
+
+        PlaceBoard reloaded = reload(path);
+        check(same(board, reloaded), "the board reloaded after a clean shutdown differs");
+        check(reloaded.getTile(70, 2).getColor() == PlaceColor.YELLOW
+                && reloaded.getTile(99, 99).getColor() == PlaceColor.BLACK
+                && reloaded.getTile(1, 1).getColor() == PlaceColor.GREEN, "reloaded tiles");
+    }
+
+    /**
+     * Loads a board the way the PlaceServer does: from the checkpoint, then the log segments after it
+     * @param path the log file
+     * @return the board
+     * @throws IOException if a file cannot be opened
+     */
+    private static PlaceBoard reload(String path) throws IOException{
+        PlaceBoard board = new ConcurrentPlaceBoard(DIM);
+        BoardCheckpoint checkpoint = new BoardCheckpoint(path + ".checkpoint", board);
+        WriteAheadLog log = new WriteAheadLog(path, board, checkpoint.getSegment(), WriteAheadLog.Durability.WRITE,
+                5, 1024);
+        log.close();
+        checkpoint.close();
+        return board;
+    }
+
+    /**
+     * Changes a tile and logs it, as the NetworkServer does
+     * @param board the board
+     * @param log the log
+     * @param row the row
+     * @param col the column
+     * @param color the color
+     */
+    private static void change(PlaceBoard board, WriteAheadLog log, int row, int col, PlaceColor color){
+        PlaceTile t = new PlaceTile(row, col, 1, null, color, System.currentTimeMillis());
+        t.setSequence(board.setTile(t));
+        log.append(t);
+        log.awaitDurable();
+    }
+
+    /**
+     * Tells whether two boards hold the same tiles
+     * @param a a board
+     * @param b another board
+     * @return true if every tile has the same color, owner and time
+     */
+    private static boolean same(PlaceBoard a, PlaceBoard b){
+        for(int row = 0; row < DIM; row++){
+            for(int col = 0; col < DIM; col++){
+                PlaceTile x = a.getTile(row, col);
+                PlaceTile y = b.getTile(row, col);
+                if(x.getColor() != y.getColor() || x.getOwnerId() != y.getOwnerId() || x.getTime() != y.getTime()){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.ResumePoint;
+import place.TileBatch;
+import place.UserDictionary;
+import place.network.Frame;
+import place.network.PlaceRequest;
+import place.network.RequestWriter;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that a ChangeHistory gives up on changes it has a gap in or no longer holds, and that a client resuming
+ * from a change still in the history is caught up with the usernames and changes it missed instead of a BOARD
+ */
+public class ChangeHistoryTest {
+    private static final RequestWriter NOWHERE = new RequestWriter(){
+        @Override
+        public void write(PlaceRequest<?> request){
+            //every request goes through the client's queue, which the test reads instead
+        }
+
+        @Override
+        public void flush(){
+        }
+
+        @Override
+        public void close(){
+        }
+    };
+
+    public static void main(String[] args){
+        gapsAndOverwrites();
+        resume();
+        System.out.println("ChangeHistoryTest passed");
+    }
+
+    /**
+     * since() gives the changes after a sequence number only while all of them are held
+     */
+    private static void gapsAndOverwrites(){
+        ChangeHistory history = new ChangeHistory(4, 100);
+        check(history.since(100).size() == 0, "an empty history is not caught up with itself");
+        check(history.since(101) == null, "a sequence number the history never reached was caught up");
+
+        history.add(tile(0, 1, PlaceColor.RED, 101));
+        history.add(tile(0, 2, PlaceColor.BLUE, 102));
+        TileBatch batch = history.since(100);
+        check(batch.size() == 2 && batch.getFirstSequence() == 101 && batch.getSequence() == 102
+                && batch.getCol(1) == 2 && batch.getColor(1) == PlaceColor.BLUE.getNumber(), "in order");
+
+        history.add(tile(0, 4, PlaceColor.GREEN, 104)); //103 is still being added by another shard
+        check(history.since(100) == null && history.since(102) == null, "caught up over a gap");
+        check(history.since(104).size() == 0, "the latest change is not caught up with itself");
+        history.add(tile(0, 3, PlaceColor.YELLOW, 103));
+        batch = history.since(102);
+        check(batch != null && batch.size() == 2 && batch.getCol(0) == 3 && batch.getCol(1) == 4, "gap filled");
+
+        history.add(tile(0, 5, PlaceColor.BLACK, 105)); //overwrites 101
+        check(history.since(100) == null, "caught up from an overwritten change");
+        batch = history.since(101);
+        check(batch != null && batch.size() == 4 && batch.getFirstSequence() == 102, "the oldest changes held");
+        check(history.since(99) == null, "caught up from before the history started");
+    }
+
+    /**
+     * A client resuming from a change in the history gets a USERS and a TILE_BATCH of what it missed; one resuming
+     * from a change the history dropped, or never had, gets a BOARD
+     */
+    private static void resume(){
+        NetworkServer server = new NetworkServer(8);
+        PlaceRequest<String> login = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN, "ann");
+        ClientConnection ann = server.login(new Socket(), NOWHERE, login);
+        server.sendStateToClient(ann, login);
+        check(types(drain(ann.getQueue())).contains(PlaceRequest.RequestType.BOARD), "ann got no BOARD");
+
+        server.updateBoard(ann, tile(1, 1, PlaceColor.RED, 0), null);
+        List<Frame> sent = drain(ann.getQueue());
+        long seen = ((PlaceTile) sent.get(sent.size() - 1).getRequest().getData()).getSequence();
+        int users = server.getDictionary().size();
+        server.updateBoard(ann, tile(2, 2, PlaceColor.BLUE, 0), null);
+        server.updateBoard(ann, tile(3, 3, PlaceColor.GREEN, 0), null);
+
+        List<Frame> bob = resumeAs(server, "bob", seen, users);
+        check(types(bob).equals(List.of(PlaceRequest.RequestType.LOGIN_SUCCESS, PlaceRequest.RequestType.USERS,
+                PlaceRequest.RequestType.TILE_BATCH)), "bob resumed with " + types(bob));
+        UserDictionary.Delta delta = (UserDictionary.Delta) bob.get(1).getRequest().getData();
+        check(delta.getFirstId() == users && delta.getNames()[0].equals("bob"), "bob missed no username");
+        TileBatch missed = (TileBatch) bob.get(2).getRequest().getData();
+        check(missed.size() == 2 && missed.getFirstSequence() == seen + 1 && missed.getRow(0) == 2
+                && missed.getRow(1) == 3 && missed.getColor(1) == PlaceColor.GREEN.getNumber(), "bob's changes");
+
+        check(types(resumeAs(server, "cid", seen + 1000, users)).contains(PlaceRequest.RequestType.BOARD),
+                "a client from a sequence number never reached was not sent a BOARD");
+
+        server.setHistory(2);
+        for(int col = 0; col < 3; col++){
+            server.updateBoard(ann, tile(4, col, PlaceColor.PURPLE, 0), null);
+        }
+        List<Frame> dan = resumeAs(server, "dan", seen + 2, server.getDictionary().size());
+        check(types(dan).contains(PlaceRequest.RequestType.BOARD)
+                && !types(dan).contains(PlaceRequest.RequestType.TILE_BATCH), "dan resumed from a dropped change");
+    }
+
+    /**
+     * Logs a client in with a LOGIN_RESUME and brings it up to date
+     * @param server the server
+     * @param username the client's username
+     * @param sequence the last change the client saw
+     * @param userCount the usernames the client knows
+     * @return every frame the client was sent
+     */
+    private static List<Frame> resumeAs(NetworkServer server, String username, long sequence, int userCount){
+        PlaceRequest<ResumePoint> login = new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_RESUME,
+                new ResumePoint(username, sequence, userCount));
+        ClientConnection client = server.login(new Socket(), NOWHERE, login);
+        server.sendStateToClient(client, login);
+        return drain(client.getQueue());
+    }
+
+    /**
+     * Takes every frame waiting in a queue
+     * @param queue the queue
+     * @return the frames, with a resync made into its BOARD
+     */
+    private static List<Frame> drain(OutboundQueue queue){
+        List<Frame> frames = new ArrayList<>();
+        Frame frame;
+        while((frame = queue.poll()) != null){
+            frames.add(OutboundQueue.isResync(frame) ? queue.makeResync() : frame);
+        }
+        return frames;
+    }
+
+    /**
+     * The types of some frames
+     * @param frames the frames
+     * @return their request types, in order
+     */
+    private static List<PlaceRequest.RequestType> types(List<Frame> frames){
+        List<PlaceRequest.RequestType> types = new ArrayList<>();
+        for(Frame frame : frames){
+            types.add(frame.getRequest().getType());
+        }
+        return types;
+    }
+
+    /**
+     * Makes a change
+     * @param row the row
+     * @param col the column
+     * @param color the color
+     * @param sequence its sequence number, 0 for one the server has not numbered yet
+     * @return the tile
+     */
+    private static PlaceTile tile(int row, int col, PlaceColor color, long sequence){
+        PlaceTile t = new PlaceTile(row, col, 1, null, color, 0L);
+        t.setSequence(sequence);
+        return t;
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}
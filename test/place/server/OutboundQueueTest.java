@@ -0,0 +1,178 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+import place.UserDictionary;
+import place.network.Frame;
+import place.network.PlaceRequest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks what an OutboundQueue does when it is full under each OverflowPolicy, and that a held queue lets through
+ * only the changes the state it is released with does not cover, after that state
+ */
+public class OutboundQueueTest {
+    private static final Frame BOARD = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.BOARD, new byte[0]));
+
+    public static void main(String[] args) throws InterruptedException{
+        disconnect();
+        resync();
+        coalesce();
+        holdAndRelease();
+        heldOverflow();
+        System.out.println("OutboundQueueTest passed");
+    }
+
+    /**
+     * A full queue under DISCONNECT refuses the frame and closes
+     */
+    private static void disconnect(){
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT, () -> BOARD);
+        int[] told = new int[1];
+        queue.setListener(() -> told[0]++);
+        check(queue.offer(changed(0, 0, 1)) && queue.offer(changed(0, 1, 2)),
+                "DISCONNECT refused a frame it had room for");
+        check(told[0] == 1, "the listener was told " + told[0] + " times the queue stopped being empty");
+        check(!queue.offer(changed(0, 2, 3)), "DISCONNECT took a frame past its capacity");
+        check(queue.isClosed() && queue.getOverflows() == 1 && queue.poll() == null, "DISCONNECT did not close");
+        check(told[0] == 2, "the listener was not told the queue closed");
+        check(!queue.offer(changed(0, 3, 4)), "a closed queue took a frame");
+    }
+
+    /**
+     * A full queue under RESYNC drops what it holds for a BOARD, which poll leaves to the caller and take makes
+     */
+    private static void resync() throws InterruptedException{
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.RESYNC, () -> BOARD);
+        Frame last = changed(0, 2, 3);
+        queue.offer(changed(0, 0, 1));
+        queue.offer(changed(0, 1, 2));
+        check(queue.offer(last), "RESYNC refused a frame");
+        check(queue.getOverflows() == 1 && queue.getDepth() == 2, "RESYNC depth " + queue.getDepth());
+        Frame first = queue.poll();
+        check(OutboundQueue.isResync(first) && queue.makeResync() == BOARD, "RESYNC did not start with a BOARD");
+        check(queue.poll() == last && queue.poll() == null, "RESYNC lost the frame that overflowed it");
+
+        queue.offer(changed(1, 0, 4));
+        queue.offer(changed(1, 1, 5));
+        queue.offer(changed(1, 2, 6));
+        check(queue.take() == BOARD, "take did not make the BOARD of a resync");
+    }
+
+    /**
+     * A full queue under COALESCE drops tile changes that a later one overwrites, and resyncs if there are none
+     */
+    private static void coalesce(){
+        OutboundQueue queue = new OutboundQueue(3, OutboundQueue.OverflowPolicy.COALESCE, () -> BOARD);
+        Frame users = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.USERS,
+                new UserDictionary.Delta(1, new String[]{"ann"})));
+        Frame again = changed(0, 0, 3);
+        Frame other = changed(5, 5, 4);
+        queue.offer(changed(0, 0, 1));
+        queue.offer(users);
+        queue.offer(again);
+        check(queue.offer(other), "COALESCE refused a frame");
+        check(queue.getOverflows() == 1 && queue.getDepth() == 3, "COALESCE depth " + queue.getDepth());
+        check(queue.poll() == users && queue.poll() == again && queue.poll() == other,
+                "COALESCE kept the wrong frames or changed their order");
+
+        queue.offer(changed(1, 0, 5));
+        queue.offer(changed(1, 1, 6));
+        queue.offer(changed(1, 2, 7));
+        queue.offer(changed(1, 3, 8));
+        check(OutboundQueue.isResync(queue.poll()), "COALESCE with nothing to drop did not resync");
+        check(queue.getDepth() == 1, "COALESCE kept " + queue.getDepth() + " frames after a resync");
+    }
+
+    /**
+     * A held queue keeps back what is offered, and on release sends the state first, then the frames kept back
+     * that the state does not cover, in the order they were offered
+     */
+    private static void holdAndRelease(){
+        OutboundQueue queue = new OutboundQueue(16, OutboundQueue.OverflowPolicy.DISCONNECT, () -> BOARD);
+        Frame before = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.LOGIN_SUCCESS, "ann"));
+        queue.offer(before);
+        queue.hold();
+        Frame covered = changed(0, 0, 5);
+        Frame atVersion = changed(0, 1, 7);
+        Frame coveredBatch = batch(6, 6);
+        Frame later = changed(0, 2, 8);
+        Frame endsLater = batch(7, 9); //starts inside the state but ends after it, so it is kept whole
+        Frame users = new Frame(new PlaceRequest<>(PlaceRequest.RequestType.USERS,
+                new UserDictionary.Delta(1, new String[]{"ann"})));
+        for(Frame frame : new Frame[]{covered, atVersion, coveredBatch, later, endsLater, users}){
+            check(queue.offer(frame), "a held queue refused a frame");
+        }
+        check(queue.poll() == before && queue.poll() == null, "a held queue let a frame through");
+        check(queue.getDepth() == 6, "held depth " + queue.getDepth());
+
+        queue.release(Collections.singletonList(BOARD), 7);
+        List<Frame> expected = List.of(BOARD, later, endsLater, users);
+        for(Frame frame : expected){
+            check(queue.poll() == frame, "release sent the frames in the wrong order, or ones the state covers");
+        }
+        check(queue.poll() == null, "release sent a frame the state covers");
+
+        queue.release(Collections.singletonList(BOARD), 7);
+        check(queue.poll() == null, "a queue that is not held was released again");
+    }
+
+    /**
+     * A held queue that fills up is resynced, whatever its policy, and never disconnected
+     */
+    private static void heldOverflow(){
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DISCONNECT, () -> BOARD);
+        queue.hold();
+        Frame last = changed(0, 9, 9);
+        queue.offer(changed(0, 0, 1));
+        queue.offer(changed(0, 1, 2));
+        check(queue.offer(last) && !queue.isClosed(), "a held queue was disconnected");
+        queue.release(Collections.singletonList(BOARD), 0);
+        check(queue.poll() == BOARD && OutboundQueue.isResync(queue.poll()) && queue.poll() == last,
+                "a held queue that overflowed was not resynced");
+    }
+
+    /**
+     * Makes the TILE_CHANGED of a change
+     * @param row the row
+     * @param col the column
+     * @param sequence the change's sequence number
+     * @return the frame
+     */
+    private static Frame changed(int row, int col, long sequence){
+        PlaceTile t = new PlaceTile(row, col, 1, null, PlaceColor.RED, sequence);
+        t.setSequence(sequence);
+        return new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_CHANGED, t));
+    }
+
+    /**
+     * Makes a TILE_BATCH covering a run of sequence numbers
+     * @param first the first sequence number
+     * @param last the last sequence number
+     * @return the frame
+     */
+    private static Frame batch(long first, long last){
+        TileBatch batch = new TileBatch();
+        for(long sequence = first; sequence <= last; sequence++){
+            batch.add((int) sequence, 0, PlaceColor.BLUE.getNumber(), 1, sequence);
+        }
+        batch.setSequence(last);
+        return new Frame(new PlaceRequest<>(PlaceRequest.RequestType.TILE_BATCH, batch));
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package place.server;
+
+import place.PlaceException;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that the RateLimiter grants each user at most its burst at once and refills at its rate, that it tells a
+ * user who ran out when the next tile is allowed, and that a rate or burst that would break it is refused, by the
+ * RateLimiter and by ServerConfig
+ */
+public class RateLimiterTest {
+    public static void main(String[] args) throws InterruptedException{
+        burst();
+        refill();
+        badSettings();
+        System.out.println("RateLimiterTest passed");
+    }
+
+    /**
+     * A user gets its burst at once, then nothing until a token is earned, and other users are not affected
+     */
+    private static void burst(){
+        RateLimiter limiter = new RateLimiter(1, 5);
+        long before = System.currentTimeMillis();
+        check(limiter.nextAllowed("ann") >= before && limiter.nextAllowed("ann") <= System.currentTimeMillis(),
+                "a user who never changed a tile has to wait");
+        check(limiter.acquire("ann", 10) == 5, "more than the burst was granted");
+        check(limiter.acquire("ann", 1) == 0, "a tile was granted right after the burst");
+        check(limiter.acquire("ann", 0) == 0, "no tiles wanted but some granted");
+        long next = limiter.nextAllowed("ann");
+        check(next > before && next <= System.currentTimeMillis() + 1000, "the next tile is allowed at " + next);
+        check(limiter.acquire("bob", 3) == 3 && limiter.acquire("bob", 3) == 2,
+                "one user's tiles were counted for another");
+    }
+
+    /**
+     * Tokens come back at the rate, up to the burst
+     */
+    private static void refill() throws InterruptedException{
+        RateLimiter limiter = new RateLimiter(100, 2);
+        check(limiter.acquire("ann", 2) == 2, "the burst was not granted");
+        Thread.sleep(100); //ten tokens' worth, of which the bucket holds two
+        check(limiter.acquire("ann", 10) == 2, "the bucket did not refill to its burst");
+        long next = limiter.nextAllowed("ann");
+        check(next <= System.currentTimeMillis() + 10, "a tile takes longer than 10 ms to earn, next at " + next);
+    }
+
+    /**
+     * A rate that is not a positive number is refused, and ServerConfig refuses out-of-range options with USAGE
+     */
+    private static void badSettings(){
+        for(double rate : new double[]{0, -1, Double.NaN, Double.POSITIVE_INFINITY}){
+            try {
+                new RateLimiter(rate, 10);
+                throw new AssertionError("a RateLimiter took the rate " + rate);
+            }catch(IllegalArgumentException e){
+                //refused, as it should be
+            }
+        }
+        String[][] bad = {{"-rate", "0"}, {"-rate", "NaN"}, {"-burst", "0"}, {"-loops", "0"}, {"-queue", "0"},
+                {"-shards", "-1"}, {"-ring", "-1"}, {"-checkpoint", "-1"}, {"-tick", "-5"}, {"-commit", "0"}};
+        for(String[] option : bad){
+            try {
+                ServerConfig.parse(new String[]{"5000", "64", option[0], option[1]});
+                throw new AssertionError("ServerConfig took " + option[0] + " " + option[1]);
+            }catch(PlaceException e){
+                check(e.getMessage().contains(ServerConfig.USAGE), "no usage for " + option[0] + " " + option[1]);
+            }
+        }
+        try {
+            ServerConfig config = ServerConfig.parse(new String[]{"5000", "64", "-rate", "0.5", "-burst", "1"});
+            check(config.getRate() == 0.5 && config.getBurst() == 1, "the rate and burst given");
+        }catch(PlaceException e){
+            throw new AssertionError("ServerConfig refused a valid rate: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}
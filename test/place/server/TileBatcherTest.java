@@ -0,0 +1,73 @@
+package place.server;
+
+import place.PlaceColor;
+import place.PlaceTile;
+import place.TileBatch;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that a TileBatcher handed changes out of sequence order still sends a batch covering the lowest and the
+ * highest sequence number, and keeps the latest change of a tile
+ */
+public class TileBatcherTest {
+    public static void main(String[] args) throws InterruptedException{
+        CountDownLatch sent = new CountDownLatch(1);
+        TileBatch[] batches = new TileBatch[1];
+        NetworkServer networkServer = new NetworkServer(8){
+            @Override
+            public void sendTileBatchToAllClients(TileBatch batch){
+                batches[0] = batch;
+                sent.countDown();
+            }
+        };
+        TileBatcher batcher = new TileBatcher(networkServer, 50);
+        //added the way applying threads can finish, not the way the board numbered them
+        batcher.add(tile(0, 0, PlaceColor.RED, 5));
+        batcher.add(tile(1, 1, PlaceColor.BLUE, 3));
+        batcher.add(tile(2, 2, PlaceColor.GREEN, 9));
+        batcher.add(tile(2, 2, PlaceColor.YELLOW, 7)); //older than the change it follows
+        batcher.start();
+        check(sent.await(5, TimeUnit.SECONDS), "no batch was sent");
+        batcher.close();
+
+        TileBatch batch = batches[0];
+        check(batch.getFirstSequence() == 3, "first sequence " + batch.getFirstSequence());
+        check(batch.getSequence() == 9, "sequence " + batch.getSequence());
+        check(batch.size() == 3, "size " + batch.size());
+        for(int i = 0; i < batch.size(); i++){
+            if(batch.getRow(i) == 2){
+                check(batch.getColor(i) == PlaceColor.GREEN.getNumber(), "kept the older change of tile 2,2");
+            }
+        }
+        System.out.println("TileBatcherTest passed");
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Makes a change the way the NetworkServer records it
+     * @param row the row
+     * @param col the column
+     * @param color the color
+     * @param sequence the board version of the change
+     * @return the tile
+     */
+    private static PlaceTile tile(int row, int col, PlaceColor color, long sequence){
+        PlaceTile t = new PlaceTile(row, col, 1, null, color, sequence);
+        t.setSequence(sequence);
+        return t;
+    }
+}
@@ -0,0 +1,104 @@
+package place.server;
+
+import place.PlaceBoard;
+import place.PlaceColor;
+import place.PlaceTile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+/**
+ * AUTHOR: BENJAMIN GLOGER
+ *
+ * Checks that a WriteAheadLog replays every whole block after a restart, and that a block torn by a crash, short or
+ * failing its CRC, is ignored and cut off so the changes logged after the restart are replayed too
+ */
+public class WriteAheadLogTest {
+    public static void main(String[] args) throws IOException{
+        File dir = Files.createTempDirectory("wal").toFile();
+        try {
+            tornBlocks(new File(dir, "short").getPath(), false);
+            tornBlocks(new File(dir, "crc").getPath(), true);
+        }finally {
+            for(File file : dir.listFiles()){
+                file.delete();
+            }
+            dir.delete();
+        }
+        System.out.println("WriteAheadLogTest passed");
+    }
+
+    /**
+     * Logs changes, tears the last block the way a crash would, and restarts twice
+     * @param path the log file
+     * @param isWhole true for a torn block that is all there but fails its CRC, false for one cut short
+     * @throws IOException if the log cannot be opened
+     */
+    private static void tornBlocks(String path, boolean isWhole) throws IOException{
+        WriteAheadLog log = new WriteAheadLog(path, null, WriteAheadLog.Durability.WRITE, 5, 1024);
+        append(log, tile(1, 1, PlaceColor.RED, 1));
+        append(log, tile(2, 2, PlaceColor.BLUE, 2));
+        append(log, tile(1, 1, PlaceColor.GREEN, 3));
+        log.close();
+        long good = new File(path).length();
+
+        try(RandomAccessFile file = new RandomAccessFile(path, "rw")){
+            file.seek(good);
+            file.writeInt(2 * WriteAheadLog.RECORD_SIZE);
+            file.writeInt(0xBAD);
+            file.write(new byte[isWhole ? 2 * WriteAheadLog.RECORD_SIZE : WriteAheadLog.RECORD_SIZE + 3]);
+        }
+
+        PlaceBoard board = new PlaceBoard(8);
+        log = new WriteAheadLog(path, board, WriteAheadLog.Durability.WRITE, 5, 1024);
+        check(new File(path).length() == good, "the torn block was not cut off");
+        check(board.getTile(1, 1).getColor() == PlaceColor.GREEN && board.getTime(1, 1) == 3
+                && board.getTile(2, 2).getColor() == PlaceColor.BLUE, "the whole blocks were not replayed");
+        check(board.getTile(0, 0).getColor() == PlaceColor.WHITE, "the torn block was replayed");
+        append(log, tile(3, 3, PlaceColor.YELLOW, 4));
+        log.close();
+
+        board = new PlaceBoard(8);
+        log = new WriteAheadLog(path, board, WriteAheadLog.Durability.WRITE, 5, 1024);
+        log.close();
+        check(board.getTile(1, 1).getColor() == PlaceColor.GREEN && board.getTile(3, 3).getColor() == PlaceColor.YELLOW,
+                "a change logged after the torn block was cut off was lost");
+    }
+
+    /**
+     * Logs a change and waits for it to be on disk
+     * @param log the log
+     * @param t the change
+     */
+    private static void append(WriteAheadLog log, PlaceTile t){
+        log.append(t);
+        log.awaitDurable();
+    }
+
+    /**
+     * Makes a change as the server logs it
+     * @param row the row
+     * @param col the column
+     * @param color the color
+     * @param sequence its sequence number, also used as its time
+     * @return the tile
+     */
+    private static PlaceTile tile(int row, int col, PlaceColor color, long sequence){
+        PlaceTile t = new PlaceTile(row, col, 0, null, color, sequence);
+        t.setSequence(sequence);
+        return t;
+    }
+
+    /**
+     * Fails the test if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition){
+            throw new AssertionError(message);
+        }
+    }
+}